@@ -0,0 +1,777 @@
+package templates;
+
+import communication.message.Message;
+import communication.message.impl.event.Attribute;
+import communication.message.impl.event.Event;
+import pipeline.processingelement.Configuration;
+import pipeline.processingelement.operator.SimpleOperator;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * AttributeFilter
+ * ---------------
+ * Forwards the events that satisfy a boolean expression over their attributes, e.g.
+ *
+ *   department in {Cardiology, Oncology} and severity >= 3
+ *
+ * Supported syntax: {@code and}, {@code or}, {@code not}, parentheses, the comparisons
+ * {@code = != < <= > >=} and {@code [not] in {v1, v2, ...}}. Fields are attribute names, plus
+ * {@code activity}, {@code caseId} and {@code timestamp} for the event's own fields. Values are
+ * plain decimal numbers (3, -1.5), bare words or quoted strings. String comparisons ignore case,
+ * numeric literals compare numerically (text values only when they are plain decimals too), and a
+ * test on an attribute the event does not have is false.
+ *
+ * The expression is parsed once and compiled into a tree of type-specialised conditions.
+ * Every and/or node periodically reorders its children by observed selectivity, so the
+ * cheapest test most likely to decide the outcome runs first.
+ */
+public class AttributeFilter extends SimpleOperator<Event> {
+
+    private final Condition condition;
+    private final OperatorMetrics metrics = new OperatorMetrics("AttributeFilter", this);
+
+    public AttributeFilter(Configuration configuration) {
+        super(configuration);
+        String expression = configuration.get("expression").toString();
+        Object interval = configuration.get("reorderInterval");
+        int reorderInterval = interval instanceof Number
+                ? ((Number) interval).intValue()
+                : interval == null ? 4096 : Integer.parseInt(interval.toString().trim());
+
+        condition = new Parser(expression, Math.max(16, reorderInterval)).parse();
+        System.out.println("[AttributeFilter] Compiled expression: " + expression);
+    }
+
+    @Override
+    protected Event process(Message message, int portNumber) {
+        long start = System.nanoTime();
+        metrics.received();
+
+        Event event = (Event) message;
+        boolean matches = condition.test(event);
+        if (matches) {
+            metrics.forwarded();
+        } else {
+            metrics.dropped();
+        }
+        metrics.recordLatency(System.nanoTime() - start);
+        return matches ? event : null;
+    }
+
+    @Override
+    protected Map<Class<? extends Message>, Integer> setConsumedInputs() {
+        Map<Class<? extends Message>, Integer> map = new HashMap<>();
+        map.put(Event.class, 1);
+        return map;
+    }
+
+    @Override
+    public boolean terminate() {
+        boolean terminated = super.terminate();
+        metrics.close();
+        return terminated;
+    }
+
+    // ------------------------------------------------------------------ compiled conditions
+
+    abstract static class Condition {
+        /** Rough relative cost of one evaluation, used to order siblings. */
+        abstract double cost();
+
+        abstract boolean test(Event event);
+    }
+
+    /** Where a leaf reads its value from. */
+    static final class Field {
+        private static final int ATTRIBUTE = 0, ACTIVITY = 1, CASE_ID = 2, TIMESTAMP = 3;
+
+        private final String name;
+        private final int kind;
+
+        Field(String name) {
+            this.name = name;
+            switch (name) {
+                case "activity": kind = ACTIVITY; break;
+                case "caseId": kind = CASE_ID; break;
+                case "timestamp": kind = TIMESTAMP; break;
+                default: kind = ATTRIBUTE;
+            }
+        }
+
+        /** The field's value, or null if the event has no such attribute. */
+        Object read(Event event) {
+            switch (kind) {
+                case ACTIVITY: return event.getActivity();
+                case CASE_ID: return event.getCaseID();
+                case TIMESTAMP: return event.getTimestamp();
+                default:
+                    for (Attribute<?> attribute : event.getAttributes()) {
+                        if (name.equals(attribute.getName())) return attribute.getValue();
+                    }
+                    return null;
+            }
+        }
+
+        double cost() {
+            return kind == ATTRIBUTE ? 2.0 : 1.0;
+        }
+    }
+
+    static final int EQ = 0, NE = 1, LT = 2, LE = 3, GT = 4, GE = 5;
+
+    /** Plain decimals only; Double.parseDouble would also take NaN, Infinity, hex, exponents and 1d. */
+    static final Pattern DECIMAL = Pattern.compile("[+-]?(\\d+(\\.\\d*)?|\\.\\d+)");
+
+    /** Numeric comparison; Number values are compared directly, text is parsed. */
+    static final class NumberCompare extends Condition {
+        private final Field field;
+        private final int op;
+        private final double operand;
+
+        NumberCompare(Field field, int op, double operand) {
+            this.field = field;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        double cost() {
+            return field.cost();
+        }
+
+        @Override
+        boolean test(Event event) {
+            Object value = field.read(event);
+            double number;
+            if (value instanceof Number) {
+                number = ((Number) value).doubleValue();
+            } else if (value != null) {
+                String text = value.toString();
+                if (!DECIMAL.matcher(text).matches()) return false;
+                number = Double.parseDouble(text);
+            } else {
+                return false;
+            }
+            switch (op) {
+                case EQ: return number == operand;
+                case NE: return number != operand;
+                case LT: return number < operand;
+                case LE: return number <= operand;
+                case GT: return number > operand;
+                default: return number >= operand;
+            }
+        }
+    }
+
+    /** Case-insensitive string comparison. */
+    static final class TextCompare extends Condition {
+        private final Field field;
+        private final int op;
+        private final String operand;
+
+        TextCompare(Field field, int op, String operand) {
+            this.field = field;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        double cost() {
+            return field.cost() + 0.5;
+        }
+
+        @Override
+        boolean test(Event event) {
+            Object value = field.read(event);
+            if (value == null) return false;
+            String text = value instanceof String ? (String) value : value.toString();
+            if (op == EQ) return text.equalsIgnoreCase(operand);
+            if (op == NE) return !text.equalsIgnoreCase(operand);
+            int order = text.compareToIgnoreCase(operand);
+            switch (op) {
+                case LT: return order < 0;
+                case LE: return order <= 0;
+                case GT: return order > 0;
+                default: return order >= 0;
+            }
+        }
+    }
+
+    /** {@code field in {numbers}}: binary search over the sorted literals. */
+    static final class NumberIn extends Condition {
+        private final Field field;
+        private final double[] sorted;
+
+        NumberIn(Field field, double[] values) {
+            this.field = field;
+            // binarySearch tells -0.0 from 0.0, which == does not; adding 0.0 turns -0.0 into 0.0
+            this.sorted = new double[values.length];
+            for (int i = 0; i < values.length; i++) this.sorted[i] = values[i] + 0.0;
+            Arrays.sort(this.sorted);
+        }
+
+        @Override
+        double cost() {
+            return field.cost() + 0.5;
+        }
+
+        @Override
+        boolean test(Event event) {
+            Object value = field.read(event);
+            if (value instanceof Number) {
+                return Arrays.binarySearch(sorted, ((Number) value).doubleValue() + 0.0) >= 0;
+            }
+            if (value == null) return false;
+            String text = value.toString();
+            return DECIMAL.matcher(text).matches() && Arrays.binarySearch(sorted, Double.parseDouble(text) + 0.0) >= 0;
+        }
+    }
+
+    /** {@code field in {words}}: case-insensitive open-addressing lookup without copying the value. */
+    static final class TextIn extends Condition {
+        private final Field field;
+        private final String[] slots;
+        private final int mask;
+
+        TextIn(Field field, List<String> values) {
+            this.field = field;
+            int size = Integer.highestOneBit(Math.max(2, values.size() * 4) - 1) << 1;
+            slots = new String[size];
+            mask = size - 1;
+            for (String value : values) {
+                int slot = hash(value) & mask;
+                while (slots[slot] != null && !slots[slot].equalsIgnoreCase(value)) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = value;
+            }
+        }
+
+        @Override
+        double cost() {
+            return field.cost() + 1.0;
+        }
+
+        @Override
+        boolean test(Event event) {
+            Object value = field.read(event);
+            if (value == null) return false;
+            String text = value instanceof String ? (String) value : value.toString();
+            int slot = hash(text) & mask;
+            String candidate;
+            while ((candidate = slots[slot]) != null) {
+                if (candidate.length() == text.length() && candidate.regionMatches(true, 0, text, 0, text.length())) {
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        private static int hash(String value) {
+            int h = 0;
+            for (int i = 0; i < value.length(); i++) {
+                h = 31 * h + Character.toLowerCase(Character.toUpperCase(value.charAt(i)));
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+
+    static final class Not extends Condition {
+        private final Condition operand;
+
+        Not(Condition operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double cost() {
+            return operand.cost();
+        }
+
+        @Override
+        boolean test(Event event) {
+            return !operand.test(event);
+        }
+    }
+
+    /**
+     * Short-circuiting and/or over several children. Each child counts how often it decided the
+     * result (false for and, true for or). Every {@code reorderInterval} evaluations the children
+     * are sorted by cost / P(decides), the optimal order for independent tests, and the counts
+     * are halved so the order keeps following the stream.
+     * <p>
+     * Meant for the operator's single pipeline thread: the statistics are plain fields, so
+     * concurrent test() calls would lose counts and could reorder on stale ones. Each call reads
+     * the children once, so the result is right either way; only the order could be worse.
+     */
+    static final class Junction extends Condition {
+        private final boolean isAnd;
+        private final int reorderInterval;
+        private volatile Condition[] children;
+        private volatile long[] decided;
+        private long observed = 0;
+        private int evaluations = 0;
+
+        Junction(boolean isAnd, List<Condition> children, int reorderInterval) {
+            this.isAnd = isAnd;
+            this.reorderInterval = reorderInterval;
+            this.children = children.toArray(new Condition[0]);
+            this.decided = new long[children.size()];
+        }
+
+        @Override
+        double cost() {
+            double total = 0;
+            for (Condition child : children) total += child.cost();
+            return total;
+        }
+
+        @Override
+        boolean test(Event event) {
+            Condition[] current = children;
+            long[] counts = decided;
+            boolean result = isAnd;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].test(event) != isAnd) {
+                    counts[i]++;
+                    result = !isAnd;
+                    break;
+                }
+            }
+            observed++;
+            if (++evaluations >= reorderInterval) {
+                reorder(current, counts);
+            }
+            return result;
+        }
+
+        private void reorder(Condition[] current, long[] counts) {
+            int n = current.length;
+            Integer[] order = new Integer[n];
+            double[] rank = new double[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+                // +1 keeps children that never decided anything at the back instead of dividing by zero
+                rank[i] = current[i].cost() / ((counts[i] + 1.0) / (observed + 1.0));
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(rank[a], rank[b]));
+
+            Condition[] reordered = new Condition[n];
+            long[] carried = new long[n];
+            for (int i = 0; i < n; i++) {
+                reordered[i] = current[order[i]];
+                carried[i] = counts[order[i]] / 2;
+            }
+            decided = carried;
+            children = reordered;
+            observed /= 2;
+            evaluations = 0;
+        }
+    }
+
+    // ------------------------------------------------------------------ parser
+
+    /** Recursive-descent parser producing the compiled condition tree. */
+    static final class Parser {
+        private final String source;
+        private final int reorderInterval;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Integer> positions = new ArrayList<>();
+        private final List<Boolean> quoted = new ArrayList<>();
+        private int next = 0;
+
+        Parser(String source, int reorderInterval) {
+            this.source = source;
+            this.reorderInterval = reorderInterval;
+            tokenize();
+        }
+
+        Condition parse() {
+            Condition condition = parseOr();
+            if (next < tokens.size()) throw error("Unexpected '" + tokens.get(next) + "'");
+            return condition;
+        }
+
+        private Condition parseOr() {
+            List<Condition> terms = new ArrayList<>();
+            terms.add(parseAnd());
+            while (acceptKeyword("or")) terms.add(parseAnd());
+            return terms.size() == 1 ? terms.get(0) : new Junction(false, terms, reorderInterval);
+        }
+
+        private Condition parseAnd() {
+            List<Condition> terms = new ArrayList<>();
+            terms.add(parseUnary());
+            while (acceptKeyword("and")) terms.add(parseUnary());
+            return terms.size() == 1 ? terms.get(0) : new Junction(true, terms, reorderInterval);
+        }
+
+        private Condition parseUnary() {
+            if (acceptKeyword("not")) return new Not(parseUnary());
+            if (accept("(")) {
+                Condition inner = parseOr();
+                expect(")");
+                return inner;
+            }
+            return parseComparison();
+        }
+
+        private Condition parseComparison() {
+            Field field = new Field(expectWord("field name"));
+
+            boolean negated = acceptKeyword("not");
+            if (acceptKeyword("in")) {
+                expect("{");
+                List<String> values = new ArrayList<>();
+                List<Boolean> literalQuoted = new ArrayList<>();
+                do {
+                    literalQuoted.add(peekQuoted());
+                    values.add(expectWord("value"));
+                } while (accept(","));
+                expect("}");
+                Condition in = allNumeric(values, literalQuoted)
+                        ? new NumberIn(field, values.stream().mapToDouble(Double::parseDouble).toArray())
+                        : new TextIn(field, values);
+                return negated ? new Not(in) : in;
+            }
+            if (negated) throw error("Expected 'in' after 'not'");
+
+            int op = expectOperator();
+            boolean literalQuoted = peekQuoted();
+            String value = expectWord("value");
+            if (!literalQuoted && isNumber(value)) {
+                return new NumberCompare(field, op, Double.parseDouble(value));
+            }
+            return new TextCompare(field, op, value);
+        }
+
+        private int expectOperator() {
+            if (next >= tokens.size()) throw error("Expected comparison operator");
+            String token = tokens.get(next++);
+            switch (token) {
+                case "=": case "==": return EQ;
+                case "!=": return NE;
+                case "<": return LT;
+                case "<=": return LE;
+                case ">": return GT;
+                case ">=": return GE;
+                default:
+                    next--;
+                    throw error("Expected comparison operator but found '" + token + "'");
+            }
+        }
+
+        private boolean allNumeric(List<String> values, List<Boolean> literalQuoted) {
+            for (int i = 0; i < values.size(); i++) {
+                if (literalQuoted.get(i) || !isNumber(values.get(i))) return false;
+            }
+            return true;
+        }
+
+        private static boolean isNumber(String value) {
+            return DECIMAL.matcher(value).matches();
+        }
+
+        private boolean peekQuoted() {
+            return next < tokens.size() && quoted.get(next);
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            if (next < tokens.size() && !quoted.get(next) && tokens.get(next).equalsIgnoreCase(keyword)) {
+                next++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean accept(String symbol) {
+            if (next < tokens.size() && !quoted.get(next) && tokens.get(next).equals(symbol)) {
+                next++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String symbol) {
+            if (!accept(symbol)) throw error("Expected '" + symbol + "'");
+        }
+
+        private String expectWord(String what) {
+            if (next >= tokens.size()) throw error("Expected " + what);
+            String token = tokens.get(next);
+            if (!quoted.get(next) && "(){},=!<>".indexOf(token.charAt(0)) >= 0) {
+                throw error("Expected " + what + " but found '" + token + "'");
+            }
+            next++;
+            return token;
+        }
+
+        private IllegalArgumentException error(String message) {
+            int position = next < positions.size() ? positions.get(next) : source.length();
+            return new IllegalArgumentException(message + " at position " + position + " in: " + source);
+        }
+
+        private void tokenize() {
+            int i = 0;
+            while (i < source.length()) {
+                char c = source.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"' || c == '\'') {
+                    int end = source.indexOf(c, i + 1);
+                    if (end < 0) throw new IllegalArgumentException("Unterminated string at position " + i + " in: " + source);
+                    add(source.substring(i + 1, end), i, true);
+                    i = end + 1;
+                } else if ("(){},".indexOf(c) >= 0) {
+                    add(String.valueOf(c), i, false);
+                    i++;
+                } else if ("=!<>".indexOf(c) >= 0) {
+                    int end = i + 1;
+                    if (end < source.length() && source.charAt(end) == '=') end++;
+                    add(source.substring(i, end), i, false);
+                    i = end;
+                } else {
+                    int end = i;
+                    while (end < source.length()
+                            && !Character.isWhitespace(source.charAt(end))
+                            && "(){},=!<>\"'".indexOf(source.charAt(end)) < 0) {
+                        end++;
+                    }
+                    add(source.substring(i, end), i, false);
+                    i = end;
+                }
+            }
+        }
+
+        private void add(String token, int position, boolean isQuoted) {
+            tokens.add(token);
+            positions.add(position);
+            quoted.add(isQuoted);
+        }
+    }
+
+    // <shared:OperatorMetrics> generated from shared/OperatorMetrics.java.in; edit it there, then run script/SyncShared.java
+    /**
+     * Read-only view of {@link OperatorMetrics} exposed over JMX.
+     */
+    public interface OperatorMetricsMBean {
+        long getReceived();
+
+        long getForwarded();
+
+        long getDropped();
+
+        double getReceivedPerSecond();
+
+        double getLatencyMeanMicros();
+
+        double getLatencyP50Micros();
+
+        double getLatencyP99Micros();
+
+        double getLatencyP999Micros();
+
+        double getLatencyMaxMicros();
+
+        long getLatencyCount();
+
+        /** Raw histogram counts; readers can diff two snapshots to get a recent percentile. */
+        long[] getLatencyBuckets();
+
+        void reset();
+    }
+
+    /**
+     * Per-instance throughput, drop and latency metrics, registered with the platform MBean
+     * server as {@code templates:type=<template>,name=<instance>}. Counters are striped
+     * {@link LongAdder}s and latencies go into a log-linear histogram (32 sub-buckets per
+     * power of two, about 3% precision), so recording is lock-free and allocation-free.
+     * Every getter is a pure read, so any number of JMX clients can poll the same instance.
+     */
+    static final class OperatorMetrics implements OperatorMetricsMBean {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS;
+
+        private final LongAdder received = new LongAdder();
+        private final LongAdder forwarded = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(SUB_BUCKETS * (MAX_SHIFT + 2));
+        private final LongAdder latencyTotalNanos = new LongAdder();
+        private final AtomicLong latencyMaxNanos = new AtomicLong();
+        private ObjectName objectName;
+
+        /** Start of the period the rate covers: creation, or the last reset(). */
+        private volatile long since = System.nanoTime();
+
+        OperatorMetrics(String template, Object instance) {
+            try {
+                objectName = new ObjectName("templates:type=" + template
+                        + ",name=" + Integer.toHexString(System.identityHashCode(instance)));
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new StandardMBean(this, OperatorMetricsMBean.class), objectName);
+            } catch (Exception e) {
+                System.err.println("[" + template + "] ⚠ Metrics not registered with JMX: " + e.getMessage());
+                objectName = null;
+            }
+        }
+
+        void received() {
+            received.increment();
+        }
+
+        void forwarded() {
+            forwarded.increment();
+        }
+
+        void dropped() {
+            dropped.increment();
+        }
+
+        void dropped(long count) {
+            dropped.add(count);
+        }
+
+        void recordLatency(long nanos) {
+            long value = Math.max(0, nanos);
+            latencyBuckets.incrementAndGet(bucketOf(value));
+            latencyTotalNanos.add(value);
+            long max;
+            while (value > (max = latencyMaxNanos.get()) && !latencyMaxNanos.compareAndSet(max, value)) {
+                // retry until the larger value is stored
+            }
+        }
+
+        void close() {
+            if (objectName == null) return;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception ignored) {
+            }
+            objectName = null;
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+            long sub = Math.min(SUB_BUCKETS - 1, (value >>> shift) - SUB_BUCKETS);
+            return SUB_BUCKETS + shift * SUB_BUCKETS + (int) sub;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+        }
+
+        private double percentileMicros(double percentile) {
+            return Math.min(percentileMicros(snapshot(), percentile), latencyMaxNanos.get() / 1000.0);
+        }
+
+        private long[] snapshot() {
+            long[] counts = new long[latencyBuckets.length()];
+            for (int i = 0; i < counts.length; i++) counts[i] = latencyBuckets.get(i);
+            return counts;
+        }
+
+        /** Upper bound of the bucket holding the given percentile of {@code buckets}, in microseconds. */
+        static double percentileMicros(long[] buckets, double percentile) {
+            long total = 0;
+            for (long count : buckets) total += count;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return upperBoundOf(i) / 1000.0;
+            }
+            return upperBoundOf(buckets.length - 1) / 1000.0;
+        }
+
+        @Override
+        public long getReceived() {
+            return received.sum();
+        }
+
+        @Override
+        public long getForwarded() {
+            return forwarded.sum();
+        }
+
+        @Override
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        /** Average rate since the metrics were created or last reset. */
+        @Override
+        public double getReceivedPerSecond() {
+            return received.sum() * 1e9 / Math.max(1, System.nanoTime() - since);
+        }
+
+        @Override
+        public double getLatencyMeanMicros() {
+            long count = getLatencyCount();
+            return count == 0 ? 0 : latencyTotalNanos.sum() / 1000.0 / count;
+        }
+
+        @Override
+        public double getLatencyP50Micros() {
+            return percentileMicros(0.50);
+        }
+
+        @Override
+        public double getLatencyP99Micros() {
+            return percentileMicros(0.99);
+        }
+
+        @Override
+        public double getLatencyP999Micros() {
+            return percentileMicros(0.999);
+        }
+
+        @Override
+        public double getLatencyMaxMicros() {
+            return latencyMaxNanos.get() / 1000.0;
+        }
+
+        @Override
+        public long getLatencyCount() {
+            long count = 0;
+            for (int i = 0; i < latencyBuckets.length(); i++) count += latencyBuckets.get(i);
+            return count;
+        }
+
+        @Override
+        public long[] getLatencyBuckets() {
+            return snapshot();
+        }
+
+        @Override
+        public synchronized void reset() {
+            received.reset();
+            forwarded.reset();
+            dropped.reset();
+            latencyTotalNanos.reset();
+            latencyMaxNanos.set(0);
+            for (int i = 0; i < latencyBuckets.length(); i++) latencyBuckets.set(i, 0);
+            since = System.nanoTime();
+        }
+    }
+    // </shared:OperatorMetrics>
+}
@@ -0,0 +1,650 @@
+package templates;
+
+import communication.message.Message;
+import communication.message.impl.event.Event;
+import pipeline.processingelement.Configuration;
+import pipeline.processingelement.operator.SimpleOperator;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * CaseSampler
+ * -----------
+ * Sheds load ahead of the miner by keeping or dropping whole cases, never single events, so
+ * the directly-follows relations of the cases that get through stay intact.
+ *
+ * A case's fate is decided at its first event: the case id is hashed to a number in [0, 1) and
+ * the case is kept when that number is below the current sampling ratio. The decision is
+ * remembered (up to maxTrackedCases, least recently seen cases are forgotten first) until the
+ * case reaches a terminal activity, so a ratio change never cuts a running case in two.
+ *
+ * The ratio adapts to a numeric JMX attribute of a downstream template, by default the p99
+ * latency of HeuristicsMiner. Every adjustIntervalMs the highest value among the MBeans that
+ * match signalMBean is compared with signalTarget: above it the ratio is multiplied by
+ * decreaseFactor, otherwise it grows by increaseStep (AIMD). The sampler never writes to those
+ * MBeans. A latency percentile is computed over the interval from the difference of two
+ * LatencyBuckets snapshots; any other attribute, such as MinerSupervisor's HeldEvents, is read
+ * as a gauge. An MBean that completed nothing in the interval while an event was in progress
+ * counts as over target, so a stuck miner is not mistaken for an idle one. Without signalMBean
+ * the ratio is fixed.
+ *
+ * The signal is read from the platform MBean server, so only templates in the same JVM are
+ * visible. That is why the sampler is an orgB template placed directly in front of
+ * HeuristicsMiner; in front of a miner in another organization no MBean ever matches and the
+ * ratio stays where it started.
+ *
+ * The current ratio and the fraction of cases kept are exported as
+ * {@code templates:type=CaseSampler,component=Sampling,name=<instance>}, so frequencies mined
+ * from the sample can be scaled back up.
+ */
+public class CaseSampler extends SimpleOperator<Event> {
+
+    private final OperatorMetrics metrics = new OperatorMetrics("CaseSampler", this);
+    private final Sampling sampling;
+    private final Set<String> terminalActivities;
+    private final int seed;
+
+    /** Keep (true) or drop (false) per open case, in access order so the stalest case goes first. */
+    private final LinkedHashMap<String, Boolean> decisions;
+
+    private final ObjectName signalPattern;
+    private final String signalAttribute;
+    private final double signalTarget;
+    /** Percentile the signal attribute names, or NaN when it is read as a gauge. */
+    private final double signalPercentile;
+    /** Per signal MBean: latency buckets and completion count at the previous reading. */
+    private final Map<ObjectName, long[]> previousBuckets = new HashMap<>();
+    private final Map<ObjectName, Long> previousCompleted = new HashMap<>();
+    private final double minRatio;
+    private final double maxRatio;
+    private final double decreaseFactor;
+    private final double increaseStep;
+    private final ScheduledExecutorService adjuster;
+    private boolean signalFound = false;
+    private boolean signalMissingReported = false;
+
+    public CaseSampler(Configuration configuration) {
+        super(configuration);
+        minRatio = clamp(doubleSetting(configuration, "minRatio", 0.01));
+        maxRatio = Math.max(minRatio, clamp(doubleSetting(configuration, "maxRatio", 1.0)));
+        double initial = Math.max(minRatio, Math.min(maxRatio, doubleSetting(configuration, "samplingRatio", maxRatio)));
+        decreaseFactor = Math.max(0.01, Math.min(0.99, doubleSetting(configuration, "decreaseFactor", 0.5)));
+        increaseStep = Math.max(0.0, doubleSetting(configuration, "increaseStep", 0.05));
+        signalAttribute = stringSetting(configuration, "signalAttribute", "LatencyP99Micros");
+        signalTarget = doubleSetting(configuration, "signalTarget", 1000.0);
+        signalPercentile = percentileOf(signalAttribute);
+        terminalActivities = stringSetSetting(configuration, "terminalActivities", Collections.singleton("DISCHARGE"));
+        seed = intSetting(configuration, "seed", 0);
+
+        int maxTrackedCases = Math.max(1, intSetting(configuration, "maxTrackedCases", 100_000));
+        decisions = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                // A forgotten case is decided again, at the ratio of its next event
+                if (size() <= maxTrackedCases) return false;
+                sampling.forgotten(eldest.getValue());
+                return true;
+            }
+        };
+        sampling = new Sampling(this, initial);
+
+        String pattern = stringSetting(configuration, "signalMBean", "templates:type=HeuristicsMiner,*");
+        if (pattern.isEmpty()) {
+            signalPattern = null;
+            adjuster = null;
+            System.out.println("[CaseSampler] Fixed sampling ratio " + initial + ".");
+        } else {
+            try {
+                signalPattern = new ObjectName(pattern);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("CaseSampler: invalid signalMBean \"" + pattern + "\"", e);
+            }
+            long intervalMs = Math.max(10, intSetting(configuration, "adjustIntervalMs", 1000));
+            adjuster = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "case-sampler-adjuster");
+                thread.setDaemon(true);
+                return thread;
+            });
+            adjuster.scheduleWithFixedDelay(this::adjust, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            System.out.println("[CaseSampler] Adapting sampling ratio (" + minRatio + "-" + maxRatio + ") to "
+                    + signalAttribute + " of " + pattern + ", target " + signalTarget + ".");
+        }
+    }
+
+    @Override
+    protected Event process(Message message, int portNumber) {
+        long start = System.nanoTime();
+        metrics.received();
+
+        Event event = (Event) message;
+        String caseId = event.getCaseID();
+        Boolean keep = decisions.get(caseId);
+        if (keep == null) {
+            keep = position(caseId, seed) < sampling.ratio;
+            sampling.opened(keep);
+            decisions.put(caseId, keep);
+        }
+        if (terminalActivities.contains(event.getActivity())) {
+            decisions.remove(caseId);
+        }
+        sampling.trackedCases = decisions.size();
+
+        if (keep) {
+            metrics.forwarded();
+        } else {
+            metrics.dropped();
+        }
+        metrics.recordLatency(System.nanoTime() - start);
+        return keep ? event : null;
+    }
+
+    /** Where the case falls in [0, 1); a case is kept while this is below the ratio. */
+    static double position(String caseId, int seed) {
+        int h = caseId.hashCode() ^ seed;
+        // Murmur3 finalizer, so neighbouring ids like PAT-1000 and PAT-1001 land far apart
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h >>> 8) / (double) (1 << 24);
+    }
+
+    /** One AIMD step on the adjuster thread. */
+    private void adjust() {
+        try {
+            double signal = readSignal();
+            sampling.signal = signal;
+            if (Double.isNaN(signal)) {
+                // Either nothing exposes the signal, or nothing completed since the last reading
+                if (!signalFound && !signalMissingReported) {
+                    System.err.println("[CaseSampler] ⚠ No MBean matching " + signalPattern
+                            + " has " + signalAttribute + " in this JVM; keeping ratio " + sampling.ratio
+                            + ". The sampler must run in the same organization as the template it adapts to.");
+                    signalMissingReported = true;
+                }
+                return;
+            }
+
+            double previous = sampling.ratio;
+            double ratio = nextRatio(previous, signal, signalTarget, minRatio, maxRatio, decreaseFactor, increaseStep);
+            sampling.ratio = ratio;
+            if (previous == maxRatio && ratio < maxRatio) {
+                System.out.println("[CaseSampler] ⚠ " + signalAttribute + " at " + signal
+                        + " (target " + signalTarget + "), shedding cases.");
+            } else if (previous < maxRatio && ratio == maxRatio) {
+                System.out.println("[CaseSampler] ✅ Back at sampling ratio " + maxRatio + ".");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[CaseSampler] ❌ Adjusting the sampling ratio failed: " + e.getMessage());
+        }
+    }
+
+    /** AIMD: cut the ratio multiplicatively above target, grow it additively otherwise. */
+    static double nextRatio(double ratio, double signal, double target, double minRatio, double maxRatio,
+                            double decreaseFactor, double increaseStep) {
+        return signal > target
+                ? Math.max(minRatio, ratio * decreaseFactor)
+                : Math.min(maxRatio, ratio + increaseStep);
+    }
+
+    /**
+     * Highest value of the signal attribute among the matching MBeans over the last interval, or
+     * NaN if none has a reading. An MBean that completed nothing since the previous reading has no
+     * reading while it is idle, and reads as infinitely slow while an event is in progress.
+     */
+    double readSignal() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        double signal = Double.NaN;
+        for (ObjectName name : server.queryNames(signalPattern, null)) {
+            try {
+                double value;
+                if (Double.isNaN(signalPercentile)) {
+                    Object gauge = server.getAttribute(name, signalAttribute);
+                    if (!(gauge instanceof Number)) continue;
+                    signalFound = true;
+                    value = ((Number) gauge).doubleValue();
+                    if (stalled(server, name)) value = Double.POSITIVE_INFINITY;
+                } else {
+                    Object buckets = server.getAttribute(name, "LatencyBuckets");
+                    if (!(buckets instanceof long[])) continue;
+                    signalFound = true;
+                    long[] interval = sinceLastReading(name, (long[]) buckets);
+                    if (stalled(server, name)) {
+                        value = Double.POSITIVE_INFINITY;
+                    } else if (isEmpty(interval)) {
+                        continue; // idle
+                    } else {
+                        value = OperatorMetrics.percentileMicros(interval, signalPercentile);
+                    }
+                }
+                signal = Double.isNaN(signal) ? value : Math.max(signal, value);
+            } catch (AttributeNotFoundException e) {
+                // Other MBeans under the same pattern, e.g. HeuristicsMiner's MinerSupervisor
+            } catch (Exception e) {
+                // The MBean went away between the query and the read
+            }
+        }
+        return signal;
+    }
+
+    /** Whether the MBean completed nothing since the previous reading while an event was in progress. */
+    private boolean stalled(MBeanServer server, ObjectName name) {
+        try {
+            Object received = server.getAttribute(name, "Received");
+            Object completed = server.getAttribute(name, "LatencyCount");
+            if (!(received instanceof Number) || !(completed instanceof Number)) return false;
+            long done = ((Number) completed).longValue();
+            Long before = previousCompleted.put(name, done);
+            boolean inProgress = ((Number) received).longValue() > done;
+            return before != null && done == before && inProgress;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Bucket counts recorded since the previous reading (all of them after the MBean was reset). */
+    private long[] sinceLastReading(ObjectName name, long[] buckets) {
+        long[] previous = previousBuckets.put(name, buckets);
+        if (previous == null || previous.length != buckets.length) return buckets;
+        long[] interval = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            interval[i] = buckets[i] - previous[i];
+            if (interval[i] < 0) return buckets; // reset by someone else since the previous reading
+        }
+        return interval;
+    }
+
+    private static boolean isEmpty(long[] buckets) {
+        for (long count : buckets) {
+            if (count != 0) return false;
+        }
+        return true;
+    }
+
+    /** 0.99 for LatencyP99Micros and the like, NaN for attributes that are not a latency percentile. */
+    static double percentileOf(String attribute) {
+        switch (attribute) {
+            case "LatencyP50Micros": return 0.50;
+            case "LatencyP99Micros": return 0.99;
+            case "LatencyP999Micros": return 0.999;
+            default: return Double.NaN;
+        }
+    }
+
+    @Override
+    protected Map<Class<? extends Message>, Integer> setConsumedInputs() {
+        Map<Class<? extends Message>, Integer> map = new HashMap<>();
+        map.put(Event.class, 1);
+        return map;
+    }
+
+    @Override
+    public boolean terminate() {
+        boolean terminated = super.terminate();
+        if (adjuster != null) adjuster.shutdownNow();
+        sampling.close();
+        metrics.close();
+        return terminated;
+    }
+
+    private static double clamp(double ratio) {
+        return Math.max(0.0, Math.min(1.0, ratio));
+    }
+
+    private static String stringSetting(Configuration configuration, String key, String defaultValue) {
+        Object value = configuration.get(key);
+        return value == null ? defaultValue : value.toString().trim();
+    }
+
+    private static Set<String> stringSetSetting(Configuration configuration, String key, Set<String> defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        Set<String> result = new HashSet<>();
+        if (value instanceof Iterable) {
+            for (Object item : (Iterable<?>) value) result.add(item.toString().trim());
+        } else {
+            for (String item : value.toString().split(",")) {
+                if (!item.trim().isEmpty()) result.add(item.trim());
+            }
+        }
+        return result;
+    }
+
+    private static int intSetting(Configuration configuration, String key, int defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).intValue();
+        return Integer.parseInt(value.toString().trim());
+    }
+
+    private static double doubleSetting(Configuration configuration, String key, double defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        return Double.parseDouble(value.toString().trim());
+    }
+
+    /**
+     * Read-only view of {@link Sampling} exposed over JMX.
+     */
+    public interface SamplingMBean {
+        double getSamplingRatio();
+
+        double getSignal();
+
+        long getKeptCases();
+
+        long getDroppedCases();
+
+        double getKeptCaseFraction();
+
+        int getTrackedCases();
+    }
+
+    /**
+     * Sampling state shared by the pipeline thread and the adjuster, registered as
+     * {@code templates:type=CaseSampler,component=Sampling,name=<instance>}. Divide counts mined
+     * from the sample by KeptCaseFraction (or the ratio of the period) to estimate the full stream.
+     * A case counts once, from its first event: a forgotten case is taken out of the counts, so
+     * deciding it again when it comes back does not count it twice.
+     */
+    static final class Sampling implements SamplingMBean {
+        volatile double ratio;
+        volatile double signal = Double.NaN;
+        volatile int trackedCases = 0;
+        private final LongAdder keptCases = new LongAdder();
+        private final LongAdder droppedCases = new LongAdder();
+        private ObjectName objectName;
+
+        Sampling(Object instance, double ratio) {
+            this.ratio = ratio;
+            try {
+                objectName = new ObjectName("templates:type=CaseSampler,component=Sampling,name="
+                        + Integer.toHexString(System.identityHashCode(instance)));
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new StandardMBean(this, SamplingMBean.class), objectName);
+            } catch (Exception e) {
+                System.err.println("[CaseSampler] ⚠ Sampling metrics not registered with JMX: " + e.getMessage());
+                objectName = null;
+            }
+        }
+
+        void opened(boolean keep) {
+            (keep ? keptCases : droppedCases).increment();
+        }
+
+        void forgotten(boolean keep) {
+            (keep ? keptCases : droppedCases).decrement();
+        }
+
+        void close() {
+            if (objectName == null) return;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception ignored) {
+            }
+            objectName = null;
+        }
+
+        @Override
+        public double getSamplingRatio() {
+            return ratio;
+        }
+
+        @Override
+        public double getSignal() {
+            return signal;
+        }
+
+        @Override
+        public long getKeptCases() {
+            return keptCases.sum();
+        }
+
+        @Override
+        public long getDroppedCases() {
+            return droppedCases.sum();
+        }
+
+        @Override
+        public double getKeptCaseFraction() {
+            long kept = keptCases.sum();
+            long total = kept + droppedCases.sum();
+            return total == 0 ? 1.0 : (double) kept / total;
+        }
+
+        @Override
+        public int getTrackedCases() {
+            return trackedCases;
+        }
+    }
+
+    // <shared:OperatorMetrics> generated from shared/OperatorMetrics.java.in; edit it there, then run script/SyncShared.java
+    /**
+     * Read-only view of {@link OperatorMetrics} exposed over JMX.
+     */
+    public interface OperatorMetricsMBean {
+        long getReceived();
+
+        long getForwarded();
+
+        long getDropped();
+
+        double getReceivedPerSecond();
+
+        double getLatencyMeanMicros();
+
+        double getLatencyP50Micros();
+
+        double getLatencyP99Micros();
+
+        double getLatencyP999Micros();
+
+        double getLatencyMaxMicros();
+
+        long getLatencyCount();
+
+        /** Raw histogram counts; readers can diff two snapshots to get a recent percentile. */
+        long[] getLatencyBuckets();
+
+        void reset();
+    }
+
+    /**
+     * Per-instance throughput, drop and latency metrics, registered with the platform MBean
+     * server as {@code templates:type=<template>,name=<instance>}. Counters are striped
+     * {@link LongAdder}s and latencies go into a log-linear histogram (32 sub-buckets per
+     * power of two, about 3% precision), so recording is lock-free and allocation-free.
+     * Every getter is a pure read, so any number of JMX clients can poll the same instance.
+     */
+    static final class OperatorMetrics implements OperatorMetricsMBean {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS;
+
+        private final LongAdder received = new LongAdder();
+        private final LongAdder forwarded = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(SUB_BUCKETS * (MAX_SHIFT + 2));
+        private final LongAdder latencyTotalNanos = new LongAdder();
+        private final AtomicLong latencyMaxNanos = new AtomicLong();
+        private ObjectName objectName;
+
+        /** Start of the period the rate covers: creation, or the last reset(). */
+        private volatile long since = System.nanoTime();
+
+        OperatorMetrics(String template, Object instance) {
+            try {
+                objectName = new ObjectName("templates:type=" + template
+                        + ",name=" + Integer.toHexString(System.identityHashCode(instance)));
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new StandardMBean(this, OperatorMetricsMBean.class), objectName);
+            } catch (Exception e) {
+                System.err.println("[" + template + "] ⚠ Metrics not registered with JMX: " + e.getMessage());
+                objectName = null;
+            }
+        }
+
+        void received() {
+            received.increment();
+        }
+
+        void forwarded() {
+            forwarded.increment();
+        }
+
+        void dropped() {
+            dropped.increment();
+        }
+
+        void dropped(long count) {
+            dropped.add(count);
+        }
+
+        void recordLatency(long nanos) {
+            long value = Math.max(0, nanos);
+            latencyBuckets.incrementAndGet(bucketOf(value));
+            latencyTotalNanos.add(value);
+            long max;
+            while (value > (max = latencyMaxNanos.get()) && !latencyMaxNanos.compareAndSet(max, value)) {
+                // retry until the larger value is stored
+            }
+        }
+
+        void close() {
+            if (objectName == null) return;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception ignored) {
+            }
+            objectName = null;
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+            long sub = Math.min(SUB_BUCKETS - 1, (value >>> shift) - SUB_BUCKETS);
+            return SUB_BUCKETS + shift * SUB_BUCKETS + (int) sub;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+        }
+
+        private double percentileMicros(double percentile) {
+            return Math.min(percentileMicros(snapshot(), percentile), latencyMaxNanos.get() / 1000.0);
+        }
+
+        private long[] snapshot() {
+            long[] counts = new long[latencyBuckets.length()];
+            for (int i = 0; i < counts.length; i++) counts[i] = latencyBuckets.get(i);
+            return counts;
+        }
+
+        /** Upper bound of the bucket holding the given percentile of {@code buckets}, in microseconds. */
+        static double percentileMicros(long[] buckets, double percentile) {
+            long total = 0;
+            for (long count : buckets) total += count;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return upperBoundOf(i) / 1000.0;
+            }
+            return upperBoundOf(buckets.length - 1) / 1000.0;
+        }
+
+        @Override
+        public long getReceived() {
+            return received.sum();
+        }
+
+        @Override
+        public long getForwarded() {
+            return forwarded.sum();
+        }
+
+        @Override
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        /** Average rate since the metrics were created or last reset. */
+        @Override
+        public double getReceivedPerSecond() {
+            return received.sum() * 1e9 / Math.max(1, System.nanoTime() - since);
+        }
+
+        @Override
+        public double getLatencyMeanMicros() {
+            long count = getLatencyCount();
+            return count == 0 ? 0 : latencyTotalNanos.sum() / 1000.0 / count;
+        }
+
+        @Override
+        public double getLatencyP50Micros() {
+            return percentileMicros(0.50);
+        }
+
+        @Override
+        public double getLatencyP99Micros() {
+            return percentileMicros(0.99);
+        }
+
+        @Override
+        public double getLatencyP999Micros() {
+            return percentileMicros(0.999);
+        }
+
+        @Override
+        public double getLatencyMaxMicros() {
+            return latencyMaxNanos.get() / 1000.0;
+        }
+
+        @Override
+        public long getLatencyCount() {
+            long count = 0;
+            for (int i = 0; i < latencyBuckets.length(); i++) count += latencyBuckets.get(i);
+            return count;
+        }
+
+        @Override
+        public long[] getLatencyBuckets() {
+            return snapshot();
+        }
+
+        @Override
+        public synchronized void reset() {
+            received.reset();
+            forwarded.reset();
+            dropped.reset();
+            latencyTotalNanos.reset();
+            latencyMaxNanos.set(0);
+            for (int i = 0; i < latencyBuckets.length(); i++) latencyBuckets.set(i, 0);
+            since = System.nanoTime();
+        }
+    }
+    // </shared:OperatorMetrics>
+}
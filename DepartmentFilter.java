@@ -1,38 +1,53 @@
 package templates;
 
 import communication.message.Message;
+import communication.message.impl.event.Attribute;
 import communication.message.impl.event.Event;
 import pipeline.processingelement.Configuration;
 import pipeline.processingelement.operator.SimpleOperator;
 
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
-public class DepartmentFilter extends SimpleOperator<Event> {
-    private final String department;
-    // Only count received events per second
-    private long receivedCount = 0;
-    private long lastReportTime = System.currentTimeMillis();
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
+public class DepartmentFilter extends SimpleOperator<Event> {
+    private final DepartmentSet departments;
+    private final OperatorMetrics metrics = new OperatorMetrics("DepartmentFilter", this);
 
     public DepartmentFilter(Configuration configuration) {
         super(configuration);
-        // Read department from configuration
-        department = configuration.get("department").toString();
+        // Read departments from configuration ("departments" list and/or single "department")
+        Set<String> configured = new LinkedHashSet<>();
+        Object list = configuration.get("departments");
+        if (list instanceof Collection) {
+            for (Object department : (Collection<?>) list) {
+                configured.add(department.toString().trim());
+            }
+        }
+        Object single = configuration.get("department");
+        if (single != null) {
+            configured.add(single.toString().trim());
+        }
+        if (configured.isEmpty()) {
+            throw new IllegalArgumentException("DepartmentFilter needs \"department\" or \"departments\"");
+        }
+        departments = new DepartmentSet(configured);
+        System.out.println("[DepartmentFilter] Forwarding departments: " + configured);
     }
 
     @Override
     protected Event process(Message message, int portNumber) {
-
-        receivedCount++;
-
-        long now = System.currentTimeMillis();
-        if (now - lastReportTime >= 1000) {
-            System.out.println("[DepartmentFilter] Events received in last second: " + receivedCount);
-
-            receivedCount = 0;
-            lastReportTime = now;
-        }
+        long start = System.nanoTime();
+        metrics.received();
 
         Event event = (Event) message;
 
@@ -41,18 +56,28 @@ public class DepartmentFilter extends SimpleOperator<Event> {
 //                + event.getCaseID() + " - " + event.getActivity()
 //                + " in " + event.getAttributes());
 
-        boolean matches = event.getAttributes().stream()
-                .anyMatch(attribute ->
-                        attribute.getName().equals("department") &&
-                                attribute.getValue().toString().equalsIgnoreCase(department));
+        boolean matches = false;
+        for (Attribute<?> attribute : event.getAttributes()) {
+            if ("department".equals(attribute.getName())) {
+                Object value = attribute.getValue();
+                // Values are Strings in practice, so toString() is only a fallback
+                CharSequence department = value instanceof CharSequence ? (CharSequence) value : String.valueOf(value);
+                if (departments.contains(department)) {
+                    matches = true;
+                    break;
+                }
+            }
+        }
 
         if (matches) {
 //            System.out.println("[DepartmentFilter] ✅ Forwarding event for department: " + department);
-            return event;
+            metrics.forwarded();
         } else {
 //            System.out.println("[DepartmentFilter] ❌ Dropping event (not " + department + ")");
-            return null;
+            metrics.dropped();
         }
+        metrics.recordLatency(System.nanoTime() - start);
+        return matches ? event : null;
     }
 
     @Override
@@ -61,4 +86,280 @@ public class DepartmentFilter extends SimpleOperator<Event> {
         map.put(Event.class, 1);
         return map;
     }
+
+    @Override
+    public boolean terminate() {
+        boolean terminated = super.terminate();
+        metrics.close();
+        return terminated;
+    }
+
+    /**
+     * Case-insensitive set of department names, hashed once at construction.
+     * Lookups hash the candidate character by character and compare with
+     * {@link String#regionMatches(boolean, int, String, int, int)}, so matching an
+     * event never lower-cases or copies its value.
+     */
+    static final class DepartmentSet {
+        private final String[] slots;
+        private final int mask;
+
+        DepartmentSet(Collection<String> departments) {
+            int size = Integer.highestOneBit(Math.max(2, departments.size() * 4) - 1) << 1;
+            slots = new String[size];
+            mask = size - 1;
+            for (String department : departments) {
+                int slot = hash(department) & mask;
+                while (slots[slot] != null && !slots[slot].equalsIgnoreCase(department)) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = department;
+            }
+        }
+
+        boolean contains(CharSequence candidate) {
+            int length = candidate.length();
+            int slot = hash(candidate) & mask;
+            String department;
+            while ((department = slots[slot]) != null) {
+                if (department.length() == length && matches(department, candidate)) return true;
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        private static boolean matches(String department, CharSequence candidate) {
+            if (candidate instanceof String) {
+                return department.regionMatches(true, 0, (String) candidate, 0, department.length());
+            }
+            for (int i = 0; i < department.length(); i++) {
+                if (fold(department.charAt(i)) != fold(candidate.charAt(i))) return false;
+            }
+            return true;
+        }
+
+        /** Same folding as equalsIgnoreCase, so equal names always land in the same slot. */
+        private static char fold(char c) {
+            return Character.toLowerCase(Character.toUpperCase(c));
+        }
+
+        private static int hash(CharSequence value) {
+            int h = 0;
+            for (int i = 0; i < value.length(); i++) {
+                h = 31 * h + fold(value.charAt(i));
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+
+    // <shared:OperatorMetrics> generated from shared/OperatorMetrics.java.in; edit it there, then run script/SyncShared.java
+    /**
+     * Read-only view of {@link OperatorMetrics} exposed over JMX.
+     */
+    public interface OperatorMetricsMBean {
+        long getReceived();
+
+        long getForwarded();
+
+        long getDropped();
+
+        double getReceivedPerSecond();
+
+        double getLatencyMeanMicros();
+
+        double getLatencyP50Micros();
+
+        double getLatencyP99Micros();
+
+        double getLatencyP999Micros();
+
+        double getLatencyMaxMicros();
+
+        long getLatencyCount();
+
+        /** Raw histogram counts; readers can diff two snapshots to get a recent percentile. */
+        long[] getLatencyBuckets();
+
+        void reset();
+    }
+
+    /**
+     * Per-instance throughput, drop and latency metrics, registered with the platform MBean
+     * server as {@code templates:type=<template>,name=<instance>}. Counters are striped
+     * {@link LongAdder}s and latencies go into a log-linear histogram (32 sub-buckets per
+     * power of two, about 3% precision), so recording is lock-free and allocation-free.
+     * Every getter is a pure read, so any number of JMX clients can poll the same instance.
+     */
+    static final class OperatorMetrics implements OperatorMetricsMBean {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS;
+
+        private final LongAdder received = new LongAdder();
+        private final LongAdder forwarded = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(SUB_BUCKETS * (MAX_SHIFT + 2));
+        private final LongAdder latencyTotalNanos = new LongAdder();
+        private final AtomicLong latencyMaxNanos = new AtomicLong();
+        private ObjectName objectName;
+
+        /** Start of the period the rate covers: creation, or the last reset(). */
+        private volatile long since = System.nanoTime();
+
+        OperatorMetrics(String template, Object instance) {
+            try {
+                objectName = new ObjectName("templates:type=" + template
+                        + ",name=" + Integer.toHexString(System.identityHashCode(instance)));
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new StandardMBean(this, OperatorMetricsMBean.class), objectName);
+            } catch (Exception e) {
+                System.err.println("[" + template + "] ⚠ Metrics not registered with JMX: " + e.getMessage());
+                objectName = null;
+            }
+        }
+
+        void received() {
+            received.increment();
+        }
+
+        void forwarded() {
+            forwarded.increment();
+        }
+
+        void dropped() {
+            dropped.increment();
+        }
+
+        void dropped(long count) {
+            dropped.add(count);
+        }
+
+        void recordLatency(long nanos) {
+            long value = Math.max(0, nanos);
+            latencyBuckets.incrementAndGet(bucketOf(value));
+            latencyTotalNanos.add(value);
+            long max;
+            while (value > (max = latencyMaxNanos.get()) && !latencyMaxNanos.compareAndSet(max, value)) {
+                // retry until the larger value is stored
+            }
+        }
+
+        void close() {
+            if (objectName == null) return;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception ignored) {
+            }
+            objectName = null;
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+            long sub = Math.min(SUB_BUCKETS - 1, (value >>> shift) - SUB_BUCKETS);
+            return SUB_BUCKETS + shift * SUB_BUCKETS + (int) sub;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+        }
+
+        private double percentileMicros(double percentile) {
+            return Math.min(percentileMicros(snapshot(), percentile), latencyMaxNanos.get() / 1000.0);
+        }
+
+        private long[] snapshot() {
+            long[] counts = new long[latencyBuckets.length()];
+            for (int i = 0; i < counts.length; i++) counts[i] = latencyBuckets.get(i);
+            return counts;
+        }
+
+        /** Upper bound of the bucket holding the given percentile of {@code buckets}, in microseconds. */
+        static double percentileMicros(long[] buckets, double percentile) {
+            long total = 0;
+            for (long count : buckets) total += count;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return upperBoundOf(i) / 1000.0;
+            }
+            return upperBoundOf(buckets.length - 1) / 1000.0;
+        }
+
+        @Override
+        public long getReceived() {
+            return received.sum();
+        }
+
+        @Override
+        public long getForwarded() {
+            return forwarded.sum();
+        }
+
+        @Override
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        /** Average rate since the metrics were created or last reset. */
+        @Override
+        public double getReceivedPerSecond() {
+            return received.sum() * 1e9 / Math.max(1, System.nanoTime() - since);
+        }
+
+        @Override
+        public double getLatencyMeanMicros() {
+            long count = getLatencyCount();
+            return count == 0 ? 0 : latencyTotalNanos.sum() / 1000.0 / count;
+        }
+
+        @Override
+        public double getLatencyP50Micros() {
+            return percentileMicros(0.50);
+        }
+
+        @Override
+        public double getLatencyP99Micros() {
+            return percentileMicros(0.99);
+        }
+
+        @Override
+        public double getLatencyP999Micros() {
+            return percentileMicros(0.999);
+        }
+
+        @Override
+        public double getLatencyMaxMicros() {
+            return latencyMaxNanos.get() / 1000.0;
+        }
+
+        @Override
+        public long getLatencyCount() {
+            long count = 0;
+            for (int i = 0; i < latencyBuckets.length(); i++) count += latencyBuckets.get(i);
+            return count;
+        }
+
+        @Override
+        public long[] getLatencyBuckets() {
+            return snapshot();
+        }
+
+        @Override
+        public synchronized void reset() {
+            received.reset();
+            forwarded.reset();
+            dropped.reset();
+            latencyTotalNanos.reset();
+            latencyMaxNanos.set(0);
+            for (int i = 0; i < latencyBuckets.length(); i++) latencyBuckets.set(i, 0);
+            since = System.nanoTime();
+        }
+    }
+    // </shared:OperatorMetrics>
 }
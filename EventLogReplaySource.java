@@ -0,0 +1,1048 @@
+package templates;
+
+import communication.message.impl.event.Attribute;
+import communication.message.impl.event.Event;
+import org.springframework.stereotype.Component;
+import pipeline.processingelement.Configuration;
+import pipeline.processingelement.source.WebSource;
+import reactor.core.publisher.Flux;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * EventLogReplaySource
+ * --------------------
+ * Replays a recorded event log as the same Events HospitalEventSource emits:
+ * case ID, activity, epoch-millisecond timestamp, and every other field as an attribute.
+ *
+ * Supported logs:
+ *   CSV     header row, one event per line, replayed in file order
+ *   XES     converted into the binary format and replayed from there; the copy is kept at
+ *           binaryCache when that is set, otherwise in a temporary file for this JVM only
+ *   binary  the compact format written by BinaryLogWriter, ordered by timestamp
+ *
+ * Logs are memory-mapped. Case IDs, activities and attribute values are parsed straight
+ * from the mapped bytes and deduplicated, so a repeated value is decoded only once.
+ *
+ * Converting a log ahead of time:
+ *   java -cp <classpath> templates.EventLogReplaySource log.xes log.bin
+ */
+@Component
+public class EventLogReplaySource extends WebSource<Event> {
+
+    private static final long MAPPING_WINDOW = 256L * 1024 * 1024;
+    /** Case IDs remembered per loop pass before the suffix cache starts over. */
+    private static final int MAX_PASS_CASE_IDS = 1 << 20;
+
+    private final Path file;
+    private final String format;
+    /** Log milliseconds replayed per wall-clock millisecond; 0 replays as fast as downstream consumes. */
+    private final double speed;
+    private final boolean loop;
+    private final long tickMs;
+    private final int maxEventsPerTick;
+    private final CsvOptions csvOptions;
+    /** Where the binary copy of an XES log is kept between runs; null converts again every run. */
+    private final Path binaryCache;
+
+    private LogReader reader;
+    private final LogRecord record = new LogRecord();
+    /** True while record holds an event that has not been emitted yet. */
+    private boolean pending = false;
+    private volatile boolean exhausted = false;
+
+    // Loop mode: every pass shifts timestamps past the previous one and suffixes case IDs with "#pass"
+    private int pass = 0;
+    private long passOffset = 0;
+    private long firstTimestamp = Long.MIN_VALUE;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private final Map<String, String> passCaseIds = new HashMap<>();
+    private long replayStartNanos;
+
+    // Rate reporting
+    private final LongAdder droppedTicks = new LongAdder();
+    private long sinceReport = 0;
+    private long lastReportNanos = System.nanoTime();
+
+    public EventLogReplaySource(Configuration configuration) {
+        super(configuration);
+        String path = stringSetting(configuration, "file", null);
+        if (path == null || path.trim().isEmpty()) {
+            throw new IllegalArgumentException("[EventLogReplaySource] Missing required setting 'file'");
+        }
+        file = Paths.get(path.trim());
+        format = stringSetting(configuration, "format", "auto").toLowerCase();
+        speed = parseSpeed(stringSetting(configuration, "speed", "realtime"));
+        loop = Boolean.parseBoolean(stringSetting(configuration, "loop", "false"));
+        tickMs = Math.max(1, intSetting(configuration, "tickMs", 10));
+        maxEventsPerTick = Math.max(1, intSetting(configuration, "maxEventsPerTick", 100_000));
+        csvOptions = new CsvOptions(
+                stringSetting(configuration, "caseIdColumn", "caseId"),
+                stringSetting(configuration, "activityColumn", "activity"),
+                stringSetting(configuration, "timestampColumn", "timestamp"),
+                stringSetting(configuration, "csvDelimiter", ","));
+        String cache = stringSetting(configuration, "binaryCache", "").trim();
+        binaryCache = cache.isEmpty() ? null : Paths.get(cache);
+    }
+
+    @Override
+    protected Flux<Event> process() {
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[EventLogReplaySource] ❌ Cannot open " + file + ": " + e.getMessage());
+            return Flux.error(e);
+        }
+
+        Flux<Event> events;
+        if (speed <= 0) {
+            // As fast as possible: one event per downstream request
+            events = Flux.generate(sink -> {
+                Event event = nextEvent();
+                if (event == null) sink.complete();
+                else sink.next(event);
+            });
+        } else {
+            events = Flux.interval(Duration.ofMillis(tickMs))
+                    // A dropped tick loses nothing; the next one emits everything that became due
+                    .onBackpressureDrop(tick -> droppedTicks.increment())
+                    .takeWhile(tick -> !exhausted)
+                    .concatMap(tick -> Flux.fromIterable(dueEvents()), 1);
+        }
+        return events.doOnComplete(() ->
+                System.out.println("[EventLogReplaySource] ✅ Replay of " + file + " finished after " + (pass + 1) + " pass(es)."));
+    }
+
+    @Override
+    public boolean terminate() {
+        super.terminate();
+        exhausted = true;
+        closeReader();
+        return true;
+    }
+
+    private synchronized void open() throws IOException {
+        if (reader != null) return;
+        reader = openReader(file, format, csvOptions, binaryCache);
+        pending = false;
+        exhausted = false;
+        ensurePending();
+        replayStartNanos = System.nanoTime();
+        System.out.println("[EventLogReplaySource] Replaying " + file + " at "
+                + (speed <= 0 ? "full speed" : speed + "x") + (loop ? ", looping" : "") + ".");
+    }
+
+    private synchronized void closeReader() {
+        if (reader == null) return;
+        try {
+            reader.close();
+        } catch (IOException e) {
+            System.err.println("[EventLogReplaySource] Error closing " + file + ": " + e.getMessage());
+        }
+        reader = null;
+    }
+
+    private synchronized Event nextEvent() {
+        if (!ensurePending()) return null;
+        Event event = toEvent();
+        pending = false;
+        if ((++sinceReport & 0x3FF) == 0) reportRate(System.nanoTime());
+        return event;
+    }
+
+    /** Every event whose log time, scaled by speed, has been reached since the replay started. */
+    private synchronized List<Event> dueEvents() {
+        long now = System.nanoTime();
+        reportRate(now);
+        long horizon = firstTimestamp + (long) ((now - replayStartNanos) / 1e6 * speed);
+        List<Event> due = new ArrayList<>();
+        while (due.size() < maxEventsPerTick && ensurePending() && record.timestamp + passOffset <= horizon) {
+            due.add(toEvent());
+            pending = false;
+        }
+        sinceReport += due.size();
+        return due;
+    }
+
+    private boolean ensurePending() {
+        if (pending) return true;
+        if (exhausted || reader == null) return false;
+        try {
+            pending = advance();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[EventLogReplaySource] ❌ Error reading " + file + ": " + e.getMessage());
+            pending = false;
+        }
+        if (!pending) exhausted = true;
+        return pending;
+    }
+
+    private boolean advance() throws IOException {
+        if (reader.next(record)) {
+            if (pass == 0) {
+                if (firstTimestamp == Long.MIN_VALUE) firstTimestamp = record.timestamp;
+                lastTimestamp = Math.max(lastTimestamp, record.timestamp);
+            }
+            return true;
+        }
+        if (!loop || firstTimestamp == Long.MIN_VALUE) return false;
+
+        reader.rewind();
+        pass++;
+        passOffset += lastTimestamp - firstTimestamp + 1;
+        passCaseIds.clear();
+        return reader.next(record);
+    }
+
+    private Event toEvent() {
+        String caseId = record.caseId;
+        if (pass > 0) {
+            // Without the suffix a case would continue from its last activity of the previous pass
+            if (passCaseIds.size() >= MAX_PASS_CASE_IDS) passCaseIds.clear();
+            caseId = passCaseIds.computeIfAbsent(caseId, id -> id + "#" + pass);
+        }
+        Set<Attribute<?>> attributes = new HashSet<>();
+        for (int i = 0; i < record.attributeCount; i++) {
+            attributes.add(new Attribute<>(record.keys[i], record.values[i]));
+        }
+        return new Event(caseId, record.activity, String.valueOf(record.timestamp + passOffset), attributes);
+    }
+
+    private void reportRate(long now) {
+        long elapsed = now - lastReportNanos;
+        if (elapsed < 1_000_000_000L) return;
+
+        System.out.printf("[EventLogReplaySource] Replayed %.0f ev/s, pass %d, dropped ticks %d%n",
+                sinceReport * 1e9 / elapsed, pass + 1, droppedTicks.sumThenReset());
+        sinceReport = 0;
+        lastReportNanos = now;
+    }
+
+    private static double parseSpeed(String value) {
+        String speed = value.trim().toLowerCase();
+        if ("asap".equals(speed)) return 0;
+        if ("realtime".equals(speed)) return 1;
+        if (speed.endsWith("x")) speed = speed.substring(0, speed.length() - 1);
+        double factor = Double.parseDouble(speed);
+        if (factor <= 0) throw new IllegalArgumentException("[EventLogReplaySource] speed must be positive: " + value);
+        return factor;
+    }
+
+    static LogReader openReader(Path file, String format, CsvOptions csvOptions, Path binaryCache) throws IOException {
+        String detected = "auto".equals(format) ? detectFormat(file) : format;
+        switch (detected) {
+            case "binary":
+                return new BinaryLogReader(file);
+            case "xes":
+                return new BinaryLogReader(convertedXes(file, binaryCache));
+            case "csv":
+                return new CsvLogReader(file, csvOptions);
+            default:
+                throw new IllegalArgumentException("Unknown log format: " + format);
+        }
+    }
+
+    private static String detectFormat(Path file) throws IOException {
+        if (BinaryLogReader.hasMagic(file)) return "binary";
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".xes") ? "xes" : "csv";
+    }
+
+    /**
+     * The binary copy of an XES log. With a cache path the copy is reused until the log is newer
+     * than it; without one it goes to a temporary file deleted on exit, so nothing is ever
+     * written next to the user's log.
+     */
+    private static Path convertedXes(Path xes, Path cache) throws IOException {
+        Path bin;
+        Path tmp;
+        if (cache == null) {
+            bin = Files.createTempFile("replay-", ".bin");
+            bin.toFile().deleteOnExit();
+            tmp = Files.createTempFile("replay-", ".tmp");
+        } else {
+            bin = cache.toAbsolutePath();
+            if (Files.isRegularFile(bin)
+                    && Files.getLastModifiedTime(bin).compareTo(Files.getLastModifiedTime(xes)) >= 0) {
+                System.out.println("[EventLogReplaySource] Using cached conversion " + bin);
+                return bin;
+            }
+            // Converted next to the cache, so the move below replaces it atomically
+            tmp = Files.createTempFile(bin.getParent(), "replay-", ".tmp");
+        }
+        try {
+            long events = convertXes(xes, tmp);
+            Files.move(tmp, bin, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("[EventLogReplaySource] Converted " + events + " XES events to " + bin);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return bin;
+    }
+
+    /**
+     * Converts a CSV or XES log into the binary replay format:
+     *   EventLogReplaySource <input.csv|input.xes> <output.bin> [caseIdColumn activityColumn timestampColumn [delimiter]]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 5 && args.length != 6) {
+            System.err.println("Usage: EventLogReplaySource <input.csv|input.xes> <output.bin>"
+                    + " [caseIdColumn activityColumn timestampColumn [delimiter]]");
+            System.exit(2);
+        }
+        Path input = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+        CsvOptions options = args.length == 2
+                ? new CsvOptions("caseId", "activity", "timestamp", ",")
+                : new CsvOptions(args[2], args[3], args[4], args.length == 6 ? args[5] : ",");
+
+        String format = detectFormat(input);
+        if ("binary".equals(format)) {
+            System.err.println("[EventLogReplaySource] ❌ " + input + " is already a binary replay log; replay it directly.");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        long events;
+        if ("xes".equals(format)) {
+            events = convertXes(input, output);
+        } else {
+            try (LogReader in = new CsvLogReader(input, options);
+                 BinaryLogWriter out = new BinaryLogWriter(output)) {
+                LogRecord record = new LogRecord();
+                while (in.next(record)) out.write(record);
+                events = out.events();
+            }
+        }
+        System.out.printf("[EventLogReplaySource] ✅ Converted %d events from %s to %s in %d ms%n",
+                events, input, output, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Reads an XES log with StAX, assigns each trace's concept:name as the case ID of its events,
+     * and writes them sorted by time:timestamp. Other event attributes are kept; int attributes
+     * stay numbers, everything else becomes a string.
+     */
+    static long convertXes(Path xes, Path output) throws IOException {
+        List<LogRecord> events = new ArrayList<>();
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(xes), 1 << 16)) {
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            int depth = 0;
+            int traceDepth = -1;
+            int eventDepth = -1;
+            int traces = 0;
+            int traceStart = 0;
+            long traceTime = 0;
+            String caseId = null;
+            LogRecord event = null;
+            while (xml.hasNext()) {
+                int type = xml.next();
+                if (type == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String element = xml.getLocalName();
+                    String key = xml.getAttributeValue(null, "key");
+                    String value = xml.getAttributeValue(null, "value");
+                    if ("trace".equals(element)) {
+                        traceDepth = depth;
+                        traceStart = events.size();
+                        traceTime = 0;
+                        caseId = null;
+                    } else if ("event".equals(element) && traceDepth > 0) {
+                        eventDepth = depth;
+                        event = new LogRecord();
+                        event.timestamp = Long.MIN_VALUE;
+                    } else if (event != null && depth == eventDepth + 1 && key != null && value != null) {
+                        if ("concept:name".equals(key)) {
+                            event.activity = value;
+                        } else if ("time:timestamp".equals(key)) {
+                            event.timestamp = parseTimestamp(value);
+                        } else {
+                            event.addAttribute(key, "int".equals(element) ? number(Long.parseLong(value.trim())) : value);
+                        }
+                    } else if (event == null && depth == traceDepth + 1 && "concept:name".equals(key)) {
+                        caseId = value;
+                    }
+                } else if (type == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == eventDepth) {
+                        if (event.activity != null) {
+                            // Events without a timestamp keep the time of the event before them
+                            if (event.timestamp == Long.MIN_VALUE) event.timestamp = traceTime;
+                            traceTime = event.timestamp;
+                            events.add(event);
+                        }
+                        event = null;
+                        eventDepth = -1;
+                    } else if (depth == traceDepth) {
+                        String id = caseId != null ? caseId : "trace-" + traces;
+                        for (int i = traceStart; i < events.size(); i++) events.get(i).caseId = id;
+                        traces++;
+                        traceDepth = -1;
+                    }
+                    depth--;
+                }
+            }
+            xml.close();
+        } catch (XMLStreamException | RuntimeException e) {
+            throw new IOException("Invalid XES log " + xes + ": " + e.getMessage(), e);
+        }
+
+        // Traces are stored one after another; replay needs the interleaved order (the sort is stable)
+        events.sort(Comparator.comparingLong(r -> r.timestamp));
+        try (BinaryLogWriter out = new BinaryLogWriter(output)) {
+            for (LogRecord event : events) out.write(event);
+            return out.events();
+        }
+    }
+
+    /** Epoch milliseconds, or an ISO-8601 instant, offset date-time or (UTC) local date-time. */
+    static long parseTimestamp(String text) {
+        String value = text.trim();
+        if (!value.isEmpty() && isDigits(value)) return Long.parseLong(value);
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+            // try the next form
+        }
+        try {
+            return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+            // try the next form
+        }
+        return LocalDateTime.parse(value.replace(' ', 'T')).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static boolean isDigits(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) return false;
+        }
+        return value.length() <= 18;
+    }
+
+    /** Integer when the value fits (small ones are cached by Integer.valueOf), Long otherwise. */
+    static Object number(long value) {
+        return value == (int) value ? (Object) Integer.valueOf((int) value) : (Object) Long.valueOf(value);
+    }
+
+    /** One decoded event; readers overwrite the same instance for every line or record. */
+    static final class LogRecord {
+        String caseId;
+        String activity;
+        long timestamp;
+        int attributeCount = 0;
+        String[] keys = new String[8];
+        Object[] values = new Object[8];
+
+        void addAttribute(String key, Object value) {
+            if (attributeCount == keys.length) {
+                keys = Arrays.copyOf(keys, attributeCount * 2);
+                values = Arrays.copyOf(values, attributeCount * 2);
+            }
+            keys[attributeCount] = key;
+            values[attributeCount] = value;
+            attributeCount++;
+        }
+    }
+
+    interface LogReader extends Closeable {
+        /** Reads the next event into record; false at the end of the log. */
+        boolean next(LogRecord record) throws IOException;
+
+        /** Starts over at the first event. */
+        void rewind() throws IOException;
+    }
+
+    static final class CsvOptions {
+        final String caseIdColumn;
+        final String activityColumn;
+        final String timestampColumn;
+        final byte delimiter;
+
+        CsvOptions(String caseIdColumn, String activityColumn, String timestampColumn, String delimiter) {
+            this.caseIdColumn = caseIdColumn;
+            this.activityColumn = activityColumn;
+            this.timestampColumn = timestampColumn;
+            String d = "\\t".equals(delimiter) ? "\t" : delimiter;
+            if (d.length() != 1 || d.charAt(0) > 0x7F) {
+                throw new IllegalArgumentException("CSV delimiter must be a single ASCII character: " + delimiter);
+            }
+            this.delimiter = (byte) d.charAt(0);
+        }
+    }
+
+    /**
+     * Read-only view of a file through a sliding memory mapping, so logs larger than 2 GB work too.
+     * The mapping is moved forward when a read would run past its end.
+     */
+    static final class MappedInput implements Closeable {
+        private final FileChannel channel;
+        private final long size;
+        private final long window;
+        private long base;
+        private MappedByteBuffer buffer;
+
+        MappedInput(Path file, long window) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            size = channel.size();
+            this.window = window;
+            seek(0);
+        }
+
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        long size() {
+            return size;
+        }
+
+        long position() {
+            return base + buffer.position();
+        }
+
+        void seek(long offset) throws IOException {
+            base = offset;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(window, size - offset));
+        }
+
+        /** Whether the mapping reaches the end of the file. */
+        boolean lastWindow() {
+            return base + buffer.limit() >= size;
+        }
+
+        /** Makes n bytes readable at the current position; false if the file ends first. */
+        boolean ensure(int n) throws IOException {
+            if (buffer.remaining() >= n) return true;
+            if (!lastWindow()) seek(position());
+            return buffer.remaining() >= n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Open-addressing table from byte ranges to Strings, so a value that repeats in the log
+     * is decoded once. Starts over when it reaches maxEntries (e.g. with millions of case IDs).
+     */
+    static final class StringTable {
+        private final int maxEntries;
+        private int[] hashes = new int[64];
+        private byte[][] keys = new byte[64][];
+        private String[] values = new String[64];
+        private int size = 0;
+
+        StringTable(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        String get(ByteBuffer buffer, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) hash = 31 * hash + buffer.get(i);
+
+            int mask = keys.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            for (byte[] key; (key = keys[slot]) != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && sameBytes(key, buffer, from, to)) return values[slot];
+            }
+
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(from + i);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            if (size * 2 >= keys.length) {
+                if (size >= maxEntries) clear();
+                else resize(keys.length * 2);
+                mask = keys.length - 1;
+                slot = (hash ^ (hash >>> 16)) & mask;
+                while (keys[slot] != null) slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            keys[slot] = bytes;
+            values[slot] = value;
+            size++;
+            return value;
+        }
+
+        private static boolean sameBytes(byte[] key, ByteBuffer buffer, int from, int to) {
+            if (key.length != to - from) return false;
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(from + i)) return false;
+            }
+            return true;
+        }
+
+        private void clear() {
+            Arrays.fill(keys, null);
+            Arrays.fill(values, null);
+            size = 0;
+        }
+
+        private void resize(int capacity) {
+            int[] oldHashes = hashes;
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            hashes = new int[capacity];
+            keys = new byte[capacity][];
+            values = new String[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) continue;
+                int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+                while (keys[slot] != null) slot = (slot + 1) & mask;
+                hashes[slot] = oldHashes[i];
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * CSV with a header row. Fields may be quoted ("" escapes a quote); integer fields without
+     * leading zeros become Integer/Long attributes, empty fields are left out. Malformed lines are skipped and counted.
+     */
+    static final class CsvLogReader implements LogReader {
+        private final MappedInput input;
+        private final byte delimiter;
+        private final String[] columns;
+        private final int caseIdIndex;
+        private final int activityIndex;
+        private final int timestampIndex;
+        private final long dataStart;
+        private final StringTable caseIds = new StringTable(1 << 20);
+        private final StringTable activities = new StringTable(1 << 16);
+        private final StringTable values = new StringTable(1 << 16);
+        private final String path;
+
+        /** Field boundaries of the current line, as absolute positions in the mapped buffer. */
+        private int[] fieldStart = new int[16];
+        private int[] fieldEnd = new int[16];
+        private long line = 0;
+        private long skipped = 0;
+
+        /** The last ISO timestamp and its value; logs often repeat a timestamp across events. */
+        private byte[] lastTimestampText = new byte[0];
+        private long lastTimestampValue;
+
+        CsvLogReader(Path file, CsvOptions options) throws IOException {
+            this(file, options, MAPPING_WINDOW);
+        }
+
+        /** With a smaller mapping window, so tests can cross its end without a huge file. */
+        CsvLogReader(Path file, CsvOptions options, long mappingWindow) throws IOException {
+            input = new MappedInput(file, mappingWindow);
+            delimiter = options.delimiter;
+            path = file.toString();
+
+            // Skip a UTF-8 byte order mark
+            ByteBuffer buffer = input.buffer();
+            if (buffer.remaining() >= 3 && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB
+                    && buffer.get(2) == (byte) 0xBF) {
+                buffer.position(3);
+            }
+            int count = readLine();
+            if (count < 0) throw new EOFException("Empty CSV log: " + file);
+            columns = new String[count];
+            for (int i = 0; i < count; i++) columns[i] = text(i, null).trim();
+            dataStart = input.position();
+
+            caseIdIndex = column(options.caseIdColumn);
+            activityIndex = column(options.activityColumn);
+            timestampIndex = column(options.timestampColumn);
+        }
+
+        private int column(String name) throws IOException {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equals(name)) return i;
+            }
+            throw new IOException("Column '" + name + "' not found in CSV header " + Arrays.toString(columns));
+        }
+
+        @Override
+        public boolean next(LogRecord record) throws IOException {
+            while (true) {
+                int count = readLine();
+                if (count < 0) return false;
+                if (count != columns.length) {
+                    skip("expected " + columns.length + " fields, found " + count);
+                    continue;
+                }
+                try {
+                    record.caseId = text(caseIdIndex, caseIds);
+                    record.activity = text(activityIndex, activities);
+                    record.timestamp = timestamp(timestampIndex);
+                } catch (RuntimeException e) {
+                    skip(e.getMessage());
+                    continue;
+                }
+                record.attributeCount = 0;
+                for (int i = 0; i < count; i++) {
+                    if (i == caseIdIndex || i == activityIndex || i == timestampIndex) continue;
+                    if (fieldStart[i] == fieldEnd[i]) continue;
+                    long numeric = digits(i);
+                    record.addAttribute(columns[i], numeric != Long.MIN_VALUE ? number(numeric) : text(i, values));
+                }
+                return true;
+            }
+        }
+
+        @Override
+        public void rewind() throws IOException {
+            input.seek(dataStart);
+            line = 1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (skipped > 0) {
+                System.err.println("[EventLogReplaySource] ⚠ Skipped " + skipped + " malformed line(s) in " + path);
+            }
+            input.close();
+        }
+
+        private void skip(String reason) {
+            if (skipped++ < 5) {
+                System.err.println("[EventLogReplaySource] ⚠ Skipping line " + line + " of " + path + ": " + reason);
+            }
+        }
+
+        /** Splits the next non-empty line into fields; returns the field count, or -1 at the end of the file. */
+        private int readLine() throws IOException {
+            boolean remapped = false;
+            while (true) {
+                ByteBuffer buffer = input.buffer();
+                int start = buffer.position();
+                int limit = buffer.limit();
+                if (start == limit && input.lastWindow()) return -1;
+
+                int count = 0;
+                int begin = start;
+                boolean quoted = false;
+                int i = start;
+                for (; i < limit; i++) {
+                    byte c = buffer.get(i);
+                    if (c == '"') {
+                        quoted = !quoted;
+                    } else if (!quoted) {
+                        if (c == '\n') break;
+                        if (c == delimiter) {
+                            count = addField(count, begin, i);
+                            begin = i + 1;
+                        }
+                    }
+                }
+                if (i == limit && !input.lastWindow()) {
+                    // The line crosses the end of the mapping: map again from its start
+                    if (remapped) throw new IOException("Line " + (line + 1) + " is longer than the mapping window");
+                    input.seek(input.position());
+                    remapped = true;
+                    continue;
+                }
+                int end = i > begin && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                count = addField(count, begin, end);
+                buffer.position(i < limit ? i + 1 : limit);
+                line++;
+                if (end == start) continue; // blank line
+                return count;
+            }
+        }
+
+        private int addField(int index, int start, int end) {
+            if (index == fieldStart.length) {
+                fieldStart = Arrays.copyOf(fieldStart, index * 2);
+                fieldEnd = Arrays.copyOf(fieldEnd, index * 2);
+            }
+            fieldStart[index] = start;
+            fieldEnd[index] = end;
+            return index + 1;
+        }
+
+        private String text(int field, StringTable table) {
+            ByteBuffer buffer = input.buffer();
+            int start = fieldStart[field];
+            int end = fieldEnd[field];
+            if (end - start >= 2 && buffer.get(start) == '"' && buffer.get(end - 1) == '"') {
+                byte[] bytes = new byte[end - start - 2];
+                for (int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(start + 1 + i);
+                return new String(bytes, StandardCharsets.UTF_8).replace("\"\"", "\"");
+            }
+            return table != null ? table.get(buffer, start, end) : decode(start, end);
+        }
+
+        private String decode(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = input.buffer().get(start + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * The field as a number if it is a plain (optionally negative) integer, else Long.MIN_VALUE.
+         * Zero-padded values such as IDs or postcodes ("007") stay text, since the number would
+         * not give back the same value; only "0" itself may start with a zero.
+         */
+        private long digits(int field) {
+            ByteBuffer buffer = input.buffer();
+            int start = fieldStart[field];
+            int end = fieldEnd[field];
+            boolean negative = end - start > 1 && buffer.get(start) == '-';
+            if (negative) start++;
+            if (end - start > 18) return Long.MIN_VALUE;
+            if (end > start && buffer.get(start) == '0' && (end - start > 1 || negative)) return Long.MIN_VALUE;
+            long value = 0;
+            for (int i = start; i < end; i++) {
+                byte c = buffer.get(i);
+                if (c < '0' || c > '9') return Long.MIN_VALUE;
+                value = value * 10 + (c - '0');
+            }
+            return negative ? -value : value;
+        }
+
+        private long timestamp(int field) {
+            long millis = digits(field);
+            if (millis != Long.MIN_VALUE && fieldEnd[field] > fieldStart[field]) return millis;
+
+            ByteBuffer buffer = input.buffer();
+            int start = fieldStart[field];
+            int end = fieldEnd[field];
+            if (sameAsLastTimestamp(buffer, start, end)) return lastTimestampValue;
+            String text = text(field, null);
+            if (text.isEmpty()) throw new IllegalArgumentException("empty timestamp");
+            lastTimestampValue = parseTimestamp(text);
+            lastTimestampText = new byte[end - start];
+            for (int i = 0; i < lastTimestampText.length; i++) lastTimestampText[i] = buffer.get(start + i);
+            return lastTimestampValue;
+        }
+
+        private boolean sameAsLastTimestamp(ByteBuffer buffer, int start, int end) {
+            if (lastTimestampText.length != end - start || lastTimestampText.length == 0) return false;
+            for (int i = 0; i < lastTimestampText.length; i++) {
+                if (lastTimestampText[i] != buffer.get(start + i)) return false;
+            }
+            return true;
+        }
+    }
+
+    /*
+     * Binary replay format (big-endian):
+     *   header   "DAPMLOG1", int version, int reserved, long eventCount, long stringTableOffset
+     *   events   int caseIdRef, int activityRef, long timestamp, short attributeCount,
+     *            then per attribute: int keyRef, byte type (0 = string, 1 = number), long value
+     *            (a string reference for type 0)
+     *   strings  int count, then per string: int length, UTF-8 bytes
+     * Every string is decoded once when the log is opened, so replaying allocates no Strings.
+     */
+    private static final byte[] MAGIC = "DAPMLOG1".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int EVENT_BYTES = 18;
+    private static final int ATTRIBUTE_BYTES = 13;
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_NUMBER = 1;
+
+    static final class BinaryLogReader implements LogReader {
+        private final MappedInput input;
+        private final String[] strings;
+        private final long eventsEnd;
+
+        BinaryLogReader(Path file) throws IOException {
+            this(file, MAPPING_WINDOW);
+        }
+
+        BinaryLogReader(Path file, long mappingWindow) throws IOException {
+            input = new MappedInput(file, mappingWindow);
+            try {
+                ByteBuffer header = input.buffer();
+                if (!hasMagic(header)) throw new IOException("Not a binary replay log: " + file);
+                int version = header.getInt(8);
+                if (version != FORMAT_VERSION) throw new IOException("Unsupported replay log version " + version + ": " + file);
+                eventsEnd = header.getLong(24);
+
+                input.seek(eventsEnd);
+                if (!input.ensure(4)) throw new EOFException("Missing string table: " + file);
+                strings = new String[input.buffer().getInt()];
+                for (int i = 0; i < strings.length; i++) {
+                    if (!input.ensure(4)) throw new EOFException("Truncated string table: " + file);
+                    byte[] bytes = new byte[input.buffer().getInt()];
+                    if (!input.ensure(bytes.length)) throw new EOFException("Truncated string table: " + file);
+                    input.buffer().get(bytes);
+                    strings[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+                rewind();
+            } catch (IOException | RuntimeException e) {
+                input.close();
+                throw e;
+            }
+        }
+
+        static boolean hasMagic(Path file) throws IOException {
+            if (!Files.isRegularFile(file) || Files.size(file) < HEADER_BYTES) return false;
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] head = new byte[MAGIC.length];
+                return in.read(head) == head.length && Arrays.equals(head, MAGIC);
+            }
+        }
+
+        private static boolean hasMagic(ByteBuffer buffer) {
+            if (buffer.limit() < HEADER_BYTES) return false;
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (buffer.get(i) != MAGIC[i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean next(LogRecord record) throws IOException {
+            if (input.position() >= eventsEnd) return false;
+            if (!input.ensure(EVENT_BYTES)) throw new EOFException("Truncated event at offset " + input.position());
+            ByteBuffer buffer = input.buffer();
+            record.caseId = strings[buffer.getInt()];
+            record.activity = strings[buffer.getInt()];
+            record.timestamp = buffer.getLong();
+            int count = buffer.getShort() & 0xFFFF;
+
+            record.attributeCount = 0;
+            if (!input.ensure(count * ATTRIBUTE_BYTES)) throw new EOFException("Truncated event at offset " + input.position());
+            buffer = input.buffer();
+            for (int i = 0; i < count; i++) {
+                String key = strings[buffer.getInt()];
+                byte type = buffer.get();
+                long value = buffer.getLong();
+                record.addAttribute(key, type == TYPE_STRING ? strings[(int) value] : number(value));
+            }
+            return true;
+        }
+
+        @Override
+        public void rewind() throws IOException {
+            input.seek(HEADER_BYTES);
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /** Streams events into the binary format; the string table and header are written on close(). */
+    static final class BinaryLogWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer out = ByteBuffer.allocate(1 << 20);
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private long events = 0;
+
+        BinaryLogWriter(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(HEADER_BYTES);
+        }
+
+        long events() {
+            return events;
+        }
+
+        void write(LogRecord record) throws IOException {
+            if (record.attributeCount > 0xFFFF) throw new IOException("Too many attributes on one event: " + record.attributeCount);
+            reserve(EVENT_BYTES + record.attributeCount * ATTRIBUTE_BYTES);
+            out.putInt(id(record.caseId));
+            out.putInt(id(record.activity));
+            out.putLong(record.timestamp);
+            out.putShort((short) record.attributeCount);
+            for (int i = 0; i < record.attributeCount; i++) {
+                Object value = record.values[i];
+                out.putInt(id(record.keys[i]));
+                if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                    out.put(TYPE_NUMBER);
+                    out.putLong(((Number) value).longValue());
+                } else {
+                    out.put(TYPE_STRING);
+                    out.putLong(id(String.valueOf(value)));
+                }
+            }
+            events++;
+        }
+
+        private int id(String value) {
+            Integer id = ids.get(value);
+            if (id != null) return id;
+            ids.put(value, strings.size());
+            strings.add(value);
+            return strings.size() - 1;
+        }
+
+        private void reserve(int bytes) throws IOException {
+            if (out.remaining() >= bytes) return;
+            flush();
+            if (out.remaining() < bytes) throw new IOException("Event of " + bytes + " bytes exceeds the write buffer");
+        }
+
+        private void flush() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) channel.write(out);
+            out.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                long stringTableOffset = channel.position();
+                reserve(4);
+                out.putInt(strings.size());
+                for (String value : strings) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    reserve(4);
+                    out.putInt(bytes.length);
+                    if (bytes.length > out.capacity()) {
+                        flush();
+                        channel.write(ByteBuffer.wrap(bytes));
+                    } else {
+                        reserve(bytes.length);
+                        out.put(bytes);
+                    }
+                }
+                flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.put(MAGIC).putInt(FORMAT_VERSION).putInt(0).putLong(events).putLong(stringTableOffset);
+                header.flip();
+                channel.write(header, 0);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static int intSetting(Configuration configuration, String key, int defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).intValue();
+        return Integer.parseInt(value.toString().trim());
+    }
+
+    private static String stringSetting(Configuration configuration, String key, String defaultValue) {
+        Object value = configuration.get(key);
+        return value == null ? defaultValue : value.toString();
+    }
+}
@@ -5,18 +5,30 @@ import com.dapm.security_service.ingest_anonymization.processingStages.Attribute
 import com.dapm.security_service.ingest_anonymization.processingStages.EventSourceConfig;
 import communication.message.impl.event.Event;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.client.WebClient;
 import pipeline.processingelement.Configuration;
 import pipeline.processingelement.source.SimpleSource;
 import reactor.util.retry.Retry;
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 public class EventSource extends SimpleSource<Event> {
 
     private String sseUrl;
     private AnonymizationProcess anonymizationProcess;
     private AttributeMappingProcess attributeMappingProcess;
+    /** Non-null when pseudonymCacheSize > 0; pseudonyms are then served locally where possible. */
+    private PseudonymCache pseudonymCache;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
     public EventSource(Configuration configuration) {
         super(configuration);
@@ -24,6 +36,7 @@ public class EventSource extends SimpleSource<Event> {
             sseUrl = EventSourceConfig.getEventSourceUrl(configuration);
             anonymizationProcess = AnonymizationProcess.getAnonymizationConfig(configuration);
             attributeMappingProcess = AttributeMappingProcess.getAttributeMappingConfig(configuration);
+            pseudonymCache = PseudonymCache.create("EventSource", configuration, anonymizationProcess);
             System.out.println("✅ EventSource initialized with URL: " + sseUrl);
         } catch (Exception e) {
             System.err.println("❌ Error initializing EventSource: " + e.getMessage());
@@ -53,7 +66,9 @@ public class EventSource extends SimpleSource<Event> {
             System.out.println("📥 Received Event: " + json);
 
             // Apply anonymization
-            JsonNode anonymized = anonymizationProcess.apply(json);
+            JsonNode anonymized = pseudonymCache != null
+                    ? pseudonymCache.apply(json)
+                    : anonymizationProcess.apply(json);
             System.out.println("🧩 After Anonymization: " + anonymized);
 
             // Map to structured DAPM event
@@ -71,4 +86,253 @@ public class EventSource extends SimpleSource<Event> {
             return null; // allows retry
         }
     }
+
+    @Override
+    public boolean terminate() {
+        super.terminate();
+        if (pseudonymCache != null) pseudonymCache.close();
+        return true;
+    }
+
+    // <shared:PseudonymCache> generated from shared/PseudonymCache.java.in; edit it there, then run script/SyncShared.java
+    /**
+     * Size-bounded LRU cache of pseudonyms in front of the mapping table.
+     * <p>
+     * The mapping table is keyed by data source, the value of the unique field, and the field and
+     * value being pseudonymized, and so is the cache, so equal values of different sources or
+     * unique values never share an entry. Hits never leave the JVM. A miss asks the
+     * {@link MappingStore}, which returns the stored pseudonym or creates and stores a new one.
+     * The cache only holds pseudonyms the store already has, so there is nothing to write back.
+     * Hit/miss counters are exported over JMX under
+     * {@code templates:type=<template>,component=PseudonymCache}.
+     * Uses the enclosing template's section(), stringList(), intSetting() and stringSetting().
+     */
+    static final class PseudonymCache implements PseudonymCacheMBean {
+        private final Set<String> pseudonymized;
+        private final Set<String> suppressed;
+        private final String dataSourceId;
+        private final String uniqueField;
+        private final MappingStore store;
+
+        private final LinkedHashMap<String, String> entries;
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private ObjectName objectName;
+
+        /** Returns null when pseudonymCacheSize is 0, i.e. every lookup goes to AnonymizationProcess. */
+        static PseudonymCache create(String template, Configuration configuration,
+                                     AnonymizationProcess anonymizationProcess) {
+            int maxEntries = intSetting(configuration, "pseudonymCacheSize", 0);
+            if (maxEntries <= 0) return null;
+
+            Map<String, Object> anonymization = section(configuration, "anonymization");
+            String uniqueField = String.valueOf(anonymization.get("uniqueField"));
+            String storeName = stringSetting(configuration, "pseudonymStore", "anonymization");
+            MappingStore store = "memory".equalsIgnoreCase(storeName)
+                    ? new InMemoryMappingStore()
+                    : new AnonymizationProcessStore(anonymizationProcess, uniqueField);
+
+            PseudonymCache cache = new PseudonymCache(
+                    stringList(anonymization.get("pseudonymization")),
+                    stringList(anonymization.get("suppression")),
+                    String.valueOf(anonymization.get("dataSourceId")),
+                    uniqueField,
+                    store,
+                    maxEntries);
+            cache.register(template);
+            System.out.println("✅ [" + template + "] Pseudonym cache enabled (" + maxEntries
+                    + " entries, store=" + store.getClass().getSimpleName() + ").");
+            return cache;
+        }
+
+        PseudonymCache(Collection<String> pseudonymized, Collection<String> suppressed, String dataSourceId,
+                       String uniqueField, MappingStore store, int maxEntries) {
+            this.pseudonymized = new LinkedHashSet<>(pseudonymized);
+            this.suppressed = new HashSet<>(suppressed);
+            this.dataSourceId = dataSourceId;
+            this.uniqueField = uniqueField;
+            this.store = store;
+            this.entries = new LinkedHashMap<String, String>(Math.min(maxEntries, 1 << 16), 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    if (size() <= maxEntries) return false;
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+
+        /** Same contract as {@link AnonymizationProcess#apply}: suppressed fields go, pseudonymized ones are replaced. */
+        JsonNode apply(JsonNode json) {
+            if (!(json instanceof ObjectNode)) return json;
+            JsonNode uniqueNode = json.get(uniqueField);
+            String unique = uniqueNode == null || uniqueNode.isNull() ? null : uniqueNode.asText();
+
+            ObjectNode anonymized = ((ObjectNode) json).deepCopy();
+            anonymized.remove(suppressed);
+            for (String field : pseudonymized) {
+                JsonNode value = json.get(field);
+                if (value == null || value.isNull() || suppressed.contains(field)) continue;
+                anonymized.put(field, pseudonym(field, value.asText(), unique));
+            }
+            return anonymized;
+        }
+
+        boolean isPseudonymized(String field) {
+            return pseudonymized.contains(field) && !suppressed.contains(field);
+        }
+
+        String pseudonym(String field, String value, String uniqueValue) {
+            // \u0001 marks a missing unique value, so it cannot collide with an empty one
+            String key = dataSourceId + '\u0000' + (uniqueValue == null ? "\u0001" : uniqueValue)
+                    + '\u0000' + field + '\u0000' + value;
+            synchronized (this) {
+                String cached = entries.get(key);
+                if (cached != null) {
+                    hits.increment();
+                    return cached;
+                }
+            }
+            misses.increment();
+
+            // Ask the store outside the lock so one slow round trip does not stall every hit;
+            // the store returns the same pseudonym to concurrent misses of one key
+            String stored = store.pseudonym(dataSourceId, uniqueValue, field, value);
+            if (stored == null) {
+                throw new IllegalStateException("Mapping store returned no pseudonym for field " + field);
+            }
+            synchronized (this) {
+                entries.put(key, stored);
+            }
+            return stored;
+        }
+
+        void close() {
+            try {
+                if (objectName != null) ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception ignored) {
+            }
+        }
+
+        private void register(String template) {
+            try {
+                objectName = new ObjectName("templates:type=" + template + ",component=PseudonymCache,name="
+                        + Integer.toHexString(System.identityHashCode(this)));
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new StandardMBean(this, PseudonymCacheMBean.class), objectName);
+            } catch (Exception e) {
+                objectName = null;
+                System.err.println("⚠ [PseudonymCache] JMX registration failed: " + e.getMessage());
+            }
+        }
+
+        @Override public long getHits() { return hits.sum(); }
+        @Override public long getMisses() { return misses.sum(); }
+
+        @Override
+        public double getHitRate() {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0.0 : (double) h / total;
+        }
+
+        @Override public long getEvictions() { return evictions.sum(); }
+        @Override public synchronized int getSize() { return entries.size(); }
+
+        @Override
+        public void reset() {
+            hits.reset();
+            misses.reset();
+            evictions.reset();
+        }
+    }
+
+    public interface PseudonymCacheMBean {
+        long getHits();
+        long getMisses();
+        double getHitRate();
+        long getEvictions();
+        int getSize();
+        void reset();
+    }
+
+    /** Persistent side of the pseudonym mapping table (data source, unique value, field, value) → pseudonym. */
+    interface MappingStore {
+        /** The pseudonym assigned to the value; one is created and stored first when there is none yet. */
+        String pseudonym(String dataSourceId, String uniqueValue, String field, String value);
+    }
+
+    /**
+     * Uses AnonymizationProcess as the store. It looks up the MongoDB mapping table of the data
+     * source it was configured with and creates missing entries itself.
+     */
+    static final class AnonymizationProcessStore implements MappingStore {
+        private final AnonymizationProcess anonymizationProcess;
+        private final String uniqueField;
+
+        AnonymizationProcessStore(AnonymizationProcess anonymizationProcess, String uniqueField) {
+            this.anonymizationProcess = anonymizationProcess;
+            this.uniqueField = uniqueField;
+        }
+
+        @Override
+        public String pseudonym(String dataSourceId, String uniqueValue, String field, String value) {
+            ObjectNode lookup = MAPPER.createObjectNode();
+            if (uniqueValue != null) lookup.put(uniqueField, uniqueValue);
+            lookup.put(field, value);
+            JsonNode pseudonym = anonymizationProcess.apply(lookup).get(field);
+            return pseudonym == null || pseudonym.isNull() ? null : pseudonym.asText();
+        }
+    }
+
+    /** In-memory stand-in for the mapping table, for runs and tests without MongoDB. */
+    static final class InMemoryMappingStore implements MappingStore {
+        private final ConcurrentHashMap<String, String> mappings = new ConcurrentHashMap<>();
+        final LongAdder lookups = new LongAdder();
+
+        @Override
+        public String pseudonym(String dataSourceId, String uniqueValue, String field, String value) {
+            lookups.increment();
+            String key = dataSourceId + '\u0000' + (uniqueValue == null ? "\u0001" : uniqueValue)
+                    + '\u0000' + field + '\u0000' + value;
+            return mappings.computeIfAbsent(key, k -> UUID.randomUUID().toString());
+        }
+
+        int size() {
+            return mappings.size();
+        }
+    }
+    // </shared:PseudonymCache>
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> section(Configuration configuration, String key) {
+        Object value = configuration.get(key);
+        if (value == null) return Collections.emptyMap();
+        if (value instanceof Map) return (Map<String, Object>) value;
+        return MAPPER.convertValue(value, Map.class);
+    }
+
+    private static List<String> stringList(Object value) {
+        List<String> result = new ArrayList<>();
+        if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) result.add(item.toString());
+        } else if (value instanceof JsonNode) {
+            for (JsonNode item : (JsonNode) value) result.add(item.asText());
+        }
+        return result;
+    }
+
+    private static int intSetting(Configuration configuration, String key, int defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).intValue();
+        return Integer.parseInt(value.toString().trim());
+    }
+
+    private static String stringSetting(Configuration configuration, String key, String defaultValue) {
+        Object value = configuration.get(key);
+        return value == null ? defaultValue : value.toString().trim();
+    }
 }
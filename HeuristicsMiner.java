@@ -1,8 +1,14 @@
 package templates;
 
 import communication.message.Message;
+import communication.message.impl.event.Attribute;
 import communication.message.impl.event.Event;
 import communication.message.impl.petrinet.PetriNet;
+import communication.message.impl.petrinet.Place;
+import communication.message.impl.petrinet.Transition;
+import communication.message.impl.petrinet.arc.Arc;
+import communication.message.impl.petrinet.arc.PlaceToTransitionArc;
+import communication.message.impl.petrinet.arc.TransitionToPlaceArc;
 import communication.message.serialization.MessageSerializer;
 import communication.message.serialization.deserialization.MessageFactory;
 import org.springframework.core.io.ClassPathResource;
@@ -11,6 +17,8 @@ import pipeline.processingelement.operator.MiningOperator;
 import utils.Pair;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel; // ✅ missing import (caused first error)
@@ -19,36 +27,228 @@ import java.nio.file.attribute.PosixFilePermissions; // ✅ missing import (caus
 import java.nio.file.attribute.FileAttribute; // ✅ required for Posix permissions on some systems
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 
 public class HeuristicsMiner extends MiningOperator<PetriNet> {
 
     private static final String RESOURCE_PATH = "algorithms/heuristics-miner.jar";
-    /** Where we persist the miner jar (override with env HM_JAR_DIR) */
+    /** Where we persist the miner jar (override with env HM_JAR_DIR or -DheuristicsMiner.jarDir) */
     private static final Path JAR_DIR = Paths.get(
-            Objects.requireNonNullElse(System.getenv("HM_JAR_DIR"), "/opt/heuristics-miner")
+            Objects.requireNonNullElse(System.getenv("HM_JAR_DIR"),
+                    System.getProperty("heuristicsMiner.jarDir", "/opt/heuristics-miner"))
     );
     private static final Path JAR_PATH = JAR_DIR.resolve("heuristics-miner.jar");
+    /** "resourceSize resourceModified fileSize fileModified sha256" of the last verified copy. */
+    private static final Path JAR_HASH_PATH = JAR_DIR.resolve("heuristics-miner.jar.sha256");
+    /** AppCDS archive of the classes the miner loads, written by its first run. */
+    private static final Path CDS_ARCHIVE_PATH = JAR_DIR.resolve("heuristics-miner.jsa");
 
-    private long eventCount = 0;
-    private long lastReportTime = System.currentTimeMillis();
+    /** Shared with the partition miners, which report into their operator's metrics. */
+    private final OperatorMetrics metrics;
+    /** The operator that owns this partition miner, or null for the operator itself. */
+    private final HeuristicsMiner owner;
 
     private final Object processLock = new Object();
     private Process process;
+    /** Warmed-up spare miner that replaces a crashed one (standby = true). */
+    private Process standbyProcess;
+    private final boolean standby;
+    private final boolean classDataSharing;
+    /**
+     * Shared by partition miners, which all start from the same jar and archive. Set while a miner
+     * records the archive or once it is written; cleared when the recorder exits without writing
+     * it (killed, crashed), so a later miner records it instead.
+     */
+    private static final AtomicBoolean ARCHIVE_REQUESTED = new AtomicBoolean(false);
+    /** The miner recording the archive, given time to write it when terminated. */
+    private static volatile Process archiveRecorder;
     private BufferedWriter jarInput;
-    private BufferedReader jarOutput;
+    /** Responses the current miner's reader thread still owes, oldest first. */
+    private Queue<CompletableFuture<MinerResponse>> pendingResponses;
+
+    private final long requestTimeoutMs;
+    private final long restartBackoffMs;
+    private final long maxRestartBackoffMs;
+    private int restartAttempts = 0;
+    private long nextRestartAt = 0;
+    private final boolean bufferWhileDown;
+    private final int downBufferSize;
+    private final ArrayDeque<byte[]> heldEvents = new ArrayDeque<>();
+    private final MinerSupervisor supervisor;
+
+    /*
+     * Batched mode (batchSize > 1) talks to the miner with length-prefixed frames instead of lines:
+     *   request:  int32 payload length, then UTF-8 serialized events separated by '\n'
+     *   response: int32 model length, one status byte (1 = success), then the UTF-8 model
+     * The miner is started with --framed and answers exactly once per request frame. A partial
+     * batch is sent by a timer once its oldest event has waited batchLingerMs; the net it yields
+     * is returned with the next event. A miner jar without a framed decoder never answers the
+     * first frame with a valid one, so that failure switches this operator to the line protocol
+     * and the batch is replayed line by line.
+     */
+    private static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+    private final int batchSize;
+    private final long batchLingerMs;
+    /** Whether the miner is spoken to in frames; false for batchSize 1 or after falling back to lines. */
+    private volatile boolean framed;
+    /** Set once the miner answered a frame, i.e. the jar is known to understand --framed. */
+    private volatile boolean framingConfirmed = false;
+    private DataOutputStream frameInput;
+    /** Serialized events of the batch being collected, in arrival order. */
+    private final List<byte[]> pendingBatch = new ArrayList<>();
+    /** Counts batches, so a linger timer only flushes the batch it was started for. */
+    private long batchNumber = 0;
+    private final ScheduledExecutorService lingerTimer;
+    /** Net mined from a batch the linger timer sent, returned with the next event. */
+    private PetriNet flushedModel;
+
+    /*
+     * Change-driven publication: a mined net is only forwarded when its structural fingerprint
+     * differs from the last published one (rate limited by minPublishIntervalMs), or when
+     * heartbeatMs has passed since the last publication.
+     */
+    private final long minPublishIntervalMs;
+    private final long heartbeatMs;
+    private PetriNet latestModel;
+    private long latestFingerprint;
+    private long publishedFingerprint;
+    private long lastPublishTime = 0;
+    private boolean published = false;
+    /** Raw miner output of latestModel, so identical output is not deserialized again. */
+    private String latestRawOutput;
+
+    /** Non-null when configured with engine = "inprocess"; otherwise events go to the miner jar. */
+    private final IncrementalHeuristicsMiner incrementalMiner;
+
+    /** Non-null when partitions > 1; events are then mined by one HeuristicsMiner per partition. */
+    private final PartitionedMining partitioned;
 
     public HeuristicsMiner(Configuration configuration) {
+        this(configuration, null);
+    }
+
+    /**
+     * With an owner, builds one partition's miner: it ignores the partitioning settings, reports
+     * into the owner's metrics and supervisor, and is terminated by the owner.
+     */
+    private HeuristicsMiner(Configuration configuration, HeuristicsMiner owner) {
         super(configuration);
-        // Ensure we always clean up on JVM exit
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            try {
-                terminate();
-            } catch (Throwable ignored) {}
-        }));
+        this.owner = owner;
+        metrics = owner != null ? owner.metrics : new OperatorMetrics("HeuristicsMiner", this);
+        supervisor = owner != null ? new MinerSupervisor() : new MinerSupervisor(this);
+        String engine = stringSetting(configuration, "engine", "subprocess");
+        int partitions = owner != null ? 1 : intSetting(configuration, "partitions", 1);
+        if ("inprocess".equalsIgnoreCase(engine) && partitions <= 1) {
+            String window = stringSetting(configuration, "window", "none").toLowerCase();
+            int windowMode = "count".equals(window) ? IncrementalHeuristicsMiner.WINDOW_COUNT
+                    : "time".equals(window) ? IncrementalHeuristicsMiner.WINDOW_TIME
+                    : "decay".equals(window) ? IncrementalHeuristicsMiner.WINDOW_DECAY
+                    : IncrementalHeuristicsMiner.WINDOW_NONE;
+            incrementalMiner = new IncrementalHeuristicsMiner(
+                    doubleSetting(configuration, "dependencyThreshold", 0.9),
+                    intSetting(configuration, "positiveObservations", 1),
+                    windowMode,
+                    intSetting(configuration, "windowSize", 1_000_000),
+                    intSetting(configuration, "windowMs", 600_000),
+                    doubleSetting(configuration, "decayHalfLifeMs", 300_000),
+                    stringSetSetting(configuration, "terminalActivities", Collections.singleton("DISCHARGE")),
+                    intSetting(configuration, "caseIdleTtlMs", 0));
+            System.out.println("[HeuristicsMiner] Using in-process incremental miner (window=" + window + ").");
+        } else {
+            incrementalMiner = null;
+        }
+        batchSize = Math.max(1, intSetting(configuration, "batchSize", 1));
+        batchLingerMs = Math.max(0, intSetting(configuration, "batchLingerMs", 50));
+        framed = batchSize > 1 && incrementalMiner == null && partitions <= 1;
+        if (framed) {
+            lingerTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "heuristics-miner-linger");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            lingerTimer = null;
+        }
+        minPublishIntervalMs = Math.max(0, intSetting(configuration, "minPublishIntervalMs", 0));
+        heartbeatMs = Math.max(0, intSetting(configuration, "heartbeatMs", 0));
+        standby = Boolean.parseBoolean(stringSetting(configuration, "standby", "false"));
+        classDataSharing = Boolean.parseBoolean(stringSetting(configuration, "classDataSharing", "false"));
+        requestTimeoutMs = Math.max(1, intSetting(configuration, "requestTimeoutMs", 10_000));
+        restartBackoffMs = Math.max(1, intSetting(configuration, "restartBackoffMs", 500));
+        maxRestartBackoffMs = Math.max(restartBackoffMs, intSetting(configuration, "maxRestartBackoffMs", 30_000));
+        bufferWhileDown = "buffer".equalsIgnoreCase(stringSetting(configuration, "whenMinerDown", "shed"));
+        downBufferSize = Math.max(1, intSetting(configuration, "downBufferSize", 10_000));
+        if (partitions > 1) {
+            HeuristicsMiner[] miners = new HeuristicsMiner[partitions];
+            for (int i = 0; i < partitions; i++) {
+                miners[i] = new HeuristicsMiner(configuration, this);
+            }
+            MinerSupervisor[] parts = new MinerSupervisor[partitions];
+            for (int i = 0; i < partitions; i++) parts[i] = miners[i].supervisor;
+            supervisor.partitions = parts;
+            String partitionBy = stringSetting(configuration, "partitionBy", "caseId");
+            partitioned = new PartitionedMining(miners,
+                    "caseId".equals(partitionBy) ? null : partitionBy,
+                    !"partition".equalsIgnoreCase(stringSetting(configuration, "publish", "merged")),
+                    Math.max(0, intSetting(configuration, "mergeIntervalMs", 1000)),
+                    Math.max(1, intSetting(configuration, "partitionQueueCapacity", 10_000)),
+                    doubleSetting(configuration, "dependencyThreshold", 0.9),
+                    intSetting(configuration, "positiveObservations", 1));
+            System.out.println("[HeuristicsMiner] Mining " + partitions + " partitions by " + partitionBy + ".");
+        } else {
+            partitioned = null;
+        }
+        if (incrementalMiner == null && partitioned == null && Boolean.parseBoolean(stringSetting(configuration, "eagerStart", "true"))) {
+            // Jar check and JVM start overlap with pipeline setup; the first event waits on processLock if needed
+            Thread starter = new Thread(() -> {
+                try {
+                    startProcess();
+                } catch (Exception e) {
+                    System.err.println("[HeuristicsMiner] ⚠ Eager start failed, retrying on first event: " + e.getMessage());
+                }
+            }, "heuristics-miner-starter");
+            starter.setDaemon(true);
+            starter.start();
+        }
+        // Ensure we always clean up on JVM exit; partition miners are terminated by their owner
+        if (owner == null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    terminate();
+                } catch (Throwable ignored) {}
+            }));
+        }
     }
 
     @Override
@@ -58,7 +258,8 @@ public class HeuristicsMiner extends MiningOperator<PetriNet> {
         return map;
     }
 
-    private void ensureJarPresent() throws IOException {
+    /** Static and synchronized: partition miners share the jar and must not refresh it concurrently. */
+    private static synchronized void ensureJarPresent() throws IOException {
         Files.createDirectories(JAR_DIR);
 
         // Load resource
@@ -67,12 +268,27 @@ public class HeuristicsMiner extends MiningOperator<PetriNet> {
             throw new FileNotFoundException("Miner resource not found on classpath: " + RESOURCE_PATH);
         }
 
+        // Unchanged resource and file since the last verification: trust the cached hash
+        String stamp = resourceStamp(res);
+        if (stamp != null && Files.isRegularFile(JAR_PATH) && Files.isRegularFile(JAR_HASH_PATH)) {
+            try {
+                String[] cached = new String(Files.readAllBytes(JAR_HASH_PATH), StandardCharsets.UTF_8).trim().split(" ");
+                if (cached.length == 5 && (cached[0] + " " + cached[1]).equals(stamp)
+                        && (cached[2] + " " + cached[3]).equals(fileStamp(JAR_PATH))) {
+                    return;
+                }
+            } catch (IOException ignored) {
+                // fall through to hashing
+            }
+        }
+
         // If file exists and content matches, skip write
         byte[] resSha = sha256(res.getInputStream());
         if (Files.isRegularFile(JAR_PATH)) {
             try (InputStream existing = Files.newInputStream(JAR_PATH)) {
                 byte[] fileSha = sha256(existing);
                 if (MessageDigest.isEqual(resSha, fileSha)) {
+                    writeHashCache(stamp, resSha);
                     return; // already up-to-date
                 }
             } catch (IOException ignored) {
@@ -93,9 +309,38 @@ public class HeuristicsMiner extends MiningOperator<PetriNet> {
         } catch (UnsupportedOperationException ignored) {}
 
         Files.move(tmp, JAR_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(CDS_ARCHIVE_PATH); // archived classes belong to the old jar
+        if (archiveRecorder == null) ARCHIVE_REQUESTED.set(false);
+        writeHashCache(stamp, resSha);
         System.out.println("[HeuristicsMiner] Jar refreshed at " + JAR_PATH);
     }
 
+    /** Size and modification time of the resource, or null when it cannot tell (then it is always hashed). */
+    private static String resourceStamp(ClassPathResource res) {
+        try {
+            long modified = res.lastModified();
+            return modified > 0 ? res.contentLength() + " " + modified : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String fileStamp(Path file) throws IOException {
+        return Files.size(file) + " " + Files.getLastModifiedTime(file).toMillis();
+    }
+
+    private static void writeHashCache(String resourceStamp, byte[] sha) {
+        if (resourceStamp == null) return;
+        StringBuilder hex = new StringBuilder(sha.length * 2);
+        for (byte b : sha) hex.append(String.format("%02x", b));
+        try {
+            Files.write(JAR_HASH_PATH,
+                    (resourceStamp + " " + fileStamp(JAR_PATH) + " " + hex).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("[HeuristicsMiner] ⚠ Could not cache jar hash: " + e.getMessage());
+        }
+    }
+
     private static byte[] sha256(InputStream in) throws IOException {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
@@ -114,80 +359,162 @@ public class HeuristicsMiner extends MiningOperator<PetriNet> {
             try {
                 if (process != null && process.isAlive()) return;
 
-                System.out.println("[HeuristicsMiner] Ensuring miner jar is present ...");
-                ensureJarPresent();
+                if (standbyProcess != null && standbyProcess.isAlive()) {
+                    process = standbyProcess;
+                    standbyProcess = null;
+                    System.out.println("[HeuristicsMiner] Promoted standby miner (pid=" + pidSafe(process) + ").");
+                } else {
+                    System.out.println("[HeuristicsMiner] Ensuring miner jar is present ...");
+                    ensureJarPresent();
 
-                System.out.println("[HeuristicsMiner] Starting heuristics-miner at " + JAR_PATH + " ...");
-                ProcessBuilder pb = new ProcessBuilder(
-                        "java",
-                        "-XX:+ExitOnOutOfMemoryError",
-                        "-jar", JAR_PATH.toAbsolutePath().toString()
-                );
-                pb.redirectErrorStream(true);
-                process = pb.start();
+                    System.out.println("[HeuristicsMiner] Starting heuristics-miner at " + JAR_PATH + " ...");
+                    process = spawnMiner();
+                }
 
-                jarInput  = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
-                jarOutput = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                boolean frames = framed;
+                if (frames) {
+                    frameInput  = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), 64 * 1024));
+                } else {
+                    jarInput  = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+                }
+                Process miner = process;
+                Queue<CompletableFuture<MinerResponse>> pending = new ConcurrentLinkedQueue<>();
+                pendingResponses = pending;
+                Thread reader = new Thread(() -> readResponses(miner, miner.getInputStream(), pending, frames),
+                        "heuristics-miner-reader-" + pidSafe(miner));
+                reader.setDaemon(true);
+                reader.start();
+                supervisor.recovered();
 
                 System.out.println("[HeuristicsMiner] Process started successfully (pid=" + pidSafe(process) + ").");
+
+                if (standby && (standbyProcess == null || !standbyProcess.isAlive())) {
+                    standbyProcess = spawnMiner();
+                    System.out.println("[HeuristicsMiner] Standby miner warming up (pid=" + pidSafe(standbyProcess) + ").");
+                }
             } catch (IOException e) {
                 throw new RuntimeException("Failed to start heuristics-miner.jar", e);
             }
         }
     }
 
+    private Process spawnMiner() throws IOException {
+        boolean recordsArchive = false;
+        List<String> command = new ArrayList<>();
+        command.add("java");
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        if (classDataSharing) {
+            if (Files.isRegularFile(CDS_ARCHIVE_PATH)) {
+                command.add("-XX:SharedArchiveFile=" + CDS_ARCHIVE_PATH.toAbsolutePath());
+                command.add("-Xshare:auto"); // a stale or foreign archive is ignored instead of failing the start
+            } else if (ARCHIVE_REQUESTED.compareAndSet(false, true)) {
+                // Only one miner records the archive; it is written when that JVM exits
+                command.add("-XX:ArchiveClassesAtExit=" + CDS_ARCHIVE_PATH.toAbsolutePath());
+                recordsArchive = true;
+            }
+        }
+        command.add("-jar");
+        command.add(JAR_PATH.toAbsolutePath().toString());
+
+        ProcessBuilder pb;
+        if (framed) {
+            command.add("--framed");
+            pb = new ProcessBuilder(command);
+            // stderr must not be interleaved with the binary frames on stdout
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        } else {
+            pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+        }
+        if (!recordsArchive) return pb.start();
+
+        Process recorder;
+        try {
+            recorder = pb.start();
+        } catch (IOException e) {
+            ARCHIVE_REQUESTED.set(false);
+            throw e;
+        }
+        archiveRecorder = recorder;
+        recorder.onExit().thenRun(() -> {
+            archiveRecorder = null;
+            if (!Files.isRegularFile(CDS_ARCHIVE_PATH)) {
+                ARCHIVE_REQUESTED.set(false);
+                System.err.println("[HeuristicsMiner] ⚠ Miner (pid=" + pidSafe(recorder) + ") exited without writing "
+                        + CDS_ARCHIVE_PATH + "; the next miner records it.");
+            }
+        });
+        return recorder;
+    }
+
     private static long pidSafe(Process p) {
         try { return p.pid(); } catch (Throwable t) { return -1L; }
     }
 
     @Override
     protected Pair<PetriNet, Boolean> process(Message message, int portNumber) {
+        long start = System.nanoTime();
+        metrics.received();
+        Pair<PetriNet, Boolean> mined = partitioned != null ? partitioned.submit(message) : mine(message);
+        Pair<PetriNet, Boolean> decision;
         synchronized (processLock) {
-            try {
-                startProcess();
+            decision = publishDecision(mined);
+        }
+        if (decision.second()) metrics.forwarded();
+        metrics.recordLatency(System.nanoTime() - start);
+        return decision;
+    }
 
-                eventCount++;
-                long now = System.currentTimeMillis();
-                if (now - lastReportTime >= 1000) {
-                    System.out.println("[HeuristicsMiner] Events processed in last second: " + eventCount);
-                    eventCount = 0;
-                    lastReportTime = now;
-                }
+    private Pair<PetriNet, Boolean> publishDecision(Pair<PetriNet, Boolean> mined) {
+        if (mined.second() && mined.first() != null && mined.first() != latestModel) {
+            latestModel = mined.first();
+            latestFingerprint = structuralFingerprint(latestModel);
+        }
+        if (latestModel == null) return new Pair<>(null, false);
 
+        long now = System.currentTimeMillis();
+        boolean changed = !published || latestFingerprint != publishedFingerprint;
+        boolean publish = (changed && now - lastPublishTime >= minPublishIntervalMs)
+                || (heartbeatMs > 0 && now - lastPublishTime >= heartbeatMs);
+        if (!publish) return new Pair<>(null, false);
+
+        published = true;
+        publishedFingerprint = latestFingerprint;
+        lastPublishTime = now;
+        return new Pair<>(latestModel, true);
+    }
+
+    private Pair<PetriNet, Boolean> mine(Message message) {
+        if (incrementalMiner != null) {
+            return mineInProcess((Event) message);
+        }
+        if (framed) {
+            return mineBatched(message);
+        }
+        synchronized (processLock) {
+            try {
                 // Serialize event
                 MessageSerializer serializer = new MessageSerializer();
                 message.acceptVisitor(serializer);
                 String serializedEvent = serializer.getSerialization();
                 //System.out.println("[HeuristicsMiner] → miner: " + serializedEvent);
 
-                // Send to JAR
-                jarInput.write(serializedEvent);
-                jarInput.newLine();
-                jarInput.flush();
-
-                // Read miner output (up to blank line) + status line
-                long startTime = System.currentTimeMillis();
-                StringBuilder out = new StringBuilder();
-                String line;
-                while ((line = jarOutput.readLine()) != null) {
-                    if (line.trim().isEmpty()) break;
-                    out.append(line).append(System.lineSeparator());
-
-                    if (System.currentTimeMillis() - startTime > 10_000) {
-                        System.err.println("[HeuristicsMiner] ⚠ Timeout waiting for miner output!");
-                        break;
-                    }
+                if (!minerAvailable()) {
+                    holdWhileDown(serializedEvent.getBytes(StandardCharsets.UTF_8));
+                    return new Pair<>(null, false);
                 }
-                String statusLine = jarOutput.readLine();
-                String content = out.toString().trim();
-                boolean isSuccess = statusLine != null && Boolean.parseBoolean(statusLine);
+                replayHeldEvents();
+
+                // Send to JAR; the reader thread completes the response
+                MinerResponse response = await(sendLine(serializedEvent));
+                String content = response.content.trim();
 
                 //System.out.println("[HeuristicsMiner] miner → content: " + content);
-                //System.out.println("[HeuristicsMiner] miner → success? " + isSuccess);
+                //System.out.println("[HeuristicsMiner] miner → success? " + response.success);
 
-                if (isSuccess && !content.isEmpty()) {
+                if (response.success && !content.isEmpty()) {
                     try {
-                        PetriNet petriNet = (PetriNet) MessageFactory.deserialize(content);
+                        PetriNet petriNet = deserializeModel(content);
                         //System.out.println("[HeuristicsMiner] ✅ Petri net deserialized successfully!");
                         return new Pair<>(petriNet, true);
                     } catch (Exception e) {
@@ -200,15 +527,695 @@ public class HeuristicsMiner extends MiningOperator<PetriNet> {
 
             } catch (Exception e) {
                 System.err.println("[HeuristicsMiner] ❌ Error while processing event: " + e.getMessage());
-                e.printStackTrace();
+                metrics.dropped();
+                minerFailed(e);
+                return new Pair<>(null, false);
+            }
+        }
+    }
+
+    private Pair<PetriNet, Boolean> mineBatched(Message message) {
+        synchronized (processLock) {
+            MessageSerializer serializer = new MessageSerializer();
+            message.acceptVisitor(serializer);
+            byte[] serializedEvent = serializer.getSerialization().getBytes(StandardCharsets.UTF_8);
+
+            try {
+                if (!minerAvailable()) {
+                    holdWhileDown(serializedEvent);
+                    return takeFlushedModel();
+                }
+                replayHeldEvents();
+            } catch (Exception e) {
+                // A failed frame has already been handled by batchFailed, possibly falling back to lines
+                System.err.println("[HeuristicsMiner] ❌ Error while replaying held events: " + e.getMessage());
+                if (process != null) minerFailed(e);
+                holdWhileDown(serializedEvent);
+                return takeFlushedModel();
+            }
+
+            if (pendingBatch.isEmpty()) {
+                long batch = ++batchNumber;
+                lingerTimer.schedule(() -> lingerExpired(batch), batchLingerMs, TimeUnit.MILLISECONDS);
+            }
+            pendingBatch.add(serializedEvent);
+
+            // Keep collecting until the batch is full; the linger timer sends a partial one
+            if (pendingBatch.size() < batchSize) {
+                return takeFlushedModel();
+            }
+            Pair<PetriNet, Boolean> mined = sendBatch();
+            flushedModel = null;
+            return mined;
+        }
+    }
 
-                // If the process died, clear it so we can restart on next call
-                if (process != null && !process.isAlive()) {
-                    safeCloseStreams();
-                    process = null;
+    /** Sends the batch a linger timer was started for, if it is still being collected. */
+    private void lingerExpired(long batch) {
+        synchronized (processLock) {
+            if (batch != batchNumber || pendingBatch.isEmpty() || !framed) return;
+            if (process == null || !process.isAlive() || pendingResponses == null) return; // sent after the restart
+            Pair<PetriNet, Boolean> mined = sendBatch();
+            if (mined.second()) flushedModel = mined.first();
+        }
+    }
+
+    private Pair<PetriNet, Boolean> takeFlushedModel() {
+        PetriNet model = flushedModel;
+        flushedModel = null;
+        return new Pair<>(model, model != null);
+    }
+
+    /** Sends the pending batch as one frame and returns the net it yields. Call with processLock held. */
+    private Pair<PetriNet, Boolean> sendBatch() {
+        List<byte[]> batch = new ArrayList<>(pendingBatch);
+        pendingBatch.clear();
+        try {
+            MinerResponse response = await(sendFrame(batch));
+            String content = response.content.trim();
+            if (response.success && !content.isEmpty()) {
+                try {
+                    return new Pair<>(deserializeModel(content), true);
+                } catch (Exception e) {
+                    //System.err.println("[HeuristicsMiner] ❌ Failed to deserialize Petri net: " + e.getMessage());
                 }
+            }
+            return new Pair<>(null, false);
+        } catch (Exception e) {
+            System.err.println("[HeuristicsMiner] ❌ Error while processing batch: " + e.getMessage());
+            // The frame stream is out of sync after a failure, so drop the batch and the process
+            batchFailed(batch, e);
+            return new Pair<>(null, false);
+        }
+    }
+
+    /**
+     * Kills the miner after a frame failed. A jar that never answered a frame is taken not to
+     * understand --framed: the operator switches to the line protocol and keeps the batch, in
+     * order, ahead of the held events so it is replayed as lines right away.
+     */
+    private void batchFailed(List<byte[]> batch, Exception cause) {
+        boolean fallBack = !framingConfirmed;
+        minerFailed(cause);
+        if (!fallBack) {
+            metrics.dropped(batch.size());
+            return;
+        }
+        System.err.println("[HeuristicsMiner] ⚠ Miner jar did not answer a frame; falling back to one line per event.");
+        framed = false;
+        if (standbyProcess != null) {
+            standbyProcess.destroyForcibly(); // started with --framed
+            standbyProcess = null;
+        }
+        for (int i = batch.size() - 1; i >= 0; i--) heldEvents.addFirst(batch.get(i));
+        supervisor.heldEvents = heldEvents.size();
+        restartAttempts = 0;
+        nextRestartAt = 0;
+    }
+
+    /*
+     * Supervision: the miner's stdout is read by a dedicated thread that completes one future per
+     * request, so every request has a real deadline (requestTimeoutMs) even if the miner hangs
+     * mid-line. A timeout, a broken pipe or an exited process kills the miner and marks it down.
+     * Restarts are attempted on later events with exponential backoff. While the miner is down,
+     * events are shed, or held in a bounded buffer and replayed once it is back (whenMinerDown).
+     */
+
+    /** Up, or restarted now if the backoff has passed. Call with processLock held. */
+    private boolean minerAvailable() {
+        if (process != null && process.isAlive() && pendingResponses != null) return true;
+        if (process != null) {
+            minerFailed(new IOException("miner process exited"));
+        }
+        long now = System.currentTimeMillis();
+        if (now < nextRestartAt) return false;
+        try {
+            startProcess();
+        } catch (RuntimeException e) {
+            restartAttempts++;
+            nextRestartAt = now + restartBackoff();
+            System.err.println("[HeuristicsMiner] ⚠ Miner restart failed, next attempt in "
+                    + (nextRestartAt - now) + " ms: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /** Kills the miner after a failed or overdue request. Call with processLock held. */
+    private void minerFailed(Exception cause) {
+        if (cause instanceof TimeoutException) supervisor.timeouts.increment();
+        if (process != null) {
+            process.destroyForcibly();
+        }
+        safeCloseStreams();
+        process = null;
+        failPending(pendingResponses, cause);
+        pendingResponses = null;
+        if (supervisor.downSince == 0) supervisor.downSince = System.currentTimeMillis();
+        restartAttempts++;
+        nextRestartAt = System.currentTimeMillis() + restartBackoff();
+    }
+
+    private long restartBackoff() {
+        int exponent = Math.min(Math.max(0, restartAttempts - 1), 20);
+        return Math.min(maxRestartBackoffMs, restartBackoffMs << exponent);
+    }
+
+    private void holdWhileDown(byte[] serializedEvent) {
+        if (!bufferWhileDown) {
+            metrics.dropped();
+            return;
+        }
+        if (heldEvents.size() >= downBufferSize) {
+            heldEvents.pollFirst();
+            metrics.dropped();
+        }
+        heldEvents.addLast(serializedEvent);
+        supervisor.heldEvents = heldEvents.size();
+    }
+
+    /**
+     * Sends events held during an outage; their models are superseded by the current event's.
+     * A batch collected before the outage holds older events, so it is sent first.
+     */
+    private void replayHeldEvents() throws Exception {
+        if (heldEvents.isEmpty()) return;
+        if (framed && !pendingBatch.isEmpty()) {
+            sendBatch();
+            if (process == null) throw new IOException("miner failed while sending the pending batch");
+        }
+        System.out.println("[HeuristicsMiner] Replaying " + heldEvents.size() + " events held while the miner was down.");
+        while (!heldEvents.isEmpty()) {
+            if (framed) {
+                List<byte[]> batch = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize && !heldEvents.isEmpty(); i++) {
+                    batch.add(heldEvents.pollFirst());
+                }
+                try {
+                    await(sendFrame(batch));
+                } catch (Exception e) {
+                    batchFailed(batch, e);
+                    throw e;
+                }
+            } else {
+                await(sendLine(new String(heldEvents.pollFirst(), StandardCharsets.UTF_8)));
+            }
+            supervisor.heldEvents = heldEvents.size();
+        }
+    }
+
+    private CompletableFuture<MinerResponse> sendLine(String serializedEvent) throws IOException {
+        CompletableFuture<MinerResponse> response = new CompletableFuture<>();
+        pendingResponses.add(response);
+        jarInput.write(serializedEvent);
+        jarInput.newLine();
+        jarInput.flush();
+        return response;
+    }
+
+    private CompletableFuture<MinerResponse> sendFrame(List<byte[]> events) throws IOException {
+        int length = events.size() - 1; // separators
+        for (byte[] event : events) length += event.length;
+        CompletableFuture<MinerResponse> response = new CompletableFuture<>();
+        pendingResponses.add(response);
+        frameInput.writeInt(length);
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) frameInput.write('\n');
+            frameInput.write(events.get(i));
+        }
+        frameInput.flush();
+        return response;
+    }
+
+    private MinerResponse await(CompletableFuture<MinerResponse> response) throws Exception {
+        try {
+            MinerResponse result = response.get(requestTimeoutMs, TimeUnit.MILLISECONDS);
+            restartAttempts = 0; // the miner answers again, so the next failure starts from the base backoff
+            return result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } catch (TimeoutException e) {
+            throw new TimeoutException("Miner did not answer within " + requestTimeoutMs + " ms");
+        }
+    }
+
+    /** Reads responses of one miner process until it closes its output, completing requests in order. */
+    private void readResponses(Process miner, InputStream output, Queue<CompletableFuture<MinerResponse>> pending,
+                               boolean frames) {
+        try {
+            if (frames) {
+                DataInputStream input = new DataInputStream(new BufferedInputStream(output, 64 * 1024));
+                byte[] buffer = new byte[64 * 1024];
+                while (true) {
+                    int length = input.readInt();
+                    boolean isSuccess = input.readByte() == 1;
+                    if (length < 0 || length > MAX_FRAME_BYTES) {
+                        throw new IOException("Invalid miner frame length: " + length);
+                    }
+                    if (buffer.length < length) {
+                        buffer = new byte[Math.max(length, buffer.length * 2)];
+                    }
+                    input.readFully(buffer, 0, length);
+                    framingConfirmed = true;
+                    complete(pending, new MinerResponse(isSuccess, new String(buffer, 0, length, StandardCharsets.UTF_8)));
+                }
+            } else {
+                BufferedReader lines = new BufferedReader(new InputStreamReader(output));
+                while (true) {
+                    // Miner output (up to blank line) + status line
+                    StringBuilder out = new StringBuilder();
+                    String line;
+                    while ((line = lines.readLine()) != null) {
+                        if (line.trim().isEmpty()) break;
+                        out.append(line).append(System.lineSeparator());
+                    }
+                    if (line == null) break;
+                    String statusLine = lines.readLine();
+                    if (statusLine == null) break;
+                    complete(pending, new MinerResponse(Boolean.parseBoolean(statusLine), out.toString()));
+                }
+            }
+        } catch (IOException e) {
+            // stream closed or broken; fall through
+        }
+        failPending(pending, new IOException("Miner output closed (pid=" + pidSafe(miner) + ")"));
+    }
+
+    private static void complete(Queue<CompletableFuture<MinerResponse>> pending, MinerResponse response) {
+        CompletableFuture<MinerResponse> next = pending.poll();
+        if (next != null) next.complete(response);
+    }
+
+    private static void failPending(Queue<CompletableFuture<MinerResponse>> pending, Exception cause) {
+        if (pending == null) return;
+        CompletableFuture<MinerResponse> next;
+        while ((next = pending.poll()) != null) next.completeExceptionally(cause);
+    }
+
+    /**
+     * Spreads events over independent HeuristicsMiners by case ID or by one attribute (e.g. department),
+     * so a case always lands in the same partition and its directly-follows relations stay intact.
+     * Every partition has its own worker thread and bounded queue; the pipeline thread only routes.
+     * The operator publishes either a global net rebuilt every mergeIntervalMs ("merged"), or, when a
+     * partition changed, all partition nets side by side in one net whose element ids are prefixed
+     * with "partition-i/" ("partition"), so the sink shows every partition and where each part came
+     * from. In-process partitions are merged on their counts, which gives the same net as one miner
+     * over the whole stream. Subprocess partitions only return nets, so their dependencies are
+     * read back from the nets' structure and one net is built from the combined graph.
+     */
+    static final class PartitionedMining {
+        private final HeuristicsMiner[] miners;
+        private final List<BlockingQueue<Message>> queues = new ArrayList<>();
+        private final List<Thread> workers = new ArrayList<>();
+        /** Attribute to partition by, or null for the case ID. */
+        private final String partitionBy;
+        private final boolean merged;
+        private final long mergeIntervalMs;
+        private final double dependencyThreshold;
+        private final int positiveObservations;
+
+        private final AtomicReferenceArray<PetriNet> models;
+        /** 1 while a partition has a newer net than the operator has published or merged. */
+        private final AtomicIntegerArray dirty;
+        private volatile boolean running = true;
+        private long lastMerge = 0;
+
+        PartitionedMining(HeuristicsMiner[] miners, String partitionBy, boolean merged, long mergeIntervalMs,
+                          int queueCapacity, double dependencyThreshold, int positiveObservations) {
+            this.miners = miners;
+            this.partitionBy = partitionBy;
+            this.merged = merged;
+            this.mergeIntervalMs = mergeIntervalMs;
+            this.dependencyThreshold = dependencyThreshold;
+            this.positiveObservations = positiveObservations;
+            this.models = new AtomicReferenceArray<>(miners.length);
+            this.dirty = new AtomicIntegerArray(miners.length);
+            for (int i = 0; i < miners.length; i++) {
+                BlockingQueue<Message> queue = new ArrayBlockingQueue<>(queueCapacity);
+                queues.add(queue);
+                int partition = i;
+                Thread worker = new Thread(() -> work(partition, queue), "heuristics-miner-partition-" + i);
+                worker.setDaemon(true);
+                worker.start();
+                workers.add(worker);
+            }
+        }
+
+        /** Routes the event to its partition (blocking while that partition is full) and returns what to publish. */
+        Pair<PetriNet, Boolean> submit(Message message) {
+            try {
+                queues.get(partitionOf((Event) message)).put(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
                 return new Pair<>(null, false);
             }
+            return merged ? mergedModel() : partitionModels();
+        }
+
+        private int partitionOf(Event event) {
+            Object key = null;
+            if (partitionBy == null) {
+                key = event.getCaseID();
+            } else {
+                for (Attribute<?> attribute : event.getAttributes()) {
+                    if (partitionBy.equals(attribute.getName())) {
+                        key = attribute.getValue();
+                        break;
+                    }
+                }
+            }
+            // Events without the attribute share partition 0
+            return key == null ? 0 : Math.floorMod(key.hashCode(), miners.length);
+        }
+
+        private void work(int partition, BlockingQueue<Message> queue) {
+            HeuristicsMiner miner = miners[partition];
+            while (running) {
+                try {
+                    Pair<PetriNet, Boolean> mined = miner.mine(queue.take());
+                    if (mined.second() && mined.first() != null) {
+                        models.set(partition, mined.first());
+                        dirty.set(partition, 1);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    System.err.println("[HeuristicsMiner] ❌ Partition " + partition + " failed to mine an event: " + e.getMessage());
+                }
+            }
+        }
+
+        /** All partition nets side by side, once any of them changed. */
+        private Pair<PetriNet, Boolean> partitionModels() {
+            boolean changed = false;
+            for (int i = 0; i < miners.length; i++) {
+                if (dirty.getAndSet(i, 0) == 1) changed = true;
+            }
+            if (!changed) return new Pair<>(null, false);
+
+            Map<String, Place> places = new LinkedHashMap<>();
+            Map<String, Transition> transitions = new LinkedHashMap<>();
+            List<Arc> arcs = new ArrayList<>();
+            for (int i = 0; i < miners.length; i++) {
+                PetriNet net = models.get(i);
+                if (net != null) addNamespaced(net, "partition-" + i + "/", places, transitions, arcs);
+            }
+            return new Pair<>(new PetriNet(new HashSet<>(places.values()), new HashSet<>(transitions.values()),
+                    new HashSet<>(arcs)), true);
+        }
+
+        private Pair<PetriNet, Boolean> mergedModel() {
+            long now = System.currentTimeMillis();
+            if (now - lastMerge < mergeIntervalMs) return new Pair<>(null, false);
+
+            boolean changed = false;
+            for (int i = 0; i < miners.length; i++) {
+                if (dirty.getAndSet(i, 0) == 1) changed = true;
+            }
+            if (!changed) return new Pair<>(null, false);
+            lastMerge = now;
+
+            if (miners[0].incrementalMiner != null) {
+                IncrementalHeuristicsMiner global = new IncrementalHeuristicsMiner(dependencyThreshold, positiveObservations);
+                for (HeuristicsMiner miner : miners) {
+                    synchronized (miner.processLock) {
+                        global.absorb(miner.incrementalMiner);
+                    }
+                }
+                return new Pair<>(global.buildModel(), true);
+            }
+            IncrementalHeuristicsMiner global = new IncrementalHeuristicsMiner(dependencyThreshold, positiveObservations);
+            for (int i = 0; i < miners.length; i++) {
+                PetriNet net = models.get(i);
+                if (net != null) addDependencies(net, global);
+            }
+            return new Pair<>(global.buildModel(), true);
+        }
+
+        /**
+         * Reads a mined net back into dependencies, matching transitions by id, i.e. by activity:
+         * every transition feeding a place depends on every transition the place feeds, and the
+         * transitions fed by a place without incoming arcs (the source) are start activities.
+         * Copying the nets side by side instead would give an activity seen in k partitions k
+         * input places, an AND-join no single case can fire, and one marked source per partition.
+         */
+        static void addDependencies(PetriNet net, IncrementalHeuristicsMiner graph) {
+            Map<String, List<String>> inputs = new HashMap<>();
+            Map<String, List<String>> outputs = new HashMap<>();
+            for (Arc arc : net.getFlowRelation()) {
+                if (arc instanceof TransitionToPlaceArc) {
+                    TransitionToPlaceArc t2p = (TransitionToPlaceArc) arc;
+                    inputs.computeIfAbsent(t2p.getTarget().getID(), id -> new ArrayList<>()).add(t2p.getSource().getID());
+                } else if (arc instanceof PlaceToTransitionArc) {
+                    PlaceToTransitionArc p2t = (PlaceToTransitionArc) arc;
+                    outputs.computeIfAbsent(p2t.getSource().getID(), id -> new ArrayList<>()).add(p2t.getTarget().getID());
+                }
+            }
+            for (Transition transition : net.getTransitions()) graph.addActivity(transition.getID());
+            for (Map.Entry<String, List<String>> place : outputs.entrySet()) {
+                List<String> from = inputs.get(place.getKey());
+                for (String to : place.getValue()) {
+                    if (from == null) {
+                        graph.addStart(to);
+                    } else {
+                        for (String a : from) graph.addDependency(a, to);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Copies a net with its place, arc and transition ids prefixed. Markings cannot be read back from a Place, so a place without incoming arcs gets
+         * the one initial token of a workflow net's source place and every other place none.
+         */
+        private static void addNamespaced(PetriNet net, String prefix, Map<String, Place> places,
+                                          Map<String, Transition> transitions, List<Arc> arcs) {
+            Set<String> targets = new HashSet<>();
+            for (Arc arc : net.getFlowRelation()) {
+                if (arc instanceof TransitionToPlaceArc) targets.add(((TransitionToPlaceArc) arc).getTarget().getID());
+            }
+            Map<String, Place> placeCopies = new HashMap<>();
+            for (Place place : net.getPlaces()) {
+                Place copy = new Place(prefix + place.getID(), targets.contains(place.getID()) ? 0 : 1);
+                placeCopies.put(place.getID(), copy);
+                places.put(copy.getID(), copy);
+            }
+            Map<String, Transition> transitionCopies = new HashMap<>();
+            for (Transition transition : net.getTransitions()) {
+                String id = prefix + transition.getID();
+                transitionCopies.put(transition.getID(), transitions.computeIfAbsent(id, Transition::new));
+            }
+            for (Arc arc : net.getFlowRelation()) {
+                if (arc instanceof PlaceToTransitionArc) {
+                    PlaceToTransitionArc p2t = (PlaceToTransitionArc) arc;
+                    Place source = placeCopies.get(p2t.getSource().getID());
+                    Transition target = transitionCopies.get(p2t.getTarget().getID());
+                    if (source != null && target != null) arcs.add(new PlaceToTransitionArc(prefix + arc.getID(), source, target));
+                } else if (arc instanceof TransitionToPlaceArc) {
+                    TransitionToPlaceArc t2p = (TransitionToPlaceArc) arc;
+                    Transition source = transitionCopies.get(t2p.getSource().getID());
+                    Place target = placeCopies.get(t2p.getTarget().getID());
+                    if (source != null && target != null) arcs.add(new TransitionToPlaceArc(prefix + arc.getID(), source, target));
+                }
+            }
+        }
+
+        void close() {
+            running = false;
+            for (Thread worker : workers) worker.interrupt();
+            for (HeuristicsMiner miner : miners) {
+                try {
+                    miner.terminate();
+                } catch (Exception e) {
+                    System.err.println("[HeuristicsMiner] Error terminating partition miner: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    static final class MinerResponse {
+        final boolean success;
+        final String content;
+
+        MinerResponse(boolean success, String content) {
+            this.success = success;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Read-only view of {@link MinerSupervisor} exposed over JMX.
+     */
+    public interface MinerSupervisorMBean {
+        boolean isMinerUp();
+
+        long getRestarts();
+
+        long getTimeouts();
+
+        long getDowntimeMillis();
+
+        long getCurrentDowntimeMillis();
+
+        int getHeldEvents();
+    }
+
+    /**
+     * Restart and downtime counters of the miner process, registered as
+     * {@code templates:type=HeuristicsMiner,component=MinerSupervisor,name=<instance>}.
+     */
+    static final class MinerSupervisor implements MinerSupervisorMBean {
+        final LongAdder restarts = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final AtomicLong downtimeMillis = new AtomicLong();
+        volatile long downSince = 0;
+        volatile int heldEvents = 0;
+        /** Supervisors of the partition miners, summed into this one's JMX view. */
+        volatile MinerSupervisor[] partitions = new MinerSupervisor[0];
+        private ObjectName objectName;
+
+        /** A partition miner's supervisor, only visible through its owner's. */
+        MinerSupervisor() {
+        }
+
+        MinerSupervisor(Object instance) {
+            try {
+                objectName = new ObjectName("templates:type=HeuristicsMiner,component=MinerSupervisor,name="
+                        + Integer.toHexString(System.identityHashCode(instance)));
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new StandardMBean(this, MinerSupervisorMBean.class), objectName);
+            } catch (Exception e) {
+                System.err.println("[HeuristicsMiner] ⚠ Supervisor metrics not registered with JMX: " + e.getMessage());
+                objectName = null;
+            }
+        }
+
+        /** The miner is back; closes the current outage. */
+        void recovered() {
+            long since = downSince;
+            if (since == 0) return;
+            downtimeMillis.addAndGet(System.currentTimeMillis() - since);
+            downSince = 0;
+            restarts.increment();
+        }
+
+        void close() {
+            if (objectName == null) return;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception ignored) {
+            }
+            objectName = null;
+        }
+
+        /** Up when this miner and every partition miner are up. */
+        @Override
+        public boolean isMinerUp() {
+            boolean up = downSince == 0;
+            for (MinerSupervisor partition : partitions) up &= partition.isMinerUp();
+            return up;
+        }
+
+        @Override
+        public long getRestarts() {
+            long total = restarts.sum();
+            for (MinerSupervisor partition : partitions) total += partition.getRestarts();
+            return total;
+        }
+
+        @Override
+        public long getTimeouts() {
+            long total = timeouts.sum();
+            for (MinerSupervisor partition : partitions) total += partition.getTimeouts();
+            return total;
+        }
+
+        /** Summed over the partition miners, so it can exceed wall-clock time. */
+        @Override
+        public long getDowntimeMillis() {
+            long since = downSince;
+            long total = downtimeMillis.get() + (since == 0 ? 0 : System.currentTimeMillis() - since);
+            for (MinerSupervisor partition : partitions) total += partition.getDowntimeMillis();
+            return total;
+        }
+
+        /** The longest outage still in progress. */
+        @Override
+        public long getCurrentDowntimeMillis() {
+            long since = downSince;
+            long current = since == 0 ? 0 : System.currentTimeMillis() - since;
+            for (MinerSupervisor partition : partitions) current = Math.max(current, partition.getCurrentDowntimeMillis());
+            return current;
+        }
+
+        @Override
+        public int getHeldEvents() {
+            int total = heldEvents;
+            for (MinerSupervisor partition : partitions) total += partition.getHeldEvents();
+            return total;
+        }
+    }
+
+    /** Deserializes miner output, reusing the current model when the output is byte-identical. */
+    PetriNet deserializeModel(String content) {
+        if (latestModel != null && content.equals(latestRawOutput)) {
+            return latestModel;
+        }
+        PetriNet petriNet = (PetriNet) MessageFactory.deserialize(content);
+        latestRawOutput = content;
+        latestModel = petriNet;
+        latestFingerprint = structuralFingerprint(petriNet);
+        return petriNet;
+    }
+
+    /**
+     * Order-independent 64-bit hash over place ids, transition ids and arc endpoints.
+     * Element hashes are mixed and summed so the result does not depend on set iteration order.
+     */
+    static long structuralFingerprint(PetriNet petriNet) {
+        long hash = 0;
+        for (Place place : petriNet.getPlaces()) {
+            hash += mix(0x50L, place.getID().hashCode());
+        }
+        for (Transition transition : petriNet.getTransitions()) {
+            hash += mix(0x54L, transition.getID().hashCode());
+        }
+        for (Arc arc : petriNet.getFlowRelation()) {
+            if (arc instanceof PlaceToTransitionArc) {
+                PlaceToTransitionArc p2t = (PlaceToTransitionArc) arc;
+                hash += mix(mix(0x41L, p2t.getSource().getID().hashCode()), p2t.getTarget().getID().hashCode());
+            } else if (arc instanceof TransitionToPlaceArc) {
+                TransitionToPlaceArc t2p = (TransitionToPlaceArc) arc;
+                hash += mix(mix(0x42L, t2p.getSource().getID().hashCode()), t2p.getTarget().getID().hashCode());
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long seed, int value) {
+        long h = seed * 0x9E3779B97F4A7C15L + value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private Pair<PetriNet, Boolean> mineInProcess(Event event) {
+        synchronized (processLock) {
+            try {
+                // Only rebuild the net when an event actually changed the dependency graph
+                if (incrementalMiner.observe(event.getCaseID(), event.getActivity())) {
+                    return new Pair<>(incrementalMiner.buildModel(), true);
+                }
+            } catch (Exception e) {
+                System.err.println("[HeuristicsMiner] ❌ Error while mining event in-process: " + e.getMessage());
+                e.printStackTrace();
+                metrics.dropped();
+            }
+            return new Pair<>(null, false);
         }
     }
 
@@ -220,14 +1227,16 @@ public class HeuristicsMiner extends MiningOperator<PetriNet> {
     @Override
     public boolean terminate() {
         super.terminate();
+        if (partitioned != null) partitioned.close();
+        if (lingerTimer != null) lingerTimer.shutdownNow();
         synchronized (processLock) {
             try {
                 safeCloseStreams();
                 if (process != null) {
                     process.destroy();
-                    // be nice up to 2s, then force
+                    // be nice up to 2s (10s while it writes the CDS archive), then force
                     try {
-                        if (!process.waitFor(2, java.util.concurrent.TimeUnit.SECONDS)) {
+                        if (!process.waitFor(process == archiveRecorder ? 10 : 2, java.util.concurrent.TimeUnit.SECONDS)) {
                             process.destroyForcibly();
                         }
                     } catch (InterruptedException ignored) {}
@@ -236,16 +1245,612 @@ public class HeuristicsMiner extends MiningOperator<PetriNet> {
                 System.err.println("[HeuristicsMiner] Error during terminate(): " + e.getMessage());
             } finally {
                 process = null;
+                failPending(pendingResponses, new IOException("Miner terminated"));
+                pendingResponses = null;
+                if (standbyProcess != null) {
+                    standbyProcess.destroyForcibly();
+                    standbyProcess = null;
+                }
             }
         }
+        if (owner == null) {
+            metrics.close();
+            supervisor.close();
+        }
         System.out.println("[HeuristicsMiner] Process terminated.");
         return true;
     }
 
     private void safeCloseStreams() {
         try { if (jarInput != null) jarInput.close(); } catch (IOException ignored) {}
-        try { if (jarOutput != null) jarOutput.close(); } catch (IOException ignored) {}
+        try { if (frameInput != null) frameInput.close(); } catch (IOException ignored) {}
         jarInput = null;
-        jarOutput = null;
+        frameInput = null;
+    }
+
+    private static String stringSetting(Configuration configuration, String key, String defaultValue) {
+        Object value = configuration.get(key);
+        return value == null ? defaultValue : value.toString().trim();
+    }
+
+    private static Set<String> stringSetSetting(Configuration configuration, String key, Set<String> defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        Set<String> result = new HashSet<>();
+        if (value instanceof Iterable) {
+            for (Object item : (Iterable<?>) value) result.add(item.toString().trim());
+        } else {
+            for (String item : value.toString().split(",")) {
+                if (!item.trim().isEmpty()) result.add(item.trim());
+            }
+        }
+        return result;
+    }
+
+    private static int intSetting(Configuration configuration, String key, int defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).intValue();
+        return Integer.parseInt(value.toString().trim());
+    }
+
+    private static double doubleSetting(Configuration configuration, String key, double defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        return Double.parseDouble(value.toString().trim());
+    }
+
+    // <shared:OperatorMetrics> generated from shared/OperatorMetrics.java.in; edit it there, then run script/SyncShared.java
+    /**
+     * Read-only view of {@link OperatorMetrics} exposed over JMX.
+     */
+    public interface OperatorMetricsMBean {
+        long getReceived();
+
+        long getForwarded();
+
+        long getDropped();
+
+        double getReceivedPerSecond();
+
+        double getLatencyMeanMicros();
+
+        double getLatencyP50Micros();
+
+        double getLatencyP99Micros();
+
+        double getLatencyP999Micros();
+
+        double getLatencyMaxMicros();
+
+        long getLatencyCount();
+
+        /** Raw histogram counts; readers can diff two snapshots to get a recent percentile. */
+        long[] getLatencyBuckets();
+
+        void reset();
+    }
+
+    /**
+     * Per-instance throughput, drop and latency metrics, registered with the platform MBean
+     * server as {@code templates:type=<template>,name=<instance>}. Counters are striped
+     * {@link LongAdder}s and latencies go into a log-linear histogram (32 sub-buckets per
+     * power of two, about 3% precision), so recording is lock-free and allocation-free.
+     * Every getter is a pure read, so any number of JMX clients can poll the same instance.
+     */
+    static final class OperatorMetrics implements OperatorMetricsMBean {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS;
+
+        private final LongAdder received = new LongAdder();
+        private final LongAdder forwarded = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(SUB_BUCKETS * (MAX_SHIFT + 2));
+        private final LongAdder latencyTotalNanos = new LongAdder();
+        private final AtomicLong latencyMaxNanos = new AtomicLong();
+        private ObjectName objectName;
+
+        /** Start of the period the rate covers: creation, or the last reset(). */
+        private volatile long since = System.nanoTime();
+
+        OperatorMetrics(String template, Object instance) {
+            try {
+                objectName = new ObjectName("templates:type=" + template
+                        + ",name=" + Integer.toHexString(System.identityHashCode(instance)));
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new StandardMBean(this, OperatorMetricsMBean.class), objectName);
+            } catch (Exception e) {
+                System.err.println("[" + template + "] ⚠ Metrics not registered with JMX: " + e.getMessage());
+                objectName = null;
+            }
+        }
+
+        void received() {
+            received.increment();
+        }
+
+        void forwarded() {
+            forwarded.increment();
+        }
+
+        void dropped() {
+            dropped.increment();
+        }
+
+        void dropped(long count) {
+            dropped.add(count);
+        }
+
+        void recordLatency(long nanos) {
+            long value = Math.max(0, nanos);
+            latencyBuckets.incrementAndGet(bucketOf(value));
+            latencyTotalNanos.add(value);
+            long max;
+            while (value > (max = latencyMaxNanos.get()) && !latencyMaxNanos.compareAndSet(max, value)) {
+                // retry until the larger value is stored
+            }
+        }
+
+        void close() {
+            if (objectName == null) return;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception ignored) {
+            }
+            objectName = null;
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+            long sub = Math.min(SUB_BUCKETS - 1, (value >>> shift) - SUB_BUCKETS);
+            return SUB_BUCKETS + shift * SUB_BUCKETS + (int) sub;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+        }
+
+        private double percentileMicros(double percentile) {
+            return Math.min(percentileMicros(snapshot(), percentile), latencyMaxNanos.get() / 1000.0);
+        }
+
+        private long[] snapshot() {
+            long[] counts = new long[latencyBuckets.length()];
+            for (int i = 0; i < counts.length; i++) counts[i] = latencyBuckets.get(i);
+            return counts;
+        }
+
+        /** Upper bound of the bucket holding the given percentile of {@code buckets}, in microseconds. */
+        static double percentileMicros(long[] buckets, double percentile) {
+            long total = 0;
+            for (long count : buckets) total += count;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return upperBoundOf(i) / 1000.0;
+            }
+            return upperBoundOf(buckets.length - 1) / 1000.0;
+        }
+
+        @Override
+        public long getReceived() {
+            return received.sum();
+        }
+
+        @Override
+        public long getForwarded() {
+            return forwarded.sum();
+        }
+
+        @Override
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        /** Average rate since the metrics were created or last reset. */
+        @Override
+        public double getReceivedPerSecond() {
+            return received.sum() * 1e9 / Math.max(1, System.nanoTime() - since);
+        }
+
+        @Override
+        public double getLatencyMeanMicros() {
+            long count = getLatencyCount();
+            return count == 0 ? 0 : latencyTotalNanos.sum() / 1000.0 / count;
+        }
+
+        @Override
+        public double getLatencyP50Micros() {
+            return percentileMicros(0.50);
+        }
+
+        @Override
+        public double getLatencyP99Micros() {
+            return percentileMicros(0.99);
+        }
+
+        @Override
+        public double getLatencyP999Micros() {
+            return percentileMicros(0.999);
+        }
+
+        @Override
+        public double getLatencyMaxMicros() {
+            return latencyMaxNanos.get() / 1000.0;
+        }
+
+        @Override
+        public long getLatencyCount() {
+            long count = 0;
+            for (int i = 0; i < latencyBuckets.length(); i++) count += latencyBuckets.get(i);
+            return count;
+        }
+
+        @Override
+        public long[] getLatencyBuckets() {
+            return snapshot();
+        }
+
+        @Override
+        public synchronized void reset() {
+            received.reset();
+            forwarded.reset();
+            dropped.reset();
+            latencyTotalNanos.reset();
+            latencyMaxNanos.set(0);
+            for (int i = 0; i < latencyBuckets.length(); i++) latencyBuckets.set(i, 0);
+            since = System.nanoTime();
+        }
+    }
+    // </shared:OperatorMetrics>
+
+    /**
+     * Streaming Heuristics Miner kept entirely in this JVM.
+     * <p>
+     * Activities are dictionary-encoded to dense ints so the directly-follows counts
+     * and the dependency graph live in flat primitive matrices indexed by
+     * {@code from * capacity + to}. Each event touches one directly-follows cell and
+     * re-evaluates the two dependency measures it affects, so an update is O(1).
+     * The {@link PetriNet} is only rebuilt when an edge of the dependency graph,
+     * the set of start activities or the set of activities changes.
+     * <p>
+     * Counts can be limited to recent data. A count or time window keeps each observation in a
+     * ring and takes it back out when it leaves the window. Decay weighs every new observation by
+     * {@code 2^(t / halfLife)}, so older ones fade without ever being touched again. The weight is
+     * folded back into the counts before it overflows, and all dependencies are re-checked once
+     * per second so faded edges drop out. Per-case state is dropped when a case reaches a
+     * terminal activity or has been idle longer than the TTL.
+     */
+    static final class IncrementalHeuristicsMiner {
+
+        static final int WINDOW_NONE = 0;
+        static final int WINDOW_COUNT = 1;
+        static final int WINDOW_TIME = 2;
+        static final int WINDOW_DECAY = 3;
+
+        private static final String SOURCE_PLACE = "source";
+        private static final String SINK_PLACE = "sink";
+        private static final double MAX_DECAY_WEIGHT = 1e12;
+        private static final long SWEEP_INTERVAL_MS = 1000;
+
+        private final double dependencyThreshold;
+        private final int positiveObservations;
+        private final int windowMode;
+        /** Length of the count window; also caps how many observations the time window may hold. */
+        private final int windowSize;
+        private final long windowMs;
+        private final double decayHalfLifeMs;
+        private final Set<String> terminalActivities;
+        private final long caseIdleTtlMs;
+
+        private final Map<String, Integer> activityIds = new HashMap<>();
+        private String[] activities = new String[16];
+        private int activityCount = 0;
+        private int capacity = 16;
+
+        /** |a > b|: how often b directly followed a within a case (weighted in decay mode). */
+        private double[] directlyFollows = new double[capacity * capacity];
+        /** Whether a => b currently passes the dependency threshold. */
+        private boolean[] dependencies = new boolean[capacity * capacity];
+        /** How many cases started with each activity. */
+        private double[] startCounts = new double[capacity];
+        /** Whether each activity currently counts as a start activity. */
+        private boolean[] starts = new boolean[capacity];
+
+        /** Observations inside the window, oldest at ringHead; from = -1 marks a case start. */
+        private int[] ringFrom = new int[0];
+        private int[] ringTo = new int[0];
+        private long[] ringTime = new long[0];
+        private int ringHead = 0;
+        private int ringSize = 0;
+
+        private long decayOrigin = -1;
+        private double weight = 1.0;
+        private long lastSweep = 0;
+
+        /** Last activity per case, least recently active first. */
+        private final LinkedHashMap<String, CaseState> cases = new LinkedHashMap<>(1024, 0.75f, true);
+
+        private boolean changed = false;
+
+        IncrementalHeuristicsMiner(double dependencyThreshold, int positiveObservations) {
+            this(dependencyThreshold, positiveObservations, WINDOW_NONE, 0, 0, 0,
+                    Collections.singleton("DISCHARGE"), 0);
+        }
+
+        IncrementalHeuristicsMiner(double dependencyThreshold, int positiveObservations, int windowMode,
+                                   int windowSize, long windowMs, double decayHalfLifeMs,
+                                   Set<String> terminalActivities, long caseIdleTtlMs) {
+            this.dependencyThreshold = dependencyThreshold;
+            this.positiveObservations = Math.max(1, positiveObservations);
+            this.windowMode = windowMode;
+            this.windowSize = Math.max(1, windowSize);
+            this.windowMs = Math.max(1, windowMs);
+            this.decayHalfLifeMs = Math.max(1.0, decayHalfLifeMs);
+            this.terminalActivities = new HashSet<>(terminalActivities);
+            this.caseIdleTtlMs = caseIdleTtlMs;
+        }
+
+        /** Records one event and returns true if the dependency graph changed since the last model. */
+        boolean observe(String caseId, String activity) {
+            return observe(caseId, activity, System.currentTimeMillis());
+        }
+
+        boolean observe(String caseId, String activity, long now) {
+            if (windowMode == WINDOW_DECAY) advanceDecay(now);
+
+            int to = activityId(activity);
+            CaseState state = cases.get(caseId);
+            if (state == null) {
+                state = new CaseState();
+                cases.put(caseId, state);
+                add(-1, to, now);
+            } else {
+                add(state.lastActivity, to, now);
+            }
+            state.lastActivity = to;
+            state.lastSeen = now;
+
+            if (terminalActivities.contains(activity)) {
+                cases.remove(caseId);
+            }
+            if (caseIdleTtlMs > 0) {
+                evictIdleCases(now);
+            }
+            if (windowMode == WINDOW_TIME) {
+                while (ringSize > 0 && ringTime[ringHead] < now - windowMs) expireOldest();
+            }
+            return changed;
+        }
+
+        int activeCases() {
+            return cases.size();
+        }
+
+        private void add(int from, int to, long now) {
+            if (windowMode == WINDOW_COUNT || windowMode == WINDOW_TIME) {
+                if (ringSize == windowSize) expireOldest();
+                if (ringSize == ringFrom.length) growRing();
+                int slot = (ringHead + ringSize) % ringFrom.length;
+                ringFrom[slot] = from;
+                ringTo[slot] = to;
+                ringTime[slot] = now;
+                ringSize++;
+            }
+            count(from, to, windowMode == WINDOW_DECAY ? weight : 1.0);
+        }
+
+        private void expireOldest() {
+            int from = ringFrom[ringHead];
+            int to = ringTo[ringHead];
+            ringHead = (ringHead + 1) % ringFrom.length;
+            ringSize--;
+            count(from, to, -1.0);
+        }
+
+        private void count(int from, int to, double amount) {
+            if (from < 0) {
+                startCounts[to] += amount;
+                updateStart(to);
+            } else {
+                directlyFollows[from * capacity + to] += amount;
+                updateDependency(from, to);
+                if (from != to) updateDependency(to, from);
+            }
+        }
+
+        private void growRing() {
+            int size = (int) Math.min(windowSize, Math.max(1024L, 2L * ringFrom.length));
+            int[] from = new int[size];
+            int[] to = new int[size];
+            long[] time = new long[size];
+            for (int i = 0; i < ringSize; i++) {
+                int slot = (ringHead + i) % ringFrom.length;
+                from[i] = ringFrom[slot];
+                to[i] = ringTo[slot];
+                time[i] = ringTime[slot];
+            }
+            ringFrom = from;
+            ringTo = to;
+            ringTime = time;
+            ringHead = 0;
+        }
+
+        private void evictIdleCases(long now) {
+            Iterator<CaseState> oldestFirst = cases.values().iterator();
+            while (oldestFirst.hasNext()) {
+                if (oldestFirst.next().lastSeen >= now - caseIdleTtlMs) break;
+                oldestFirst.remove();
+            }
+        }
+
+        private void advanceDecay(long now) {
+            if (decayOrigin < 0) decayOrigin = now;
+            weight = Math.pow(2.0, (now - decayOrigin) / decayHalfLifeMs);
+            if (weight > MAX_DECAY_WEIGHT) {
+                // Fold the weight into the counts before it loses precision
+                for (int i = 0; i < directlyFollows.length; i++) directlyFollows[i] /= weight;
+                for (int i = 0; i < startCounts.length; i++) startCounts[i] /= weight;
+                decayOrigin = now;
+                weight = 1.0;
+            }
+            if (now - lastSweep >= SWEEP_INTERVAL_MS) {
+                lastSweep = now;
+                for (int a = 0; a < activityCount; a++) {
+                    updateStart(a);
+                    for (int b = 0; b < activityCount; b++) updateDependency(a, b);
+                }
+            }
+        }
+
+        private int activityId(String activity) {
+            Integer id = activityIds.get(activity);
+            if (id != null) return id;
+
+            if (activityCount == capacity) grow();
+            int newId = activityCount++;
+            activities[newId] = activity;
+            activityIds.put(activity, newId);
+            changed = true;
+            return newId;
+        }
+
+        private void grow() {
+            int newCapacity = capacity * 2;
+            double[] newFollows = new double[newCapacity * newCapacity];
+            boolean[] newDependencies = new boolean[newCapacity * newCapacity];
+            for (int a = 0; a < activityCount; a++) {
+                System.arraycopy(directlyFollows, a * capacity, newFollows, a * newCapacity, activityCount);
+                System.arraycopy(dependencies, a * capacity, newDependencies, a * newCapacity, activityCount);
+            }
+            directlyFollows = newFollows;
+            dependencies = newDependencies;
+            startCounts = Arrays.copyOf(startCounts, newCapacity);
+            starts = Arrays.copyOf(starts, newCapacity);
+            activities = Arrays.copyOf(activities, newCapacity);
+            capacity = newCapacity;
+        }
+
+        private void updateStart(int a) {
+            // Half an observation, so fractional decayed counts behave like the integer "> 0"
+            boolean holds = startCounts[a] / weight >= 0.5;
+            if (starts[a] != holds) {
+                starts[a] = holds;
+                changed = true;
+            }
+        }
+
+        private void updateDependency(int a, int b) {
+            double ab = directlyFollows[a * capacity + b] / weight;
+            double measure;
+            if (a == b) {
+                measure = ab / (ab + 1.0);
+            } else {
+                double ba = directlyFollows[b * capacity + a] / weight;
+                measure = (ab - ba) / (ab + ba + 1.0);
+            }
+            boolean holds = ab >= positiveObservations - 1e-9 && measure >= dependencyThreshold;
+            int index = a * capacity + b;
+            if (dependencies[index] != holds) {
+                dependencies[index] = holds;
+                changed = true;
+            }
+        }
+
+        /**
+         * Adds another miner's counts, matched by activity name, and re-evaluates every dependency.
+         * Decayed counts are normalized first, so partitions with different decay origins add up.
+         */
+        void absorb(IncrementalHeuristicsMiner other) {
+            int[] ids = new int[other.activityCount];
+            for (int a = 0; a < other.activityCount; a++) ids[a] = activityId(other.activities[a]);
+            for (int a = 0; a < other.activityCount; a++) {
+                startCounts[ids[a]] += other.startCounts[a] / other.weight;
+                for (int b = 0; b < other.activityCount; b++) {
+                    double n = other.directlyFollows[a * other.capacity + b];
+                    if (n != 0) directlyFollows[ids[a] * capacity + ids[b]] += n / other.weight;
+                }
+            }
+            for (int a = 0; a < activityCount; a++) {
+                updateStart(a);
+                for (int b = 0; b < activityCount; b++) updateDependency(a, b);
+            }
+        }
+
+        void addActivity(String activity) {
+            activityId(activity);
+        }
+
+        /** Sets a => b as a dependency without counts, for graphs read back from mined nets. */
+        void addDependency(String a, String b) {
+            int from = activityId(a);
+            int to = activityId(b);
+            dependencies[from * capacity + to] = true;
+            changed = true;
+        }
+
+        /** Sets an activity as a start activity without counts, for graphs read back from mined nets. */
+        void addStart(String activity) {
+            starts[activityId(activity)] = true;
+            changed = true;
+        }
+
+        /**
+         * Translates the dependency graph into a Petri net: one transition per activity,
+         * one place per dependency a => b, a source place feeding every start activity and
+         * a sink place fed by every activity without outgoing dependencies.
+         */
+        PetriNet buildModel() {
+            Set<Place> places = new HashSet<>();
+            Set<Transition> transitions = new HashSet<>();
+            Set<Arc> arcs = new HashSet<>();
+
+            Place source = new Place(SOURCE_PLACE, 1);
+            Place sink = new Place(SINK_PLACE, 0);
+            places.add(source);
+            places.add(sink);
+
+            Transition[] byId = new Transition[activityCount];
+            for (int a = 0; a < activityCount; a++) {
+                byId[a] = new Transition(activities[a]);
+                transitions.add(byId[a]);
+            }
+
+            for (int a = 0; a < activityCount; a++) {
+                boolean hasOutgoing = false;
+                for (int b = 0; b < activityCount; b++) {
+                    if (!dependencies[a * capacity + b]) continue;
+                    hasOutgoing = true;
+                    String placeId = activities[a] + "->" + activities[b];
+                    Place place = new Place(placeId, 0);
+                    places.add(place);
+                    // "=>" marks which end is the place, so a self-loop's two arcs keep distinct ids
+                    arcs.add(new TransitionToPlaceArc(activities[a] + "=>" + placeId, byId[a], place));
+                    arcs.add(new PlaceToTransitionArc(placeId + "=>" + activities[b], place, byId[b]));
+                }
+                if (starts[a]) {
+                    arcs.add(new PlaceToTransitionArc(SOURCE_PLACE + "->" + activities[a], source, byId[a]));
+                }
+                if (!hasOutgoing) {
+                    arcs.add(new TransitionToPlaceArc(activities[a] + "->" + SINK_PLACE, byId[a], sink));
+                }
+            }
+
+            changed = false;
+            return new PetriNet(places, transitions, arcs);
+        }
+
+        private static final class CaseState {
+            int lastActivity;
+            long lastSeen;
+        }
     }
 }
@@ -6,9 +6,13 @@ import org.springframework.stereotype.Component;
 import pipeline.processingelement.Configuration;
 import pipeline.processingelement.source.WebSource;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * High-throughput HospitalEventSource
@@ -25,105 +29,409 @@ import java.util.*;
 @Component
 public class HospitalEventSource extends WebSource<Event> {
 
-    private static final Random RANDOM = new Random();
+    private static final String[] DEPARTMENTS =
+            {"Emergency", "Cardiology", "Neurology", "Oncology", "Pediatrics"};
+    private static final int EMERGENCY = 0;
 
-    private static final List<String> DEPARTMENTS =
-            Arrays.asList("Emergency", "Cardiology", "Neurology", "Oncology", "Pediatrics");
+    // Variant 0 is the fixed flow for Emergency, the others are variable flows for other departments
+    private static final String[][] VARIANTS = {
+            {"ADMISSION", "TRIAGE", "DIAGNOSIS", "TREATMENT", "DISCHARGE"},
+            {"ADMISSION", "DIAGNOSIS", "LAB_TEST", "TREATMENT", "DISCHARGE"},
+            {"ADMISSION", "TRIAGE", "DIAGNOSIS", "DISCHARGE"},
+            {"ADMISSION", "TRIAGE", "DIAGNOSIS", "TREATMENT", "TREATMENT", "DISCHARGE"}
+    };
 
-    // Fixed flow for Emergency
-    private static final List<String> EMERGENCY_FLOW = Arrays.asList(
-            "ADMISSION", "TRIAGE", "DIAGNOSIS", "TREATMENT", "DISCHARGE"
-    );
+    // Cases are partitioned over shards; each shard has its own random stream and case pool
+    private final Shard[] shards;
+    private Scheduler shardWorkers;
+    /** Global index of the next event; event k is always produced by shard k % shards.length. */
+    private long nextPosition = 0;
 
-    // Variable flows for other departments
-    private static final List<List<String>> PROCESS_VARIANTS = Arrays.asList(
-            Arrays.asList("ADMISSION", "DIAGNOSIS", "LAB_TEST", "TREATMENT", "DISCHARGE"),
-            Arrays.asList("ADMISSION", "TRIAGE", "DIAGNOSIS", "DISCHARGE"),
-            Arrays.asList("ADMISSION", "TRIAGE", "DIAGNOSIS", "TREATMENT", "TREATMENT", "DISCHARGE")
-    );
+    // Rate control: a token bucket refilled at eventsPerSecond, drained once per tick
+    private final int eventsPerSecond;
+    private final long tickMs;
+    private final double maxBurst;
+    private double tokens = 0;
+    private long lastRefillNanos = System.nanoTime();
 
-    // Active patient cases (caseID → iterator of events)
-    private final Map<String, Iterator<String>> activeCases = new HashMap<>();
-
-    // Keep track of department per case
-    private final Map<String, String> caseDepartments = new HashMap<>();
-
-    // Adjust throughput freely
-    private static final int EVENTS_PER_SECOND = 100000;
+    // Rate reporting
+    private final LongAdder emitted = new LongAdder();
+    private final LongAdder droppedTicks = new LongAdder();
+    private final LongAdder generatorErrors = new LongAdder();
+    private long lastReportNanos = System.nanoTime();
 
     public HospitalEventSource(Configuration configuration) {
         super(configuration);
+        int maxActiveCases = Math.max(1, intSetting(configuration, "maxActiveCases", 100));
+        int shardCount = Math.max(1, Math.min(intSetting(configuration, "shards", 1), maxActiveCases));
+        long seed = longSetting(configuration, "seed", System.nanoTime());
+
+        // Splitting in a fixed order makes every shard's stream a function of (seed, shard count)
+        SplittableRandom root = new SplittableRandom(seed);
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            int capacity = maxActiveCases / shardCount + (i < maxActiveCases % shardCount ? 1 : 0);
+            String prefix = shardCount == 1 ? "PAT-" : "PAT-" + i + "-";
+            shards[i] = new Shard(root.split(), capacity, prefix);
+        }
+
+        eventsPerSecond = Math.max(1, intSetting(configuration, "eventsPerSecond", 100000));
+        tickMs = Math.max(1, intSetting(configuration, "tickMs", 10));
+        // Allow catching up on a few late ticks, but never dump more than that at once
+        maxBurst = Math.max(1.0, eventsPerSecond * (4.0 * tickMs) / 1000.0);
     }
 
     @Override
     protected Flux<Event> process() {
-        return Flux.interval(Duration.ofMillis(1000L / EVENTS_PER_SECOND))
-                .map(tick -> generateNextEvent())
-                .filter(Objects::nonNull)
+        if (shards.length > 1 && shardWorkers == null) {
+            shardWorkers = Schedulers.newParallel("hospital-shard", shards.length, true);
+        }
+        return Flux.interval(Duration.ofMillis(tickMs))
+                // A tick that cannot be delivered is counted; its tokens stay in the bucket
+                .onBackpressureDrop(tick -> droppedTicks.increment())
+                .concatMap(tick -> nextTick(), 1)
                 .doOnNext(e -> {
+                    emitted.increment();
                     //System.out.println("🏥 " + e)
                         }
                 )
                 .onErrorContinue(
                         (err, obj) ->
                         {
+                            generatorErrors.increment();
                             //System.err.println("Error emitting hospital event: " + err);
                         }
                 );
     }
 
-    private Event generateNextEvent() {
-        // Occasionally start new patient cases
-        if (activeCases.size() < 100 && RANDOM.nextDouble() < 0.4) {
-            startNewCase();
+    @Override
+    public boolean terminate() {
+        super.terminate();
+        if (shardWorkers != null) {
+            shardWorkers.dispose();
+            shardWorkers = null;
+        }
+        return true;
+    }
+
+    private Flux<Event> nextTick() {
+        long now = System.nanoTime();
+        tokens = Math.min(maxBurst, tokens + (now - lastRefillNanos) * (eventsPerSecond / 1e9));
+        lastRefillNanos = now;
+        reportRate(now);
+
+        int due = (int) tokens;
+        tokens -= due;
+        if (due == 0) return Flux.empty();
+
+        long first = nextPosition;
+        nextPosition += due;
+        if (shards.length == 1) {
+            return Flux.fromIterable(shards[0].nextBatch(due));
+        }
+
+        // Shards generate their share of positions [first, first + due) in parallel,
+        // then the batches are interleaved back into global position order
+        return Flux.range(0, shards.length)
+                .flatMapSequential(i -> Mono.fromCallable(() -> shards[i].nextBatch(quota(first, due, i)))
+                        .subscribeOn(shardWorkers))
+                .collectList()
+                .flatMapIterable(batches -> interleave(first, due, batches));
+    }
+
+    /** Number of positions k in [first, first + due) with k % shards.length == shard. */
+    private int quota(long first, int due, int shard) {
+        int n = shards.length;
+        long firstOwned = first + Math.floorMod(shard - first, n);
+        long end = first + due;
+        return firstOwned >= end ? 0 : (int) ((end - 1 - firstOwned) / n + 1);
+    }
+
+    private List<Event> interleave(long first, int due, List<List<Event>> batches) {
+        int n = shards.length;
+        int[] cursors = new int[n];
+        List<Event> merged = new ArrayList<>(due);
+        for (long k = first; k < first + due; k++) {
+            int shard = (int) (k % n);
+            merged.add(batches.get(shard).get(cursors[shard]++));
+        }
+        return merged;
+    }
+
+    private void reportRate(long now) {
+        long elapsed = now - lastReportNanos;
+        if (elapsed < 1_000_000_000L) return;
+
+        long count = emitted.sumThenReset();
+        double achievedEventsPerSecond = count * 1e9 / elapsed;
+        double deviation = (achievedEventsPerSecond - eventsPerSecond) * 100.0 / eventsPerSecond;
+        System.out.printf("[HospitalEventSource] Target %d ev/s, achieved %.0f ev/s (%+.1f%%), dropped ticks %d, errors %d%n",
+                eventsPerSecond, achievedEventsPerSecond, deviation,
+                droppedTicks.sumThenReset(), generatorErrors.sumThenReset());
+        lastReportNanos = now;
+    }
+
+    // <shared:HospitalSimulation> generated from shared/HospitalSimulation.java.in; edit it there, then run script/SyncShared.java
+    /**
+     * One partition of the simulated hospital. A shard is only ever used by one thread at a time,
+     * so its random stream and case pool need no synchronization, and for a given seed it always
+     * produces the same sequence of cases and activities.
+     * Uses the enclosing template's DEPARTMENTS, EMERGENCY and VARIANTS.
+     */
+    static final class Shard {
+        private final SplittableRandom random;
+        private final CasePool activeCases;
+        private final String caseIdPrefix;
+        private long nextCaseNumber = 1000;
+        /** Last timestamp handed out; events in the same millisecond share the string. */
+        private long timestampMillis = -1;
+        private String timestamp;
+
+        Shard(SplittableRandom random, int maxActiveCases, String caseIdPrefix) {
+            this.random = random;
+            this.activeCases = new CasePool(maxActiveCases);
+            this.caseIdPrefix = caseIdPrefix;
+        }
+
+        /** Generates exactly {@code count} events; finished cases yield no event and are skipped. */
+        List<Event> nextBatch(int count) {
+            List<Event> batch = new ArrayList<>(count);
+            while (batch.size() < count) {
+                Event event = generateNextEvent();
+                if (event != null) batch.add(event);
+            }
+            return batch;
+        }
+
+        /** Finished cases yield no event, so keep going until an activity is produced. */
+        Event nextEvent() {
+            Event event;
+            do {
+                event = generateNextEvent();
+            } while (event == null);
+            return event;
+        }
+
+        Event generateNextEvent() {
+            // Occasionally start new patient cases
+            if (!activeCases.isFull() && random.nextDouble() < 0.4) {
+                startNewCase();
+            }
+
+            if (activeCases.size() == 0) return null;
+
+            // Pick a random active patient and advance their process
+            int index = random.nextInt(activeCases.size());
+            String[] steps = VARIANTS[activeCases.variant(index)];
+            int step = activeCases.cursor(index);
+
+            if (step == steps.length) {
+                activeCases.remove(index);
+                return null;
+            }
+
+            activeCases.advance(index);
+            String caseId = activeCases.caseId(index);
+            String activity = steps[step];
+            int doctor = random.nextInt(26);
+            int severity = random.nextInt(5);
+
+            // Shared attributes and a per-millisecond timestamp: only the Event and its attribute view are allocated
+            return new Event(caseId, activity, timestamp(),
+                    EventAttributes.of(activeCases.department(index), doctor, severity));
+        }
+
+        private String timestamp() {
+            long now = System.currentTimeMillis();
+            if (now != timestampMillis) {
+                timestampMillis = now;
+                timestamp = String.valueOf(now);
+            }
+            return timestamp;
+        }
+
+        private void startNewCase() {
+            // Sequential ids stay unique even with millions of open cases
+            String newCaseId = caseIdPrefix + nextCaseNumber++;
+
+            // Emergency always follows the fixed flow
+            int department = random.nextInt(DEPARTMENTS.length);
+            int variant = department == EMERGENCY
+                    ? 0
+                    : 1 + random.nextInt(VARIANTS.length - 1);
+
+            activeCases.add(newCaseId, department, variant);
+        }
+    }
+
+    /**
+     * The attribute set of a generated event: department, doctor and severity. The three
+     * attributes come from a table built once, so creating the set allocates only this view.
+     * It behaves like a HashSet of its own: the first add or remove copies the attributes into a
+     * private set, and no other event sees the change.
+     */
+    static final class EventAttributes extends AbstractSet<Attribute<?>> {
+        private static final int DOCTORS = 26;
+        private static final int SEVERITIES = 5;
+        private static final Attribute<?>[][] ALL = new Attribute<?>[DEPARTMENTS.length * DOCTORS * SEVERITIES][];
+
+        static {
+            Attribute<?>[] departments = new Attribute<?>[DEPARTMENTS.length];
+            for (int i = 0; i < departments.length; i++) {
+                departments[i] = new Attribute<>("department", DEPARTMENTS[i]);
+            }
+            Attribute<?>[] doctors = new Attribute<?>[DOCTORS];
+            for (int i = 0; i < DOCTORS; i++) {
+                doctors[i] = new Attribute<>("doctor", ("Dr." + (char) ('A' + i)).intern());
+            }
+            Attribute<?>[] severities = new Attribute<?>[SEVERITIES];
+            for (int i = 0; i < SEVERITIES; i++) {
+                severities[i] = new Attribute<>("severity", i + 1);
+            }
+            for (int department = 0; department < departments.length; department++) {
+                for (int doctor = 0; doctor < DOCTORS; doctor++) {
+                    for (int severity = 0; severity < SEVERITIES; severity++) {
+                        ALL[(department * DOCTORS + doctor) * SEVERITIES + severity] = new Attribute<?>[]{
+                                departments[department], doctors[doctor], severities[severity]};
+                    }
+                }
+            }
         }
 
-        if (activeCases.isEmpty()) return null;
+        /** Attributes from the shared table, never written to. */
+        private final Attribute<?>[] shared;
+        /** This event's own attributes once they were modified, otherwise null. */
+        private Set<Attribute<?>> copy;
 
-        // Pick a random active patient and advance their process
-        String caseId = getRandomKey(activeCases);
-        Iterator<String> steps = activeCases.get(caseId);
+        private EventAttributes(Attribute<?>[] shared) {
+            this.shared = shared;
+        }
 
-        if (!steps.hasNext()) {
-            activeCases.remove(caseId);
-            caseDepartments.remove(caseId);
-            return null;
+        /** Department index into DEPARTMENTS, doctor 0-25 ("Dr.A"-"Dr.Z"), severity 0-4 (1-5). */
+        static EventAttributes of(int department, int doctor, int severity) {
+            return new EventAttributes(ALL[(department * DOCTORS + doctor) * SEVERITIES + severity]);
         }
 
-        String activity = steps.next();
-        String department = caseDepartments.get(caseId);
-        String timestamp = String.valueOf(System.currentTimeMillis());
+        private Set<Attribute<?>> copy() {
+            if (copy == null) copy = new HashSet<>(Arrays.asList(shared));
+            return copy;
+        }
+
+        @Override
+        public boolean add(Attribute<?> attribute) {
+            return copy().add(attribute);
+        }
+
+        @Override
+        public Iterator<Attribute<?>> iterator() {
+            if (copy != null) return copy.iterator();
+            // Walks the shared attributes; remove() takes the element out of this event's copy
+            return new Iterator<Attribute<?>>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < shared.length;
+                }
 
-        Set<Attribute<?>> attributes = new HashSet<>();
-        attributes.add(new Attribute<>("department", department));
-        attributes.add(new Attribute<>("doctor", "Dr." + (char) ('A' + RANDOM.nextInt(26))));
-        attributes.add(new Attribute<>("severity", RANDOM.nextInt(5) + 1));
+                @Override
+                public Attribute<?> next() {
+                    if (next >= shared.length) throw new NoSuchElementException();
+                    return shared[next++];
+                }
 
-        return new Event(caseId, activity, timestamp, attributes);
+                @Override
+                public void remove() {
+                    if (next == 0) throw new IllegalStateException();
+                    copy().remove(shared[next - 1]);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return copy != null ? copy.size() : shared.length;
+        }
     }
 
-    private void startNewCase() {
-        String newCaseId = "PAT-" + (1000 + RANDOM.nextInt(9000));
+    /**
+     * Active cases kept in dense parallel arrays, so a random case is picked in O(1) and a
+     * finished case is removed in O(1) by moving the last case into its slot.
+     * Each case is one packed int: department (8 bits), variant (8 bits), step cursor (16 bits).
+     */
+    static final class CasePool {
+        private final int maxSize;
+        private String[] caseIds;
+        private int[] states;
+        private int size = 0;
 
-        // Randomly assign department
-        String department = DEPARTMENTS.get(RANDOM.nextInt(DEPARTMENTS.size()));
+        CasePool(int maxSize) {
+            this.maxSize = maxSize;
+            int initial = Math.min(maxSize, 1024);
+            caseIds = new String[initial];
+            states = new int[initial];
+        }
 
-        // Emergency always follows fixed flow
-        List<String> variant;
-        if (department.equals("Emergency")) {
-            variant = EMERGENCY_FLOW;
-        } else {
-            variant = PROCESS_VARIANTS.get(RANDOM.nextInt(PROCESS_VARIANTS.size()));
+        int size() {
+            return size;
         }
 
-        activeCases.put(newCaseId, variant.iterator());
-        caseDepartments.put(newCaseId, department);
+        boolean isFull() {
+            return size == maxSize;
+        }
+
+        void add(String caseId, int department, int variant) {
+            if (size == caseIds.length) {
+                int grown = (int) Math.min(maxSize, caseIds.length * 2L);
+                caseIds = Arrays.copyOf(caseIds, grown);
+                states = Arrays.copyOf(states, grown);
+            }
+            caseIds[size] = caseId;
+            states[size] = (department << 24) | (variant << 16);
+            size++;
+        }
+
+        String caseId(int index) {
+            return caseIds[index];
+        }
+
+        int department(int index) {
+            return states[index] >>> 24;
+        }
+
+        int variant(int index) {
+            return (states[index] >>> 16) & 0xFF;
+        }
+
+        int cursor(int index) {
+            return states[index] & 0xFFFF;
+        }
+
+        void advance(int index) {
+            states[index]++;
+        }
+
+        void remove(int index) {
+            int last = --size;
+            caseIds[index] = caseIds[last];
+            states[index] = states[last];
+            caseIds[last] = null;
+        }
+    }
+    // </shared:HospitalSimulation>
+
+    private static int intSetting(Configuration configuration, String key, int defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).intValue();
+        return Integer.parseInt(value.toString().trim());
     }
 
-    private static <K> K getRandomKey(Map<K, ?> map) {
-        int index = RANDOM.nextInt(map.size());
-        Iterator<K> iter = map.keySet().iterator();
-        for (int i = 0; i < index; i++) iter.next();
-        return iter.next();
+    private static long longSetting(Configuration configuration, String key, long defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).longValue();
+        return Long.parseLong(value.toString().trim());
     }
 }
+
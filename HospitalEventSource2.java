@@ -6,12 +6,21 @@ import communication.message.impl.event.Attribute;
 import communication.message.impl.event.Event;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import pipeline.processingelement.Configuration;
 import pipeline.processingelement.source.SimpleSource;
 import reactor.core.publisher.Flux;
 
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 /**
  * HospitalEventSource2
@@ -21,33 +30,47 @@ import java.util.*;
  */
 public class HospitalEventSource2 extends SimpleSource<Event> {
 
-    private static final Random RANDOM = new Random();
-
-    private static final List<String> DEPARTMENTS = Arrays.asList(
+    private static final String[] DEPARTMENTS = {
             "Emergency", "Cardiology", "Neurology", "Oncology", "Pediatrics"
-    );
-
-    private static final List<String> EMERGENCY_FLOW = Arrays.asList(
-            "ADMISSION", "TRIAGE", "DIAGNOSIS", "TREATMENT", "DISCHARGE"
-    );
-
-    private static final List<List<String>> PROCESS_VARIANTS = Arrays.asList(
-            Arrays.asList("ADMISSION", "DIAGNOSIS", "LAB_TEST", "TREATMENT", "DISCHARGE"),
-            Arrays.asList("ADMISSION", "TRIAGE", "DIAGNOSIS", "DISCHARGE"),
-            Arrays.asList("ADMISSION", "TRIAGE", "DIAGNOSIS", "TREATMENT", "TREATMENT", "DISCHARGE")
-    );
-
-    private final Map<String, Iterator<String>> activeCases = new HashMap<>();
-    private final Map<String, String> caseDepartments = new HashMap<>();
+    };
+    private static final int EMERGENCY = 0;
+
+    // Variant 0 is the fixed Emergency flow
+    private static final String[][] VARIANTS = {
+            {"ADMISSION", "TRIAGE", "DIAGNOSIS", "TREATMENT", "DISCHARGE"},
+            {"ADMISSION", "DIAGNOSIS", "LAB_TEST", "TREATMENT", "DISCHARGE"},
+            {"ADMISSION", "TRIAGE", "DIAGNOSIS", "DISCHARGE"},
+            {"ADMISSION", "TRIAGE", "DIAGNOSIS", "TREATMENT", "TREATMENT", "DISCHARGE"}
+    };
+
+    // Same sharding as HospitalEventSource: event k comes from shard k % shards.length,
+    // so both sources produce the same sequence for the same seed and shard count
+    private final Shard[] shards;
+    private long nextPosition = 0;
 
     private final AnonymizationProcess anonymizationProcess;
     private final AttributeMappingProcess attributeMappingProcess;
+    /** Non-null when anonymizationMode = "direct"; otherwise events take the exact JSON round trip. */
+    private final DirectAnonymizer directAnonymizer;
+    /** Non-null when pseudonymCacheSize > 0; pseudonyms are then served locally where possible. */
+    private final PseudonymCache pseudonymCache;
+    /** Non-null when anonymizationWorkers > 0; generation and anonymization then run off the pulling thread. */
+    private final ParallelAnonymizer parallelAnonymizer;
 
     private static final int EVENTS_PER_SECOND = 200;
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
     public HospitalEventSource2(Configuration configuration) {
         super(configuration);
+        int maxActiveCases = Math.max(1, intSetting(configuration, "maxActiveCases", 100));
+        int shardCount = Math.max(1, Math.min(intSetting(configuration, "shards", 1), maxActiveCases));
+        SplittableRandom root = new SplittableRandom(longSetting(configuration, "seed", System.nanoTime()));
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            int capacity = maxActiveCases / shardCount + (i < maxActiveCases % shardCount ? 1 : 0);
+            String prefix = shardCount == 1 ? "PAT-" : "PAT-" + i + "-";
+            shards[i] = new Shard(root.split(), capacity, prefix);
+        }
 
         try {
             System.out.println("⚙️ Initializing HospitalEventSource2 (random event generator)");
@@ -55,7 +78,20 @@ public class HospitalEventSource2 extends SimpleSource<Event> {
             anonymizationProcess = AnonymizationProcess.getAnonymizationConfig(configuration);
             attributeMappingProcess = AttributeMappingProcess.getAttributeMappingConfig(configuration);
 
-            System.out.println("✅ HospitalEventSource2 initialized successfully.");
+            pseudonymCache = PseudonymCache.create("HospitalEventSource2", configuration, anonymizationProcess);
+
+            directAnonymizer = "direct".equalsIgnoreCase(stringSetting(configuration, "anonymizationMode", "json"))
+                    ? new DirectAnonymizer(configuration, anonymizationProcess, pseudonymCache)
+                    : null;
+
+            int workers = intSetting(configuration, "anonymizationWorkers", 0);
+            parallelAnonymizer = workers > 0
+                    ? new ParallelAnonymizer(workers, Math.max(1, intSetting(configuration, "anonymizationQueueCapacity", 1024)))
+                    : null;
+
+            System.out.println("✅ HospitalEventSource2 initialized successfully"
+                    + (directAnonymizer != null ? " (direct anonymization" : " (json anonymization")
+                    + (workers > 0 ? ", " + workers + " workers)." : ")."));
 
         } catch (Exception e) {
             System.err.println("❌ Error initializing HospitalEventSource2: " + e.getMessage());
@@ -66,101 +102,815 @@ public class HospitalEventSource2 extends SimpleSource<Event> {
 
     @Override
     protected Event process() {
+        if (parallelAnonymizer != null) {
+            return parallelAnonymizer.next();
+        }
         try {
             // Generate a random event
-            Event event = generateNextEvent();
-            if (event == null) return null;
+            return anonymize(generateNextEvent());
+        } catch (Exception e) {
+            System.err.println("❌ Error generating hospital event: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private Event anonymize(Event event) {
+        if (directAnonymizer != null) {
+            return directAnonymizer.apply(event);
+        }
+
+        // Convert Event → JsonNode
+        Map<String, Object> jsonMap = new LinkedHashMap<>();
+        jsonMap.put("patientId", event.getCaseID());
+        jsonMap.put("activity", event.getActivity());
+        jsonMap.put("timestamp", event.getTimestamp());
+        for (Attribute<?> attr : event.getAttributes()) {
+            jsonMap.put(attr.getName(), attr.getValue());
+        }
+        JsonNode json = MAPPER.valueToTree(jsonMap);
+
+        // Apply anonymization
+        json = pseudonymCache != null ? pseudonymCache.apply(json) : anonymizationProcess.apply(json);
+        //System.out.println("🧩 After Anonymization: " + json);
+
+        // Extract structured DAPM Event
+        Event dapmEvent = attributeMappingProcess.extractEvent(json);
+
+        //System.out.println("✅ Event Ingested: "
+        //        + "caseId=" + dapmEvent.getCaseID()
+        //        + ", activity=" + dapmEvent.getActivity()
+        //        + ", timestamp=" + dapmEvent.getTimestamp());
+
+        return dapmEvent;
+    }
+
+    @Override
+    public boolean terminate() {
+        super.terminate();
+        if (parallelAnonymizer != null) parallelAnonymizer.close();
+        if (pseudonymCache != null) pseudonymCache.close();
+        return true;
+    }
+
+    // Optional: Continuous stream (for testing)
+    public Flux<Event> streamEvents() {
+        return Flux.interval(Duration.ofMillis(1000L / EVENTS_PER_SECOND))
+                .handle((tick, sink) -> {
+                    Event event;
+                    try {
+                        event = process();
+                    } catch (IllegalStateException e) {
+                        // Only the parallel anonymizer throws: it stopped and no event will follow
+                        System.err.println("Error emitting hospital event: " + e.getMessage());
+                        sink.error(e);
+                        return;
+                    }
+                    if (event != null) sink.next(event);
+                });
+    }
+
+    private Event generateNextEvent() {
+        return shards[(int) (nextPosition++ % shards.length)].nextEvent();
+    }
+
+    /**
+     * Runs generation and anonymization beside the pulling thread.
+     * <p>
+     * A feeder thread generates events and routes each one by case id to one of the workers'
+     * queues. A worker anonymizes its queue in order and hands the result to a shared output
+     * queue that {@link #process()} polls. One case always goes to the same worker, so its
+     * events stay in order. Every queue is bounded: a slow mapping store blocks its worker,
+     * that worker's queue fills, and the feeder stops generating.
+     * <p>
+     * An event that fails to anonymize is skipped. Anything else that ends the feeder or a
+     * worker stops all threads, and the pulling side gets the failure instead of waiting for
+     * events that will never come.
+     */
+    final class ParallelAnonymizer {
+        private final List<BlockingQueue<Event>> partitions = new ArrayList<>();
+        private final BlockingQueue<Event> output;
+        private final List<Thread> threads = new ArrayList<>();
+        private volatile boolean running = true;
+        private volatile Throwable failure;
+        private boolean started = false;
+
+        ParallelAnonymizer(int workers, int queueCapacity) {
+            for (int i = 0; i < workers; i++) partitions.add(new ArrayBlockingQueue<>(queueCapacity));
+            output = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        /**
+         * Next anonymized event, or null if none arrived within a second.
+         *
+         * @throws IllegalStateException once the feeder or a worker has died
+         */
+        Event next() {
+            start();
+            try {
+                Event event = output.poll(1, TimeUnit.SECONDS);
+                if (event == null && failure != null) {
+                    throw new IllegalStateException("Hospital event anonymization stopped: " + failure, failure);
+                }
+                return event;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        private synchronized void start() {
+            if (started) return;
+            started = true;
+            threads.add(new Thread(this::feed, "hospital-anonymizer-feeder"));
+            for (int i = 0; i < partitions.size(); i++) {
+                BlockingQueue<Event> partition = partitions.get(i);
+                threads.add(new Thread(() -> work(partition), "hospital-anonymizer-" + i));
+            }
+            for (Thread thread : threads) {
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
 
-            // Convert Event → JsonNode
-            Map<String, Object> jsonMap = new LinkedHashMap<>();
-            jsonMap.put("patientId", event.getCaseID());
-            jsonMap.put("activity", event.getActivity());
-            jsonMap.put("timestamp", event.getTimestamp());
-            for (Attribute<?> attr : event.getAttributes()) {
-                jsonMap.put(attr.getName(), attr.getValue());
+        private void feed() {
+            try {
+                while (running) {
+                    Event event = generateNextEvent();
+                    partitions.get(Math.floorMod(event.getCaseID().hashCode(), partitions.size())).put(event);
+                }
+            } catch (InterruptedException ignored) {
+            } catch (Throwable t) {
+                fail(t);
             }
-            JsonNode json = MAPPER.valueToTree(jsonMap);
+        }
+
+        private void work(BlockingQueue<Event> partition) {
+            try {
+                while (running) {
+                    Event event = partition.take();
+                    Event anonymized;
+                    try {
+                        anonymized = anonymize(event);
+                    } catch (Exception e) {
+                        System.err.println("❌ Error anonymizing hospital event: " + e.getMessage());
+                        continue;
+                    }
+                    if (anonymized != null) output.put(anonymized);
+                }
+            } catch (InterruptedException ignored) {
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
 
-            // Apply anonymization
-            json = anonymizationProcess.apply(json);
-            System.out.println("🧩 After Anonymization: " + json);
+        /** Stops the other threads; next() reports the failure once the output queue is drained. */
+        private synchronized void fail(Throwable t) {
+            if (failure != null) return;
+            failure = t;
+            System.err.println("❌ " + Thread.currentThread().getName() + " died, stopping anonymization: " + t);
+            running = false;
+            for (Thread thread : threads) {
+                if (thread != Thread.currentThread()) thread.interrupt();
+            }
+        }
+
+        synchronized void close() {
+            running = false;
+            for (Thread thread : threads) thread.interrupt();
+            threads.clear();
+        }
+    }
+
+    /**
+     * Anonymizes a generated event without converting it to JSON and back.
+     * <p>
+     * The rules from the "anonymization" and "attributeMapping" config blocks are compiled once.
+     * Each event is read as the same record the JSON path builds (patientId, activity, timestamp
+     * plus one field per attribute). Suppressed fields are dropped. Pseudonymized fields get the
+     * values {@link AnonymizationProcess} assigns, looked up with a node holding only the unique
+     * field and the fields to pseudonymize, or taken from the {@link PseudonymCache} when enabled.
+     * The mapped fields become the event's case id, activity and timestamp, and the rest stay
+     * attributes. Attributes that need no change are reused as-is.
+     * <p>
+     * This re-implements what AnonymizationProcess.apply and AttributeMappingProcess.extractEvent
+     * do to the JSON record. It was only checked against the benchmarks' stand-ins for those
+     * security service stages, not against the service itself, so json is the mode that is exact
+     * by construction. Compare both modes on your deployment's rules before switching.
+     */
+    static final class DirectAnonymizer {
+        private static final String CASE_ID = "patientId";
+        private static final String ACTIVITY = "activity";
+        private static final String TIMESTAMP = "timestamp";
+
+        private final AnonymizationProcess anonymizationProcess;
+        private final PseudonymCache pseudonymCache;
+        private final Set<String> pseudonymized;
+        private final Set<String> suppressed;
+        private final String uniqueField;
+        private final String caseIdField;
+        private final String activityField;
+        private final String timestampField;
+
+        DirectAnonymizer(Configuration configuration, AnonymizationProcess anonymizationProcess,
+                         PseudonymCache pseudonymCache) {
+            this.anonymizationProcess = anonymizationProcess;
+            this.pseudonymCache = pseudonymCache;
+            Map<String, Object> anonymization = section(configuration, "anonymization");
+            Map<String, Object> mapping = section(configuration, "attributeMapping");
+            pseudonymized = new HashSet<>(stringList(anonymization.get("pseudonymization")));
+            suppressed = new HashSet<>(stringList(anonymization.get("suppression")));
+            uniqueField = String.valueOf(anonymization.get("uniqueField"));
+            caseIdField = String.valueOf(mapping.getOrDefault("caseId", CASE_ID));
+            activityField = String.valueOf(mapping.getOrDefault("activity", ACTIVITY));
+            timestampField = String.valueOf(mapping.getOrDefault("timeStamp", TIMESTAMP));
+        }
 
-            // Extract structured DAPM Event
-            Event dapmEvent = attributeMappingProcess.extractEvent(json);
+        Event apply(Event event) {
+            Map<String, String> pseudonyms = pseudonyms(event);
 
-            System.out.println("✅ Event Ingested: "
-                    + "caseId=" + dapmEvent.getCaseID()
-                    + ", activity=" + dapmEvent.getActivity()
-                    + ", timestamp=" + dapmEvent.getTimestamp());
+            String caseId = output(caseIdField, event, pseudonyms);
+            String activity = output(activityField, event, pseudonyms);
+            String timestamp = output(timestampField, event, pseudonyms);
 
-            for (Attribute<?> attr : dapmEvent.getAttributes()) {
-                System.out.println("   ↳ " + attr.getName() + " = " + attr.getValue());
+            Set<Attribute<?>> attributes = new HashSet<>();
+            for (String field : new String[]{CASE_ID, ACTIVITY, TIMESTAMP}) {
+                if (isMapped(field) || suppressed.contains(field)) continue;
+                attributes.add(new Attribute<>(field, output(field, event, pseudonyms)));
             }
+            for (Attribute<?> attribute : event.getAttributes()) {
+                String name = attribute.getName();
+                if (isMapped(name) || suppressed.contains(name)) continue;
+                attributes.add(pseudonyms.containsKey(name)
+                        ? new Attribute<>(name, pseudonyms.get(name))
+                        : attribute);
+            }
+            return new Event(caseId, activity, timestamp, attributes);
+        }
 
+        private boolean isMapped(String field) {
+            return field.equals(caseIdField) || field.equals(activityField) || field.equals(timestampField);
+        }
 
+        private String output(String field, Event event, Map<String, String> pseudonyms) {
+            if (suppressed.contains(field)) return null;
+            String pseudonym = pseudonyms.get(field);
+            if (pseudonym != null) return pseudonym;
+            Object value = read(event, field);
+            return value == null ? null : value.toString();
+        }
 
-            return dapmEvent;
+        /** Field → pseudonym for every pseudonymized field present on the event. */
+        private Map<String, String> pseudonyms(Event event) {
+            if (pseudonymized.isEmpty()) return Collections.emptyMap();
+            if (pseudonymCache != null) return cachedPseudonyms(event);
+
+            ObjectNode lookup = null;
+            for (String field : pseudonymized) {
+                Object value = read(event, field);
+                if (value == null || suppressed.contains(field)) continue;
+                if (lookup == null) lookup = MAPPER.createObjectNode();
+                lookup.set(field, MAPPER.valueToTree(value));
+            }
+            if (lookup == null) return Collections.emptyMap();
+
+            Object unique = read(event, uniqueField);
+            if (unique != null) lookup.set(uniqueField, MAPPER.valueToTree(unique));
+
+            JsonNode anonymized = anonymizationProcess.apply(lookup);
+            Map<String, String> pseudonyms = new HashMap<>();
+            Iterator<String> fields = lookup.fieldNames();
+            while (fields.hasNext()) {
+                String field = fields.next();
+                if (!pseudonymized.contains(field)) continue;
+                JsonNode value = anonymized.get(field);
+                pseudonyms.put(field, value == null || value.isNull() ? null : value.asText());
+            }
+            return pseudonyms;
+        }
 
-        } catch (Exception e) {
-            System.err.println("❌ Error generating hospital event: " + e.getMessage());
-            e.printStackTrace();
-            return null;
+        private Map<String, String> cachedPseudonyms(Event event) {
+            Object unique = read(event, uniqueField);
+            String uniqueValue = unique == null ? null : unique.toString();
+            Map<String, String> pseudonyms = new HashMap<>();
+            for (String field : pseudonymized) {
+                Object value = read(event, field);
+                if (value == null || !pseudonymCache.isPseudonymized(field)) continue;
+                pseudonyms.put(field, pseudonymCache.pseudonym(field, value.toString(), uniqueValue));
+            }
+            return pseudonyms;
+        }
+
+        private static Object read(Event event, String field) {
+            switch (field) {
+                case CASE_ID: return event.getCaseID();
+                case ACTIVITY: return event.getActivity();
+                case TIMESTAMP: return event.getTimestamp();
+                default:
+                    for (Attribute<?> attribute : event.getAttributes()) {
+                        if (field.equals(attribute.getName())) return attribute.getValue();
+                    }
+                    return null;
+            }
         }
     }
 
-    // Optional: Continuous stream (for testing)
-    public Flux<Event> streamEvents() {
-        return Flux.interval(Duration.ofMillis(1000L / EVENTS_PER_SECOND))
-                .map(tick -> process())
-                .filter(Objects::nonNull)
-                .doOnNext(e -> System.out.println("🏥 " + e))
-                .onErrorContinue((err, obj) ->
-                        System.err.println("Error emitting hospital event: " + err));
+    // <shared:HospitalSimulation> generated from shared/HospitalSimulation.java.in; edit it there, then run script/SyncShared.java
+    /**
+     * One partition of the simulated hospital. A shard is only ever used by one thread at a time,
+     * so its random stream and case pool need no synchronization, and for a given seed it always
+     * produces the same sequence of cases and activities.
+     * Uses the enclosing template's DEPARTMENTS, EMERGENCY and VARIANTS.
+     */
+    static final class Shard {
+        private final SplittableRandom random;
+        private final CasePool activeCases;
+        private final String caseIdPrefix;
+        private long nextCaseNumber = 1000;
+        /** Last timestamp handed out; events in the same millisecond share the string. */
+        private long timestampMillis = -1;
+        private String timestamp;
+
+        Shard(SplittableRandom random, int maxActiveCases, String caseIdPrefix) {
+            this.random = random;
+            this.activeCases = new CasePool(maxActiveCases);
+            this.caseIdPrefix = caseIdPrefix;
+        }
+
+        /** Generates exactly {@code count} events; finished cases yield no event and are skipped. */
+        List<Event> nextBatch(int count) {
+            List<Event> batch = new ArrayList<>(count);
+            while (batch.size() < count) {
+                Event event = generateNextEvent();
+                if (event != null) batch.add(event);
+            }
+            return batch;
+        }
+
+        /** Finished cases yield no event, so keep going until an activity is produced. */
+        Event nextEvent() {
+            Event event;
+            do {
+                event = generateNextEvent();
+            } while (event == null);
+            return event;
+        }
+
+        Event generateNextEvent() {
+            // Occasionally start new patient cases
+            if (!activeCases.isFull() && random.nextDouble() < 0.4) {
+                startNewCase();
+            }
+
+            if (activeCases.size() == 0) return null;
+
+            // Pick a random active patient and advance their process
+            int index = random.nextInt(activeCases.size());
+            String[] steps = VARIANTS[activeCases.variant(index)];
+            int step = activeCases.cursor(index);
+
+            if (step == steps.length) {
+                activeCases.remove(index);
+                return null;
+            }
+
+            activeCases.advance(index);
+            String caseId = activeCases.caseId(index);
+            String activity = steps[step];
+            int doctor = random.nextInt(26);
+            int severity = random.nextInt(5);
+
+            // Shared attributes and a per-millisecond timestamp: only the Event and its attribute view are allocated
+            return new Event(caseId, activity, timestamp(),
+                    EventAttributes.of(activeCases.department(index), doctor, severity));
+        }
+
+        private String timestamp() {
+            long now = System.currentTimeMillis();
+            if (now != timestampMillis) {
+                timestampMillis = now;
+                timestamp = String.valueOf(now);
+            }
+            return timestamp;
+        }
+
+        private void startNewCase() {
+            // Sequential ids stay unique even with millions of open cases
+            String newCaseId = caseIdPrefix + nextCaseNumber++;
+
+            // Emergency always follows the fixed flow
+            int department = random.nextInt(DEPARTMENTS.length);
+            int variant = department == EMERGENCY
+                    ? 0
+                    : 1 + random.nextInt(VARIANTS.length - 1);
+
+            activeCases.add(newCaseId, department, variant);
+        }
     }
 
-    private Event generateNextEvent() {
-        if (activeCases.size() < 100 && RANDOM.nextDouble() < 0.4) {
-            startNewCase();
+    /**
+     * The attribute set of a generated event: department, doctor and severity. The three
+     * attributes come from a table built once, so creating the set allocates only this view.
+     * It behaves like a HashSet of its own: the first add or remove copies the attributes into a
+     * private set, and no other event sees the change.
+     */
+    static final class EventAttributes extends AbstractSet<Attribute<?>> {
+        private static final int DOCTORS = 26;
+        private static final int SEVERITIES = 5;
+        private static final Attribute<?>[][] ALL = new Attribute<?>[DEPARTMENTS.length * DOCTORS * SEVERITIES][];
+
+        static {
+            Attribute<?>[] departments = new Attribute<?>[DEPARTMENTS.length];
+            for (int i = 0; i < departments.length; i++) {
+                departments[i] = new Attribute<>("department", DEPARTMENTS[i]);
+            }
+            Attribute<?>[] doctors = new Attribute<?>[DOCTORS];
+            for (int i = 0; i < DOCTORS; i++) {
+                doctors[i] = new Attribute<>("doctor", ("Dr." + (char) ('A' + i)).intern());
+            }
+            Attribute<?>[] severities = new Attribute<?>[SEVERITIES];
+            for (int i = 0; i < SEVERITIES; i++) {
+                severities[i] = new Attribute<>("severity", i + 1);
+            }
+            for (int department = 0; department < departments.length; department++) {
+                for (int doctor = 0; doctor < DOCTORS; doctor++) {
+                    for (int severity = 0; severity < SEVERITIES; severity++) {
+                        ALL[(department * DOCTORS + doctor) * SEVERITIES + severity] = new Attribute<?>[]{
+                                departments[department], doctors[doctor], severities[severity]};
+                    }
+                }
+            }
         }
 
-        if (activeCases.isEmpty()) return null;
+        /** Attributes from the shared table, never written to. */
+        private final Attribute<?>[] shared;
+        /** This event's own attributes once they were modified, otherwise null. */
+        private Set<Attribute<?>> copy;
 
-        String caseId = getRandomKey(activeCases);
-        Iterator<String> steps = activeCases.get(caseId);
+        private EventAttributes(Attribute<?>[] shared) {
+            this.shared = shared;
+        }
 
-        if (!steps.hasNext()) {
-            activeCases.remove(caseId);
-            caseDepartments.remove(caseId);
-            return null;
+        /** Department index into DEPARTMENTS, doctor 0-25 ("Dr.A"-"Dr.Z"), severity 0-4 (1-5). */
+        static EventAttributes of(int department, int doctor, int severity) {
+            return new EventAttributes(ALL[(department * DOCTORS + doctor) * SEVERITIES + severity]);
+        }
+
+        private Set<Attribute<?>> copy() {
+            if (copy == null) copy = new HashSet<>(Arrays.asList(shared));
+            return copy;
+        }
+
+        @Override
+        public boolean add(Attribute<?> attribute) {
+            return copy().add(attribute);
+        }
+
+        @Override
+        public Iterator<Attribute<?>> iterator() {
+            if (copy != null) return copy.iterator();
+            // Walks the shared attributes; remove() takes the element out of this event's copy
+            return new Iterator<Attribute<?>>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < shared.length;
+                }
+
+                @Override
+                public Attribute<?> next() {
+                    if (next >= shared.length) throw new NoSuchElementException();
+                    return shared[next++];
+                }
+
+                @Override
+                public void remove() {
+                    if (next == 0) throw new IllegalStateException();
+                    copy().remove(shared[next - 1]);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return copy != null ? copy.size() : shared.length;
+        }
+    }
+
+    /**
+     * Active cases kept in dense parallel arrays, so a random case is picked in O(1) and a
+     * finished case is removed in O(1) by moving the last case into its slot.
+     * Each case is one packed int: department (8 bits), variant (8 bits), step cursor (16 bits).
+     */
+    static final class CasePool {
+        private final int maxSize;
+        private String[] caseIds;
+        private int[] states;
+        private int size = 0;
+
+        CasePool(int maxSize) {
+            this.maxSize = maxSize;
+            int initial = Math.min(maxSize, 1024);
+            caseIds = new String[initial];
+            states = new int[initial];
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isFull() {
+            return size == maxSize;
+        }
+
+        void add(String caseId, int department, int variant) {
+            if (size == caseIds.length) {
+                int grown = (int) Math.min(maxSize, caseIds.length * 2L);
+                caseIds = Arrays.copyOf(caseIds, grown);
+                states = Arrays.copyOf(states, grown);
+            }
+            caseIds[size] = caseId;
+            states[size] = (department << 24) | (variant << 16);
+            size++;
+        }
+
+        String caseId(int index) {
+            return caseIds[index];
+        }
+
+        int department(int index) {
+            return states[index] >>> 24;
+        }
+
+        int variant(int index) {
+            return (states[index] >>> 16) & 0xFF;
+        }
+
+        int cursor(int index) {
+            return states[index] & 0xFFFF;
+        }
+
+        void advance(int index) {
+            states[index]++;
+        }
+
+        void remove(int index) {
+            int last = --size;
+            caseIds[index] = caseIds[last];
+            states[index] = states[last];
+            caseIds[last] = null;
         }
+    }
+    // </shared:HospitalSimulation>
+
+    // <shared:PseudonymCache> generated from shared/PseudonymCache.java.in; edit it there, then run script/SyncShared.java
+    /**
+     * Size-bounded LRU cache of pseudonyms in front of the mapping table.
+     * <p>
+     * The mapping table is keyed by data source, the value of the unique field, and the field and
+     * value being pseudonymized, and so is the cache, so equal values of different sources or
+     * unique values never share an entry. Hits never leave the JVM. A miss asks the
+     * {@link MappingStore}, which returns the stored pseudonym or creates and stores a new one.
+     * The cache only holds pseudonyms the store already has, so there is nothing to write back.
+     * Hit/miss counters are exported over JMX under
+     * {@code templates:type=<template>,component=PseudonymCache}.
+     * Uses the enclosing template's section(), stringList(), intSetting() and stringSetting().
+     */
+    static final class PseudonymCache implements PseudonymCacheMBean {
+        private final Set<String> pseudonymized;
+        private final Set<String> suppressed;
+        private final String dataSourceId;
+        private final String uniqueField;
+        private final MappingStore store;
+
+        private final LinkedHashMap<String, String> entries;
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private ObjectName objectName;
+
+        /** Returns null when pseudonymCacheSize is 0, i.e. every lookup goes to AnonymizationProcess. */
+        static PseudonymCache create(String template, Configuration configuration,
+                                     AnonymizationProcess anonymizationProcess) {
+            int maxEntries = intSetting(configuration, "pseudonymCacheSize", 0);
+            if (maxEntries <= 0) return null;
+
+            Map<String, Object> anonymization = section(configuration, "anonymization");
+            String uniqueField = String.valueOf(anonymization.get("uniqueField"));
+            String storeName = stringSetting(configuration, "pseudonymStore", "anonymization");
+            MappingStore store = "memory".equalsIgnoreCase(storeName)
+                    ? new InMemoryMappingStore()
+                    : new AnonymizationProcessStore(anonymizationProcess, uniqueField);
+
+            PseudonymCache cache = new PseudonymCache(
+                    stringList(anonymization.get("pseudonymization")),
+                    stringList(anonymization.get("suppression")),
+                    String.valueOf(anonymization.get("dataSourceId")),
+                    uniqueField,
+                    store,
+                    maxEntries);
+            cache.register(template);
+            System.out.println("✅ [" + template + "] Pseudonym cache enabled (" + maxEntries
+                    + " entries, store=" + store.getClass().getSimpleName() + ").");
+            return cache;
+        }
+
+        PseudonymCache(Collection<String> pseudonymized, Collection<String> suppressed, String dataSourceId,
+                       String uniqueField, MappingStore store, int maxEntries) {
+            this.pseudonymized = new LinkedHashSet<>(pseudonymized);
+            this.suppressed = new HashSet<>(suppressed);
+            this.dataSourceId = dataSourceId;
+            this.uniqueField = uniqueField;
+            this.store = store;
+            this.entries = new LinkedHashMap<String, String>(Math.min(maxEntries, 1 << 16), 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    if (size() <= maxEntries) return false;
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+
+        /** Same contract as {@link AnonymizationProcess#apply}: suppressed fields go, pseudonymized ones are replaced. */
+        JsonNode apply(JsonNode json) {
+            if (!(json instanceof ObjectNode)) return json;
+            JsonNode uniqueNode = json.get(uniqueField);
+            String unique = uniqueNode == null || uniqueNode.isNull() ? null : uniqueNode.asText();
+
+            ObjectNode anonymized = ((ObjectNode) json).deepCopy();
+            anonymized.remove(suppressed);
+            for (String field : pseudonymized) {
+                JsonNode value = json.get(field);
+                if (value == null || value.isNull() || suppressed.contains(field)) continue;
+                anonymized.put(field, pseudonym(field, value.asText(), unique));
+            }
+            return anonymized;
+        }
+
+        boolean isPseudonymized(String field) {
+            return pseudonymized.contains(field) && !suppressed.contains(field);
+        }
+
+        String pseudonym(String field, String value, String uniqueValue) {
+            // \u0001 marks a missing unique value, so it cannot collide with an empty one
+            String key = dataSourceId + '\u0000' + (uniqueValue == null ? "\u0001" : uniqueValue)
+                    + '\u0000' + field + '\u0000' + value;
+            synchronized (this) {
+                String cached = entries.get(key);
+                if (cached != null) {
+                    hits.increment();
+                    return cached;
+                }
+            }
+            misses.increment();
+
+            // Ask the store outside the lock so one slow round trip does not stall every hit;
+            // the store returns the same pseudonym to concurrent misses of one key
+            String stored = store.pseudonym(dataSourceId, uniqueValue, field, value);
+            if (stored == null) {
+                throw new IllegalStateException("Mapping store returned no pseudonym for field " + field);
+            }
+            synchronized (this) {
+                entries.put(key, stored);
+            }
+            return stored;
+        }
+
+        void close() {
+            try {
+                if (objectName != null) ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception ignored) {
+            }
+        }
+
+        private void register(String template) {
+            try {
+                objectName = new ObjectName("templates:type=" + template + ",component=PseudonymCache,name="
+                        + Integer.toHexString(System.identityHashCode(this)));
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new StandardMBean(this, PseudonymCacheMBean.class), objectName);
+            } catch (Exception e) {
+                objectName = null;
+                System.err.println("⚠ [PseudonymCache] JMX registration failed: " + e.getMessage());
+            }
+        }
+
+        @Override public long getHits() { return hits.sum(); }
+        @Override public long getMisses() { return misses.sum(); }
 
-        String activity = steps.next();
-        String department = caseDepartments.get(caseId);
-        String timestamp = String.valueOf(System.currentTimeMillis());
+        @Override
+        public double getHitRate() {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0.0 : (double) h / total;
+        }
+
+        @Override public long getEvictions() { return evictions.sum(); }
+        @Override public synchronized int getSize() { return entries.size(); }
+
+        @Override
+        public void reset() {
+            hits.reset();
+            misses.reset();
+            evictions.reset();
+        }
+    }
+
+    public interface PseudonymCacheMBean {
+        long getHits();
+        long getMisses();
+        double getHitRate();
+        long getEvictions();
+        int getSize();
+        void reset();
+    }
+
+    /** Persistent side of the pseudonym mapping table (data source, unique value, field, value) → pseudonym. */
+    interface MappingStore {
+        /** The pseudonym assigned to the value; one is created and stored first when there is none yet. */
+        String pseudonym(String dataSourceId, String uniqueValue, String field, String value);
+    }
+
+    /**
+     * Uses AnonymizationProcess as the store. It looks up the MongoDB mapping table of the data
+     * source it was configured with and creates missing entries itself.
+     */
+    static final class AnonymizationProcessStore implements MappingStore {
+        private final AnonymizationProcess anonymizationProcess;
+        private final String uniqueField;
+
+        AnonymizationProcessStore(AnonymizationProcess anonymizationProcess, String uniqueField) {
+            this.anonymizationProcess = anonymizationProcess;
+            this.uniqueField = uniqueField;
+        }
 
-        Set<Attribute<?>> attributes = new HashSet<>();
-        attributes.add(new Attribute<>("department", department));
-        attributes.add(new Attribute<>("doctor", "Dr." + (char) ('A' + RANDOM.nextInt(26))));
-        attributes.add(new Attribute<>("severity", RANDOM.nextInt(5) + 1));
+        @Override
+        public String pseudonym(String dataSourceId, String uniqueValue, String field, String value) {
+            ObjectNode lookup = MAPPER.createObjectNode();
+            if (uniqueValue != null) lookup.put(uniqueField, uniqueValue);
+            lookup.put(field, value);
+            JsonNode pseudonym = anonymizationProcess.apply(lookup).get(field);
+            return pseudonym == null || pseudonym.isNull() ? null : pseudonym.asText();
+        }
+    }
+
+    /** In-memory stand-in for the mapping table, for runs and tests without MongoDB. */
+    static final class InMemoryMappingStore implements MappingStore {
+        private final ConcurrentHashMap<String, String> mappings = new ConcurrentHashMap<>();
+        final LongAdder lookups = new LongAdder();
+
+        @Override
+        public String pseudonym(String dataSourceId, String uniqueValue, String field, String value) {
+            lookups.increment();
+            String key = dataSourceId + '\u0000' + (uniqueValue == null ? "\u0001" : uniqueValue)
+                    + '\u0000' + field + '\u0000' + value;
+            return mappings.computeIfAbsent(key, k -> UUID.randomUUID().toString());
+        }
 
-        return new Event(caseId, activity, timestamp, attributes);
+        int size() {
+            return mappings.size();
+        }
+    }
+    // </shared:PseudonymCache>
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> section(Configuration configuration, String key) {
+        Object value = configuration.get(key);
+        if (value == null) return Collections.emptyMap();
+        if (value instanceof Map) return (Map<String, Object>) value;
+        return MAPPER.convertValue(value, Map.class);
     }
 
-    private void startNewCase() {
-        String newCaseId = "PAT-" + (1000 + RANDOM.nextInt(9000));
-        String department = DEPARTMENTS.get(RANDOM.nextInt(DEPARTMENTS.size()));
-        List<String> variant = department.equals("Emergency")
-                ? EMERGENCY_FLOW
-                : PROCESS_VARIANTS.get(RANDOM.nextInt(PROCESS_VARIANTS.size()));
+    private static List<String> stringList(Object value) {
+        List<String> result = new ArrayList<>();
+        if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) result.add(item.toString());
+        } else if (value instanceof JsonNode) {
+            for (JsonNode item : (JsonNode) value) result.add(item.asText());
+        }
+        return result;
+    }
 
-        activeCases.put(newCaseId, variant.iterator());
-        caseDepartments.put(newCaseId, department);
+    private static int intSetting(Configuration configuration, String key, int defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).intValue();
+        return Integer.parseInt(value.toString().trim());
     }
 
-    private static <K> K getRandomKey(Map<K, ?> map) {
-        int index = RANDOM.nextInt(map.size());
-        Iterator<K> iter = map.keySet().iterator();
-        for (int i = 0; i < index; i++) iter.next();
-        return iter.next();
+    private static long longSetting(Configuration configuration, String key, long defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).longValue();
+        return Long.parseLong(value.toString().trim());
+    }
+
+    private static String stringSetting(Configuration configuration, String key, String defaultValue) {
+        Object value = configuration.get(key);
+        return value == null ? defaultValue : value.toString().trim();
     }
 }
+
@@ -1,31 +1,75 @@
 package templates;
 
 import communication.message.Message;
+import communication.message.impl.event.Attribute;
 import communication.message.impl.event.Event;
 import pipeline.processingelement.Configuration;
 import pipeline.processingelement.operator.SimpleOperator;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 public class LanguageFilter extends SimpleOperator<Event> {
-    private final String language;
+    private final DomainMatcher matcher;
+    private final OperatorMetrics metrics = new OperatorMetrics("LanguageFilter", this);
 
     public LanguageFilter(Configuration configuration) {
         super(configuration);
-        language = configuration.get("language").toString().toLowerCase();
+        // "languages" list and/or single "language"; each matches "<language>." inside the domain
+        Set<String> languages = new LinkedHashSet<>();
+        Object list = configuration.get("languages");
+        if (list instanceof Collection) {
+            for (Object language : (Collection<?>) list) {
+                languages.add(language.toString().trim().toLowerCase());
+            }
+        }
+        Object single = configuration.get("language");
+        if (single != null) {
+            languages.add(single.toString().trim().toLowerCase());
+        }
+        if (languages.isEmpty()) {
+            throw new IllegalArgumentException("LanguageFilter needs \"language\" or \"languages\"");
+        }
+        matcher = new DomainMatcher(languages);
     }
 
     @Override
     protected Event process(Message message, int portNumber) {
+        long start = System.nanoTime();
+        metrics.received();
+
         Event event = (Event) message;
-        if(event.getAttributes().stream()
-                .anyMatch(attribute -> attribute.getName()
-                        .equals("domain") && attribute.getValue()
-                        .toString().contains(language + "."))) {
-            return event;
+        boolean matches = false;
+        for (Attribute<?> attribute : event.getAttributes()) {
+            if ("domain".equals(attribute.getName())) {
+                Object value = attribute.getValue();
+                CharSequence domain = value instanceof CharSequence ? (CharSequence) value : String.valueOf(value);
+                if (matcher.matches(domain)) {
+                    matches = true;
+                    break;
+                }
+            }
         }
-        return null;
+
+        if (matches) {
+            metrics.forwarded();
+        } else {
+            metrics.dropped();
+        }
+        metrics.recordLatency(System.nanoTime() - start);
+        return matches ? event : null;
     }
 
     @Override
@@ -34,4 +78,294 @@ public class LanguageFilter extends SimpleOperator<Event> {
         map.put(Event.class, 1);
         return map;
     }
+
+    @Override
+    public boolean terminate() {
+        boolean terminated = super.terminate();
+        metrics.close();
+        return terminated;
+    }
+
+    /**
+     * Aho-Corasick automaton over the patterns {@code "<language>."}, compiled into a dense
+     * ASCII transition table. One pass over the domain finds whether any language occurs,
+     * with one array lookup per character and no allocation.
+     */
+    static final class DomainMatcher {
+        private static final int ALPHABET = 128;
+
+        private final int[] transitions;
+        private final boolean[] accepting;
+
+        DomainMatcher(Collection<String> languages) {
+            int maxStates = 1;
+            for (String language : languages) maxStates += language.length() + 1;
+
+            int[] trie = new int[maxStates * ALPHABET];
+            boolean[] output = new boolean[maxStates];
+            int states = 1;
+
+            // Trie of all patterns; 0 means "no edge" since the root is never a child
+            for (String language : languages) {
+                String pattern = language + ".";
+                int state = 0;
+                for (int i = 0; i < pattern.length(); i++) {
+                    char c = pattern.charAt(i);
+                    if (c >= ALPHABET) {
+                        throw new IllegalArgumentException("Language codes must be ASCII: " + language);
+                    }
+                    int edge = state * ALPHABET + c;
+                    if (trie[edge] == 0) trie[edge] = states++;
+                    state = trie[edge];
+                }
+                output[state] = true;
+            }
+
+            // Breadth-first over the trie turns missing edges into failure transitions
+            int[] fail = new int[states];
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = trie[c];
+                if (child != 0) queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                output[state] |= output[fail[state]];
+                for (int c = 0; c < ALPHABET; c++) {
+                    int edge = state * ALPHABET + c;
+                    int child = trie[edge];
+                    if (child != 0) {
+                        fail[child] = trie[fail[state] * ALPHABET + c];
+                        queue.add(child);
+                    } else {
+                        trie[edge] = trie[fail[state] * ALPHABET + c];
+                    }
+                }
+            }
+
+            transitions = Arrays.copyOf(trie, states * ALPHABET);
+            accepting = Arrays.copyOf(output, states);
+        }
+
+        boolean matches(CharSequence domain) {
+            int state = 0;
+            for (int i = 0; i < domain.length(); i++) {
+                char c = domain.charAt(i);
+                state = c < ALPHABET ? transitions[state * ALPHABET + c] : 0;
+                if (accepting[state]) return true;
+            }
+            return false;
+        }
+    }
+
+    // <shared:OperatorMetrics> generated from shared/OperatorMetrics.java.in; edit it there, then run script/SyncShared.java
+    /**
+     * Read-only view of {@link OperatorMetrics} exposed over JMX.
+     */
+    public interface OperatorMetricsMBean {
+        long getReceived();
+
+        long getForwarded();
+
+        long getDropped();
+
+        double getReceivedPerSecond();
+
+        double getLatencyMeanMicros();
+
+        double getLatencyP50Micros();
+
+        double getLatencyP99Micros();
+
+        double getLatencyP999Micros();
+
+        double getLatencyMaxMicros();
+
+        long getLatencyCount();
+
+        /** Raw histogram counts; readers can diff two snapshots to get a recent percentile. */
+        long[] getLatencyBuckets();
+
+        void reset();
+    }
+
+    /**
+     * Per-instance throughput, drop and latency metrics, registered with the platform MBean
+     * server as {@code templates:type=<template>,name=<instance>}. Counters are striped
+     * {@link LongAdder}s and latencies go into a log-linear histogram (32 sub-buckets per
+     * power of two, about 3% precision), so recording is lock-free and allocation-free.
+     * Every getter is a pure read, so any number of JMX clients can poll the same instance.
+     */
+    static final class OperatorMetrics implements OperatorMetricsMBean {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS;
+
+        private final LongAdder received = new LongAdder();
+        private final LongAdder forwarded = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(SUB_BUCKETS * (MAX_SHIFT + 2));
+        private final LongAdder latencyTotalNanos = new LongAdder();
+        private final AtomicLong latencyMaxNanos = new AtomicLong();
+        private ObjectName objectName;
+
+        /** Start of the period the rate covers: creation, or the last reset(). */
+        private volatile long since = System.nanoTime();
+
+        OperatorMetrics(String template, Object instance) {
+            try {
+                objectName = new ObjectName("templates:type=" + template
+                        + ",name=" + Integer.toHexString(System.identityHashCode(instance)));
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new StandardMBean(this, OperatorMetricsMBean.class), objectName);
+            } catch (Exception e) {
+                System.err.println("[" + template + "] ⚠ Metrics not registered with JMX: " + e.getMessage());
+                objectName = null;
+            }
+        }
+
+        void received() {
+            received.increment();
+        }
+
+        void forwarded() {
+            forwarded.increment();
+        }
+
+        void dropped() {
+            dropped.increment();
+        }
+
+        void dropped(long count) {
+            dropped.add(count);
+        }
+
+        void recordLatency(long nanos) {
+            long value = Math.max(0, nanos);
+            latencyBuckets.incrementAndGet(bucketOf(value));
+            latencyTotalNanos.add(value);
+            long max;
+            while (value > (max = latencyMaxNanos.get()) && !latencyMaxNanos.compareAndSet(max, value)) {
+                // retry until the larger value is stored
+            }
+        }
+
+        void close() {
+            if (objectName == null) return;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception ignored) {
+            }
+            objectName = null;
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+            long sub = Math.min(SUB_BUCKETS - 1, (value >>> shift) - SUB_BUCKETS);
+            return SUB_BUCKETS + shift * SUB_BUCKETS + (int) sub;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+        }
+
+        private double percentileMicros(double percentile) {
+            return Math.min(percentileMicros(snapshot(), percentile), latencyMaxNanos.get() / 1000.0);
+        }
+
+        private long[] snapshot() {
+            long[] counts = new long[latencyBuckets.length()];
+            for (int i = 0; i < counts.length; i++) counts[i] = latencyBuckets.get(i);
+            return counts;
+        }
+
+        /** Upper bound of the bucket holding the given percentile of {@code buckets}, in microseconds. */
+        static double percentileMicros(long[] buckets, double percentile) {
+            long total = 0;
+            for (long count : buckets) total += count;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return upperBoundOf(i) / 1000.0;
+            }
+            return upperBoundOf(buckets.length - 1) / 1000.0;
+        }
+
+        @Override
+        public long getReceived() {
+            return received.sum();
+        }
+
+        @Override
+        public long getForwarded() {
+            return forwarded.sum();
+        }
+
+        @Override
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        /** Average rate since the metrics were created or last reset. */
+        @Override
+        public double getReceivedPerSecond() {
+            return received.sum() * 1e9 / Math.max(1, System.nanoTime() - since);
+        }
+
+        @Override
+        public double getLatencyMeanMicros() {
+            long count = getLatencyCount();
+            return count == 0 ? 0 : latencyTotalNanos.sum() / 1000.0 / count;
+        }
+
+        @Override
+        public double getLatencyP50Micros() {
+            return percentileMicros(0.50);
+        }
+
+        @Override
+        public double getLatencyP99Micros() {
+            return percentileMicros(0.99);
+        }
+
+        @Override
+        public double getLatencyP999Micros() {
+            return percentileMicros(0.999);
+        }
+
+        @Override
+        public double getLatencyMaxMicros() {
+            return latencyMaxNanos.get() / 1000.0;
+        }
+
+        @Override
+        public long getLatencyCount() {
+            long count = 0;
+            for (int i = 0; i < latencyBuckets.length(); i++) count += latencyBuckets.get(i);
+            return count;
+        }
+
+        @Override
+        public long[] getLatencyBuckets() {
+            return snapshot();
+        }
+
+        @Override
+        public synchronized void reset() {
+            received.reset();
+            forwarded.reset();
+            dropped.reset();
+            latencyTotalNanos.reset();
+            latencyMaxNanos.set(0);
+            for (int i = 0; i < latencyBuckets.length(); i++) latencyBuckets.set(i, 0);
+            since = System.nanoTime();
+        }
+    }
+    // </shared:OperatorMetrics>
 }
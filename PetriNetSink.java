@@ -5,7 +5,6 @@ import communication.message.impl.petrinet.PetriNet;
 import communication.message.impl.petrinet.Place;
 import communication.message.impl.petrinet.Transition;
 import communication.message.impl.petrinet.arc.Arc;
-
 import communication.message.impl.petrinet.arc.PlaceToTransitionArc;
 import communication.message.impl.petrinet.arc.TransitionToPlaceArc;
 import guru.nidi.graphviz.attribute.Color;
@@ -16,29 +15,190 @@ import pipeline.processingelement.Configuration;
 import pipeline.processingelement.Sink;
 import utils.Pair;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 import static guru.nidi.graphviz.engine.Format.SVG;
 import static guru.nidi.graphviz.engine.Graphviz.fromGraph;
 import static guru.nidi.graphviz.model.Factory.*;
 
 public class PetriNetSink extends Sink {
-    private String latestSvg = "";
+    private volatile String latestSvg = "";
+    private final OperatorMetrics metrics = new OperatorMetrics("PetriNetSink", this);
+
+    // Latest-wins rendering: observe() only parks the newest net here, the renderer thread
+    // picks it up. Nets that arrive while one is still waiting replace it and are never drawn.
+    private final AtomicReference<PetriNet> pendingSnapshot = new AtomicReference<>();
+    private final AtomicBoolean renderScheduled = new AtomicBoolean(false);
+    private final ExecutorService renderer;
+
+    // "dot" or "svg" in latestSvg, written by graphviz or by the direct writer below.
+    private final boolean svgFormat;
+    private final PetriNetWriter directWriter;
+
+    // Net behind latestSvg; graphviz SVG for it is only rendered when someone asks for it.
+    private volatile PetriNet latestNet;
+    private PetriNet renderedNet;
+    private String renderedSvg = "";
+
+    // Every snapshot, delta-encoded on disk; null unless historyFile is configured.
+    // Appends run in arrival order on their own thread, so disk I/O never blocks observe();
+    // queries see a snapshot once that thread has appended it.
+    private final SnapshotHistory history;
+    private final ExecutorService historyWriter;
+
     public PetriNetSink(Configuration configuration) {
         super(configuration);
+        Object async = configuration.get("asyncRendering");
+        renderer = async == null || Boolean.parseBoolean(async.toString().trim())
+                ? Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "petrinet-sink-renderer");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+        Object format = configuration.get("format");
+        svgFormat = format != null && "svg".equalsIgnoreCase(format.toString().trim());
+        Object writer = configuration.get("writer");
+        directWriter = writer == null || "direct".equalsIgnoreCase(writer.toString().trim())
+                ? new PetriNetWriter()
+                : null;
+        history = openHistory(configuration);
+        historyWriter = history != null
+                ? Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "petrinet-sink-history");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
     }
 
+    private static SnapshotHistory openHistory(Configuration configuration) {
+        Object file = configuration.get("historyFile");
+        if (file == null || file.toString().trim().isEmpty()) return null;
+        try {
+            return new SnapshotHistory(
+                    Paths.get(file.toString().trim()),
+                    intSetting(configuration, "historyKeyframeInterval", 32),
+                    intSetting(configuration, "historyIndexSize", 4096),
+                    intSetting(configuration, "historyMapBytes", 16 << 20));
+        } catch (IOException e) {
+            System.err.println("[PetriNetSink] ❌ History disabled, cannot open " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** DOT source (or SVG with format = "svg") of the newest rendered net. */
     public String getLatestSvg() {
         return latestSvg;
     }
 
+    /** SVG of the newest rendered net, produced by graphviz on first request and cached until the net changes. */
+    public synchronized String getLatestRenderedSvg() {
+        if (svgFormat) return latestSvg;
+        PetriNet petriNet = latestNet;
+        if (petriNet == null) return "";
+        if (petriNet != renderedNet) {
+            renderedSvg = fromGraph(constructDotGraph(petriNet)).width(1024).render(SVG).toString();
+            renderedNet = petriNet;
+        }
+        return renderedSvg;
+    }
+
+    /** Model as it was at the given wall-clock time, or null without history or before the first snapshot. */
+    public PetriNet getModelAt(long timestampMillis) {
+        return history == null ? null : history.atTime(timestampMillis);
+    }
+
+    /** Model as of the n-th snapshot received (1-based), or null without history. */
+    public PetriNet getModelAtSnapshot(long sequence) {
+        return history == null ? null : history.atSequence(sequence);
+    }
+
+    /** Number of snapshots in the history, 0 without history. */
+    public long getHistorySize() {
+        return history == null ? 0 : history.size();
+    }
+
     @Override
     public void observe(Pair<Message, Integer> messageAndPortNumber) {
+        long start = System.nanoTime();
+        metrics.received();
         PetriNet petriNet = (PetriNet) messageAndPortNumber.first();
+        if (history != null) {
+            long receivedAt = System.currentTimeMillis();
+            historyWriter.execute(() -> {
+                try {
+                    history.append(petriNet, receivedAt);
+                } catch (Exception e) {
+                    System.err.println("[PetriNetSink] ⚠ Snapshot not added to history: " + e.getMessage());
+                }
+            });
+        }
+        if (renderer == null) {
+            try {
+                render(petriNet);
+            } catch (Exception e) {
+                metrics.dropped();
+                throw new RuntimeException("Failed to render PetriNet", e);
+            } finally {
+                metrics.recordLatency(System.nanoTime() - start);
+            }
+            return;
+        }
+
+        if (pendingSnapshot.getAndSet(petriNet) != null) {
+            metrics.dropped(); // superseded before it was drawn
+        }
+        if (renderScheduled.compareAndSet(false, true)) {
+            renderer.execute(this::renderPending);
+        }
+        metrics.recordLatency(System.nanoTime() - start);
+    }
+
+    private void renderPending() {
+        renderScheduled.set(false);
+        PetriNet petriNet = pendingSnapshot.getAndSet(null);
+        if (petriNet == null) return;
+        try {
+            render(petriNet);
+        } catch (Exception e) {
+            metrics.dropped();
+            System.err.println("[PetriNetSink] ❌ Failed to render PetriNet: " + e.getMessage());
+        }
+    }
+
+    private void render(PetriNet petriNet) {
         //System.out.println("\n===== New PetriNet Snapshot =====");
         //System.out.println("Places: " + petriNet.getPlaces().size());
         //System.out.println("Transitions: " + petriNet.getTransitions().size());
@@ -51,33 +211,35 @@ public class PetriNetSink extends Sink {
         //petriNet.getTransitions().forEach(t -> System.out.println("Transition: " + t.getID()));
 
         // Print each arc with source and target
-        for (Arc arc : petriNet.getFlowRelation()) {
-            if (arc instanceof PlaceToTransitionArc) {
-                PlaceToTransitionArc p2t = (PlaceToTransitionArc) arc;
-                //System.out.println("[P→T] " + p2t.getSource().getID() + " -> " + p2t.getTarget().getID());
-            } else if (arc instanceof TransitionToPlaceArc) {
-                TransitionToPlaceArc t2p = (TransitionToPlaceArc) arc;
-                //System.out.println("[T→P] " + t2p.getSource().getID() + " -> " + t2p.getTarget().getID());
-            } else {
-                //System.out.println("[Unknown Arc] " + arc.getID());
-            }
-        }
+        //for (Arc arc : petriNet.getFlowRelation()) {
+        //    if (arc instanceof PlaceToTransitionArc) {
+        //        PlaceToTransitionArc p2t = (PlaceToTransitionArc) arc;
+        //        System.out.println("[P→T] " + p2t.getSource().getID() + " -> " + p2t.getTarget().getID());
+        //    } else if (arc instanceof TransitionToPlaceArc) {
+        //        TransitionToPlaceArc t2p = (TransitionToPlaceArc) arc;
+        //        System.out.println("[T→P] " + t2p.getSource().getID() + " -> " + t2p.getTarget().getID());
+        //    } else {
+        //        System.out.println("[Unknown Arc] " + arc.getID());
+        //    }
+        //}
 
-        try {
+        if (directWriter != null) {
+            this.latestSvg = svgFormat ? directWriter.writeSvg(petriNet) : directWriter.writeDot(petriNet);
+        } else {
             MutableGraph dotGraph = constructDotGraph(petriNet);
             //System.out.println("DOT Graph Source:\n" + dotGraph.toString());
 
-            //String svg = fromGraph(dotGraph).width(1024).render(SVG).toString();
-
-            this.latestSvg = dotGraph.toString(); // ✅ store in the instance
-            //System.out.println("PetriNetSink updated SVG length=" + svg.length());
-
-//            fromGraph(dotGraph)
-//                    .render(SVG)
-//                    .toFile(new File("orgA/src/main/resources/sinks/outputs/petriNet.svg"));
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to render PetriNet", e);
+            this.latestSvg = svgFormat
+                    ? fromGraph(dotGraph).width(1024).render(SVG).toString()
+                    : dotGraph.toString(); // ✅ store in the instance
         }
+        this.latestNet = petriNet;
+        metrics.forwarded();
+        //System.out.println("PetriNetSink updated SVG length=" + svg.length());
+
+//        fromGraph(dotGraph)
+//                .render(SVG)
+//                .toFile(new File("orgA/src/main/resources/sinks/outputs/petriNet.svg"));
     }
 
     @Override
@@ -87,7 +249,28 @@ public class PetriNetSink extends Sink {
         return map;
     }
 
-    private MutableGraph constructDotGraph(PetriNet petriNet) {
+    @Override
+    public boolean terminate() {
+        boolean terminated = super.terminate();
+        if (renderer != null) renderer.shutdownNow();
+        if (history != null) {
+            // Snapshots already received still go to disk before the file is closed
+            historyWriter.shutdown();
+            try {
+                if (!historyWriter.awaitTermination(5, TimeUnit.SECONDS)) {
+                    System.err.println("[PetriNetSink] ⚠ History writer did not finish; closing the history anyway.");
+                    historyWriter.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            history.close();
+        }
+        metrics.close();
+        return terminated;
+    }
+
+    MutableGraph constructDotGraph(PetriNet petriNet) {
         MutableGraph dotGraph = mutGraph("petriNet").setDirected(true);
 
         Set<Place> places = petriNet.getPlaces();
@@ -136,4 +319,770 @@ public class PetriNetSink extends Sink {
         }
         return dotGraph;
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes a Petri net as DOT or SVG text straight from the net, without building a graphviz
+     * model. Nodes come from one pass over places and transitions, edges from one pass over the
+     * flow relation, all into a buffer that is reused between snapshots. The DOT matches what
+     * {@link #constructDotGraph} produces. The SVG uses a simple layered layout: nodes are
+     * ranked by distance from the nodes without inputs. Coordinates are cached and only
+     * recomputed when the set of nodes or arcs changes, so nodes keep their positions
+     * across snapshots of the same model. Not thread-safe; the sink only calls it from one thread.
+     */
+    static final class PetriNetWriter {
+        private static final int COLUMN_WIDTH = 140;
+        private static final int ROW_HEIGHT = 70;
+        private static final int MARGIN = 40;
+        private static final int RADIUS = 18;
+
+        private final StringBuilder buffer = new StringBuilder(4096);
+        private final StringBuilder edges = new StringBuilder(4096);
+        private final Map<String, int[]> positions = new HashMap<>();
+        /** Ids of the current net's nodes; arcs are matched by id, as constructDotGraph does. */
+        private final Set<String> nodeIds = new HashSet<>();
+        private long layoutFingerprint;
+        private int width;
+        private int height;
+
+        String writeDot(PetriNet petriNet) {
+            Set<Place> places = petriNet.getPlaces();
+            Set<Transition> transitions = petriNet.getTransitions();
+            StringBuilder out = buffer;
+            out.setLength(0);
+            out.append("digraph \"petriNet\" {\n");
+            nodeIds.clear();
+            for (Place p : places) {
+                nodeIds.add(p.getID());
+                quote(out, p.getID()).append(" [\"shape\"=\"circle\",\"color\"=\"green\"]\n");
+            }
+            for (Transition t : transitions) {
+                nodeIds.add(t.getID());
+                quote(out, t.getID()).append(" [\"shape\"=\"box\",\"color\"=\"blue\"]\n");
+            }
+            for (Arc arc : petriNet.getFlowRelation()) {
+                String source;
+                String target;
+                if (arc instanceof PlaceToTransitionArc) {
+                    source = ((PlaceToTransitionArc) arc).getSource().getID();
+                    target = ((PlaceToTransitionArc) arc).getTarget().getID();
+                } else if (arc instanceof TransitionToPlaceArc) {
+                    source = ((TransitionToPlaceArc) arc).getSource().getID();
+                    target = ((TransitionToPlaceArc) arc).getTarget().getID();
+                } else {
+                    continue;
+                }
+                if (!nodeIds.contains(source) || !nodeIds.contains(target)) continue;
+                quote(out, source).append(" -> ");
+                quote(out, target).append('\n');
+            }
+            return out.append("}").toString();
+        }
+
+        String writeSvg(PetriNet petriNet) {
+            Set<Place> places = petriNet.getPlaces();
+            Set<Transition> transitions = petriNet.getTransitions();
+
+            long fingerprint = 0;
+            nodeIds.clear();
+            for (Place p : places) {
+                nodeIds.add(p.getID());
+                fingerprint += mix(p.getID().hashCode());
+            }
+            for (Transition t : transitions) {
+                nodeIds.add(t.getID());
+                fingerprint += mix(~t.getID().hashCode());
+            }
+
+            // Edges are written while the arcs are fingerprinted; they are only redone if the
+            // structure turns out to have changed and the cached coordinates are stale.
+            fingerprint += writeEdges(petriNet);
+            if (fingerprint != layoutFingerprint || positions.isEmpty()) {
+                layout(petriNet);
+                layoutFingerprint = fingerprint;
+                writeEdges(petriNet);
+            }
+
+            StringBuilder out = buffer;
+            out.setLength(0);
+            out.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(width)
+                    .append("\" height=\"").append(height).append("\" font-family=\"sans-serif\" font-size=\"10\">\n")
+                    .append("<defs><marker id=\"arrow\" viewBox=\"0 0 10 10\" refX=\"10\" refY=\"5\" ")
+                    .append("markerWidth=\"6\" markerHeight=\"6\" orient=\"auto\"><path d=\"M0,0L10,5L0,10z\"/></marker></defs>\n");
+            out.append(edges);
+            for (Place p : places) {
+                int[] xy = positions.get(p.getID());
+                out.append("<circle cx=\"").append(xy[0]).append("\" cy=\"").append(xy[1])
+                        .append("\" r=\"").append(RADIUS).append("\" fill=\"none\" stroke=\"green\"/>\n");
+                label(out, p.getID(), xy);
+            }
+            for (Transition t : transitions) {
+                int[] xy = positions.get(t.getID());
+                out.append("<rect x=\"").append(xy[0] - RADIUS).append("\" y=\"").append(xy[1] - RADIUS)
+                        .append("\" width=\"").append(2 * RADIUS).append("\" height=\"").append(2 * RADIUS)
+                        .append("\" fill=\"none\" stroke=\"blue\"/>\n");
+                label(out, t.getID(), xy);
+            }
+            return out.append("</svg>").toString();
+        }
+
+        /** Writes the edge lines with the cached coordinates and returns the arcs' share of the fingerprint. */
+        private long writeEdges(PetriNet petriNet) {
+            edges.setLength(0);
+            long fingerprint = 0;
+            for (Arc arc : petriNet.getFlowRelation()) {
+                String source;
+                String target;
+                if (arc instanceof PlaceToTransitionArc) {
+                    source = ((PlaceToTransitionArc) arc).getSource().getID();
+                    target = ((PlaceToTransitionArc) arc).getTarget().getID();
+                } else if (arc instanceof TransitionToPlaceArc) {
+                    source = ((TransitionToPlaceArc) arc).getSource().getID();
+                    target = ((TransitionToPlaceArc) arc).getTarget().getID();
+                } else {
+                    continue;
+                }
+                if (!nodeIds.contains(source) || !nodeIds.contains(target)) continue;
+                fingerprint += mix(31L * source.hashCode() + target.hashCode() + 0x9E3779B9L);
+                int[] from = positions.get(source);
+                int[] to = positions.get(target);
+                if (from == null || to == null) continue;
+
+                double dx = to[0] - from[0];
+                double dy = to[1] - from[1];
+                double length = Math.max(1, Math.sqrt(dx * dx + dy * dy));
+                double ox = dx / length * RADIUS;
+                double oy = dy / length * RADIUS;
+                edges.append("<line x1=\"").append(Math.round(from[0] + ox))
+                        .append("\" y1=\"").append(Math.round(from[1] + oy))
+                        .append("\" x2=\"").append(Math.round(to[0] - ox))
+                        .append("\" y2=\"").append(Math.round(to[1] - oy))
+                        .append("\" stroke=\"black\" marker-end=\"url(#arrow)\"/>\n");
+            }
+            return fingerprint;
+        }
+
+        /** Ranks nodes by BFS distance from the nodes without inputs and stacks each rank in a column. */
+        private void layout(PetriNet petriNet) {
+            Map<String, List<String>> successors = new HashMap<>();
+            Map<String, Integer> inDegree = new HashMap<>();
+            List<String> nodes = new ArrayList<>();
+            List<String> roots = new ArrayList<>();
+            for (Place p : petriNet.getPlaces()) nodes.add(p.getID());
+            for (Transition t : petriNet.getTransitions()) nodes.add(t.getID());
+            for (String node : nodes) {
+                successors.put(node, new ArrayList<>());
+                inDegree.put(node, 0);
+            }
+            for (Arc arc : petriNet.getFlowRelation()) {
+                String source;
+                String target;
+                if (arc instanceof PlaceToTransitionArc) {
+                    source = ((PlaceToTransitionArc) arc).getSource().getID();
+                    target = ((PlaceToTransitionArc) arc).getTarget().getID();
+                } else if (arc instanceof TransitionToPlaceArc) {
+                    source = ((TransitionToPlaceArc) arc).getSource().getID();
+                    target = ((TransitionToPlaceArc) arc).getTarget().getID();
+                } else {
+                    continue;
+                }
+                if (!successors.containsKey(source) || !inDegree.containsKey(target)) continue;
+                successors.get(source).add(target);
+                inDegree.merge(target, 1, Integer::sum);
+            }
+            for (String node : nodes) if (inDegree.get(node) == 0) roots.add(node);
+            Collections.sort(roots);
+
+            Map<String, Integer> rank = new HashMap<>();
+            ArrayDeque<String> queue = new ArrayDeque<>();
+            for (String root : roots) {
+                rank.put(root, 0);
+                queue.add(root);
+            }
+            while (!queue.isEmpty()) {
+                String node = queue.poll();
+                List<String> next = successors.get(node);
+                Collections.sort(next);
+                for (String successor : next) {
+                    if (rank.containsKey(successor)) continue;
+                    rank.put(successor, rank.get(node) + 1);
+                    queue.add(successor);
+                }
+            }
+
+            // Nodes not reachable from a root (cycles without a marked entry) go in a last column.
+            int maxRank = 0;
+            for (int r : rank.values()) maxRank = Math.max(maxRank, r);
+            Collections.sort(nodes);
+            List<List<String>> columns = new ArrayList<>();
+            for (String node : nodes) {
+                int r = rank.containsKey(node) ? rank.get(node) : maxRank + 1;
+                while (columns.size() <= r) columns.add(new ArrayList<>());
+                columns.get(r).add(node);
+            }
+
+            positions.clear();
+            int tallest = 0;
+            for (int c = 0; c < columns.size(); c++) {
+                List<String> column = columns.get(c);
+                tallest = Math.max(tallest, column.size());
+                for (int row = 0; row < column.size(); row++) {
+                    positions.put(column.get(row), new int[]{MARGIN + c * COLUMN_WIDTH, MARGIN + row * ROW_HEIGHT});
+                }
+            }
+            width = 2 * MARGIN + Math.max(0, columns.size() - 1) * COLUMN_WIDTH;
+            height = 2 * MARGIN + Math.max(0, tallest - 1) * ROW_HEIGHT;
+        }
+
+        private static void label(StringBuilder out, String id, int[] xy) {
+            out.append("<text x=\"").append(xy[0]).append("\" y=\"").append(xy[1] + RADIUS + 12)
+                    .append("\" text-anchor=\"middle\">");
+            for (int i = 0; i < id.length(); i++) {
+                char c = id.charAt(i);
+                switch (c) {
+                    case '<': out.append("&lt;"); break;
+                    case '>': out.append("&gt;"); break;
+                    case '&': out.append("&amp;"); break;
+                    case '"': out.append("&quot;"); break;
+                    default: out.append(c);
+                }
+            }
+            out.append("</text>\n");
+        }
+
+        private static StringBuilder quote(StringBuilder out, String id) {
+            out.append('"');
+            for (int i = 0; i < id.length(); i++) {
+                char c = id.charAt(i);
+                if (c == '"') out.append('\\');
+                out.append(c);
+            }
+            return out.append('"');
+        }
+
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            return h ^ (h >>> 33);
+        }
+    }
+
+    /**
+     * Append-only history of every snapshot the sink receives, in a memory-mapped file.
+     * <p>
+     * Each record is either a keyframe (the whole structure) or a delta (places, transitions and
+     * arcs added or removed since the previous snapshot). A keyframe is written every
+     * {@code keyframeInterval} snapshots. The heap only holds the structure of the last snapshot
+     * and an index of keyframes (sequence number, timestamp, file offset). When the index is full,
+     * every other entry is dropped and only every second keyframe is indexed from then on. So the
+     * index stays bounded and lookups replay a few more deltas. A lookup binary-searches the
+     * index for the nearest keyframe at or before the target and replays records up to it.
+     * <p>
+     * Record layout: int length, byte type, long sequence, long timestamp, int op count, then ops
+     * of one byte code followed by length-prefixed UTF-8 ids. A zero length marks the end, so an
+     * existing file is reopened by scanning headers. The first snapshot after reopening is written
+     * as a keyframe. Only structure is recorded: rebuilt places carry no tokens.
+     */
+    static final class SnapshotHistory {
+        private static final byte KEYFRAME = 0;
+        private static final byte DELTA = 1;
+
+        private static final byte ADD_PLACE = 1;
+        private static final byte REMOVE_PLACE = 2;
+        private static final byte ADD_TRANSITION = 3;
+        private static final byte REMOVE_TRANSITION = 4;
+        private static final byte ADD_PLACE_TO_TRANSITION = 5;
+        private static final byte ADD_TRANSITION_TO_PLACE = 6;
+        private static final byte REMOVE_ARC = 7;
+
+        private static final int HEADER_BYTES = 4 + 1 + 8 + 8 + 4;
+
+        private final FileChannel channel;
+        private MappedByteBuffer mapped;
+        private int position;
+        private final int keyframeInterval;
+
+        private final long[] indexSequence;
+        private final long[] indexTime;
+        private final int[] indexOffset;
+        private int indexSize = 0;
+        private long indexStride = 1;
+        private long keyframes = 0;
+
+        private long sequence = 0;
+        private int sinceKeyframe = 0;
+        private Set<String> places = new HashSet<>();
+        private Set<String> transitions = new HashSet<>();
+        private Map<String, String[]> arcs = new HashMap<>();
+
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(4096);
+        private final DataOutputStream record = new DataOutputStream(recordBytes);
+        private int recordOps;
+
+        SnapshotHistory(Path file, int keyframeInterval, int indexCapacity, int initialMapBytes) throws IOException {
+            this.keyframeInterval = Math.max(1, keyframeInterval);
+            indexSequence = new long[Math.max(2, indexCapacity)];
+            indexTime = new long[indexSequence.length];
+            indexOffset = new int[indexSequence.length];
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), Math.max(4096, initialMapBytes)));
+            recover();
+        }
+
+        /** Rebuilds the index and the sequence counter from the records already in the file. */
+        private void recover() {
+            while (position + HEADER_BYTES <= mapped.capacity()) {
+                int length = mapped.getInt(position);
+                if (length < HEADER_BYTES || position + length > mapped.capacity()) break;
+                long recordSequence = mapped.getLong(position + 5);
+                if (mapped.get(position + 4) == KEYFRAME) {
+                    index(recordSequence, mapped.getLong(position + 13), position);
+                }
+                sequence = recordSequence;
+                position += length;
+            }
+            if (position > 0) {
+                System.out.println("[PetriNetSink] ✅ History reopened with " + sequence + " snapshots.");
+            }
+        }
+
+        synchronized void append(PetriNet petriNet, long timestampMillis) throws IOException {
+            Set<String> nextPlaces = new HashSet<>();
+            Set<String> nextTransitions = new HashSet<>();
+            Map<String, String[]> nextArcs = new HashMap<>();
+            for (Place p : petriNet.getPlaces()) nextPlaces.add(p.getID());
+            for (Transition t : petriNet.getTransitions()) nextTransitions.add(t.getID());
+            for (Arc arc : petriNet.getFlowRelation()) {
+                String[] entry;
+                if (arc instanceof PlaceToTransitionArc) {
+                    PlaceToTransitionArc a = (PlaceToTransitionArc) arc;
+                    entry = new String[]{"P", a.getID(), a.getSource().getID(), a.getTarget().getID()};
+                } else if (arc instanceof TransitionToPlaceArc) {
+                    TransitionToPlaceArc a = (TransitionToPlaceArc) arc;
+                    entry = new String[]{"T", a.getID(), a.getSource().getID(), a.getTarget().getID()};
+                } else {
+                    continue;
+                }
+                nextArcs.put(arcKey(entry[0], entry[2], entry[3]), entry);
+            }
+
+            boolean keyframe = sinceKeyframe == 0 || sinceKeyframe >= keyframeInterval;
+            if (keyframe) {
+                places = new HashSet<>();
+                transitions = new HashSet<>();
+                arcs = new HashMap<>();
+            }
+
+            recordBytes.reset();
+            recordOps = 0;
+            for (String id : nextPlaces) if (!places.contains(id)) op(ADD_PLACE, id);
+            for (String id : places) if (!nextPlaces.contains(id)) op(REMOVE_PLACE, id);
+            for (String id : nextTransitions) if (!transitions.contains(id)) op(ADD_TRANSITION, id);
+            for (String id : transitions) if (!nextTransitions.contains(id)) op(REMOVE_TRANSITION, id);
+            for (Map.Entry<String, String[]> entry : nextArcs.entrySet()) {
+                String[] arc = entry.getValue();
+                String[] previous = arcs.get(entry.getKey());
+                if (previous != null && previous[1].equals(arc[1])) continue;
+                op("P".equals(arc[0]) ? ADD_PLACE_TO_TRANSITION : ADD_TRANSITION_TO_PLACE, arc[1], arc[2], arc[3]);
+            }
+            for (Map.Entry<String, String[]> entry : arcs.entrySet()) {
+                if (nextArcs.containsKey(entry.getKey())) continue;
+                String[] arc = entry.getValue();
+                op(REMOVE_ARC, arc[0], arc[2], arc[3]);
+            }
+
+            int length = HEADER_BYTES + recordBytes.size();
+            ensureCapacity(length);
+            sequence++;
+            mapped.position(position);
+            mapped.putInt(length)
+                    .put(keyframe ? KEYFRAME : DELTA)
+                    .putLong(sequence)
+                    .putLong(timestampMillis)
+                    .putInt(recordOps)
+                    .put(recordBytes.toByteArray());
+            if (keyframe) {
+                index(sequence, timestampMillis, position);
+                sinceKeyframe = 0;
+            }
+            position += length;
+            sinceKeyframe++;
+
+            places = nextPlaces;
+            transitions = nextTransitions;
+            arcs = nextArcs;
+        }
+
+        /** Model as of the given snapshot number (1 = first snapshot), or null before the first one. */
+        synchronized PetriNet atSequence(long target) {
+            if (indexSize == 0 || target < indexSequence[0]) return null;
+            return replay(indexOffset[floor(indexSequence, target)], target, Long.MAX_VALUE);
+        }
+
+        /** Model as of the given wall-clock time, or null before the first snapshot. */
+        synchronized PetriNet atTime(long timestampMillis) {
+            if (indexSize == 0 || timestampMillis < indexTime[0]) return null;
+            return replay(indexOffset[floor(indexTime, timestampMillis)], Long.MAX_VALUE, timestampMillis);
+        }
+
+        synchronized long size() {
+            return sequence;
+        }
+
+        synchronized void close() {
+            try {
+                mapped.force();
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("[PetriNetSink] ⚠ Closing history failed: " + e.getMessage());
+            }
+        }
+
+        private PetriNet replay(int offset, long maxSequence, long maxTime) {
+            Set<String> replayPlaces = new HashSet<>();
+            Set<String> replayTransitions = new HashSet<>();
+            Map<String, String[]> replayArcs = new HashMap<>();
+            ByteBuffer in = mapped.duplicate();
+            int at = offset;
+            while (at < position) {
+                int length = in.getInt(at);
+                if (in.getLong(at + 5) > maxSequence || in.getLong(at + 13) > maxTime) break;
+                if (in.get(at + 4) == KEYFRAME) {
+                    replayPlaces.clear();
+                    replayTransitions.clear();
+                    replayArcs.clear();
+                }
+                in.position(at + 21);
+                int ops = in.getInt();
+                for (int i = 0; i < ops; i++) {
+                    byte code = in.get();
+                    switch (code) {
+                        case ADD_PLACE: replayPlaces.add(readString(in)); break;
+                        case REMOVE_PLACE: replayPlaces.remove(readString(in)); break;
+                        case ADD_TRANSITION: replayTransitions.add(readString(in)); break;
+                        case REMOVE_TRANSITION: replayTransitions.remove(readString(in)); break;
+                        case ADD_PLACE_TO_TRANSITION:
+                        case ADD_TRANSITION_TO_PLACE: {
+                            String kind = code == ADD_PLACE_TO_TRANSITION ? "P" : "T";
+                            String id = readString(in);
+                            String source = readString(in);
+                            String target = readString(in);
+                            replayArcs.put(arcKey(kind, source, target), new String[]{kind, id, source, target});
+                            break;
+                        }
+                        case REMOVE_ARC: {
+                            String kind = readString(in);
+                            String source = readString(in);
+                            replayArcs.remove(arcKey(kind, source, readString(in)));
+                            break;
+                        }
+                        default:
+                            throw new IllegalStateException("Corrupt history record at offset " + at);
+                    }
+                }
+                at += length;
+            }
+
+            Map<String, Place> placeById = new HashMap<>();
+            Map<String, Transition> transitionById = new HashMap<>();
+            for (String id : replayPlaces) placeById.put(id, new Place(id, 0));
+            for (String id : replayTransitions) transitionById.put(id, new Transition(id));
+            Set<Arc> flow = new HashSet<>();
+            for (String[] arc : replayArcs.values()) {
+                if ("P".equals(arc[0])) {
+                    Place source = placeById.get(arc[2]);
+                    Transition target = transitionById.get(arc[3]);
+                    if (source != null && target != null) flow.add(new PlaceToTransitionArc(arc[1], source, target));
+                } else {
+                    Transition source = transitionById.get(arc[2]);
+                    Place target = placeById.get(arc[3]);
+                    if (source != null && target != null) flow.add(new TransitionToPlaceArc(arc[1], source, target));
+                }
+            }
+            return new PetriNet(new HashSet<>(placeById.values()), new HashSet<>(transitionById.values()), flow);
+        }
+
+        private void index(long recordSequence, long timestampMillis, int offset) {
+            if (keyframes++ % indexStride != 0) return;
+            if (indexSize == indexSequence.length) {
+                // Thin out: keep every other keyframe and index half as many from now on.
+                int kept = 0;
+                for (int i = 0; i < indexSize; i += 2, kept++) {
+                    indexSequence[kept] = indexSequence[i];
+                    indexTime[kept] = indexTime[i];
+                    indexOffset[kept] = indexOffset[i];
+                }
+                indexSize = kept;
+                indexStride *= 2;
+                if ((keyframes - 1) % indexStride != 0) return;
+            }
+            indexSequence[indexSize] = recordSequence;
+            indexTime[indexSize] = timestampMillis;
+            indexOffset[indexSize] = offset;
+            indexSize++;
+        }
+
+        /** Position of the last index entry whose key is at or before the target. */
+        private int floor(long[] keys, long target) {
+            int low = 0;
+            int high = indexSize - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (keys[mid] <= target) low = mid;
+                else high = mid - 1;
+            }
+            return low;
+        }
+
+        private void ensureCapacity(int length) throws IOException {
+            long needed = (long) position + length + 4; // keep room for the zero end marker
+            if (needed <= mapped.capacity()) return;
+            long size = Math.max(needed, 2L * mapped.capacity());
+            if (size > Integer.MAX_VALUE) {
+                size = needed;
+                if (size > Integer.MAX_VALUE) throw new IOException("History file is full");
+            }
+            mapped.force();
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        private void op(byte code, String... ids) throws IOException {
+            record.writeByte(code);
+            for (String id : ids) {
+                byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+                record.writeInt(bytes.length);
+                record.write(bytes);
+            }
+            recordOps++;
+        }
+
+        private static String readString(ByteBuffer in) {
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static String arcKey(String kind, String source, String target) {
+            return kind + source + '\u0000' + target;
+        }
+    }
+
+    // <shared:OperatorMetrics> generated from shared/OperatorMetrics.java.in; edit it there, then run script/SyncShared.java
+    /**
+     * Read-only view of {@link OperatorMetrics} exposed over JMX.
+     */
+    public interface OperatorMetricsMBean {
+        long getReceived();
+
+        long getForwarded();
+
+        long getDropped();
+
+        double getReceivedPerSecond();
+
+        double getLatencyMeanMicros();
+
+        double getLatencyP50Micros();
+
+        double getLatencyP99Micros();
+
+        double getLatencyP999Micros();
+
+        double getLatencyMaxMicros();
+
+        long getLatencyCount();
+
+        /** Raw histogram counts; readers can diff two snapshots to get a recent percentile. */
+        long[] getLatencyBuckets();
+
+        void reset();
+    }
+
+    /**
+     * Per-instance throughput, drop and latency metrics, registered with the platform MBean
+     * server as {@code templates:type=<template>,name=<instance>}. Counters are striped
+     * {@link LongAdder}s and latencies go into a log-linear histogram (32 sub-buckets per
+     * power of two, about 3% precision), so recording is lock-free and allocation-free.
+     * Every getter is a pure read, so any number of JMX clients can poll the same instance.
+     */
+    static final class OperatorMetrics implements OperatorMetricsMBean {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS;
+
+        private final LongAdder received = new LongAdder();
+        private final LongAdder forwarded = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(SUB_BUCKETS * (MAX_SHIFT + 2));
+        private final LongAdder latencyTotalNanos = new LongAdder();
+        private final AtomicLong latencyMaxNanos = new AtomicLong();
+        private ObjectName objectName;
+
+        /** Start of the period the rate covers: creation, or the last reset(). */
+        private volatile long since = System.nanoTime();
+
+        OperatorMetrics(String template, Object instance) {
+            try {
+                objectName = new ObjectName("templates:type=" + template
+                        + ",name=" + Integer.toHexString(System.identityHashCode(instance)));
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new StandardMBean(this, OperatorMetricsMBean.class), objectName);
+            } catch (Exception e) {
+                System.err.println("[" + template + "] ⚠ Metrics not registered with JMX: " + e.getMessage());
+                objectName = null;
+            }
+        }
+
+        void received() {
+            received.increment();
+        }
+
+        void forwarded() {
+            forwarded.increment();
+        }
+
+        void dropped() {
+            dropped.increment();
+        }
+
+        void dropped(long count) {
+            dropped.add(count);
+        }
+
+        void recordLatency(long nanos) {
+            long value = Math.max(0, nanos);
+            latencyBuckets.incrementAndGet(bucketOf(value));
+            latencyTotalNanos.add(value);
+            long max;
+            while (value > (max = latencyMaxNanos.get()) && !latencyMaxNanos.compareAndSet(max, value)) {
+                // retry until the larger value is stored
+            }
+        }
+
+        void close() {
+            if (objectName == null) return;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception ignored) {
+            }
+            objectName = null;
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+            long sub = Math.min(SUB_BUCKETS - 1, (value >>> shift) - SUB_BUCKETS);
+            return SUB_BUCKETS + shift * SUB_BUCKETS + (int) sub;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+        }
+
+        private double percentileMicros(double percentile) {
+            return Math.min(percentileMicros(snapshot(), percentile), latencyMaxNanos.get() / 1000.0);
+        }
+
+        private long[] snapshot() {
+            long[] counts = new long[latencyBuckets.length()];
+            for (int i = 0; i < counts.length; i++) counts[i] = latencyBuckets.get(i);
+            return counts;
+        }
+
+        /** Upper bound of the bucket holding the given percentile of {@code buckets}, in microseconds. */
+        static double percentileMicros(long[] buckets, double percentile) {
+            long total = 0;
+            for (long count : buckets) total += count;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return upperBoundOf(i) / 1000.0;
+            }
+            return upperBoundOf(buckets.length - 1) / 1000.0;
+        }
+
+        @Override
+        public long getReceived() {
+            return received.sum();
+        }
+
+        @Override
+        public long getForwarded() {
+            return forwarded.sum();
+        }
+
+        @Override
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        /** Average rate since the metrics were created or last reset. */
+        @Override
+        public double getReceivedPerSecond() {
+            return received.sum() * 1e9 / Math.max(1, System.nanoTime() - since);
+        }
+
+        @Override
+        public double getLatencyMeanMicros() {
+            long count = getLatencyCount();
+            return count == 0 ? 0 : latencyTotalNanos.sum() / 1000.0 / count;
+        }
+
+        @Override
+        public double getLatencyP50Micros() {
+            return percentileMicros(0.50);
+        }
+
+        @Override
+        public double getLatencyP99Micros() {
+            return percentileMicros(0.99);
+        }
+
+        @Override
+        public double getLatencyP999Micros() {
+            return percentileMicros(0.999);
+        }
+
+        @Override
+        public double getLatencyMaxMicros() {
+            return latencyMaxNanos.get() / 1000.0;
+        }
+
+        @Override
+        public long getLatencyCount() {
+            long count = 0;
+            for (int i = 0; i < latencyBuckets.length(); i++) count += latencyBuckets.get(i);
+            return count;
+        }
+
+        @Override
+        public long[] getLatencyBuckets() {
+            return snapshot();
+        }
+
+        @Override
+        public synchronized void reset() {
+            received.reset();
+            forwarded.reset();
+            dropped.reset();
+            latencyTotalNanos.reset();
+            latencyMaxNanos.set(0);
+            for (int i = 0; i < latencyBuckets.length(); i++) latencyBuckets.set(i, 0);
+            since = System.nanoTime();
+        }
+    }
+    // </shared:OperatorMetrics>
+
+    private static int intSetting(Configuration configuration, String key, int defaultValue) {
+        Object value = configuration.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).intValue();
+        return Integer.parseInt(value.toString().trim());
+    }
+}
@@ -0,0 +1,63 @@
+package com.dapm.security_service.ingest_anonymization.processingStages;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import pipeline.processingelement.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark stand-in for the security service's anonymization stage. It applies the same
+ * "anonymization" config block locally: suppressed fields are removed and pseudonymized fields
+ * are replaced by a deterministic pseudonym, without the service's mapping table.
+ */
+public class AnonymizationProcess {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final List<String> pseudonymization;
+    private final List<String> suppression;
+
+    private AnonymizationProcess(List<String> pseudonymization, List<String> suppression) {
+        this.pseudonymization = pseudonymization;
+        this.suppression = suppression;
+    }
+
+    public static AnonymizationProcess getAnonymizationConfig(Configuration configuration) {
+        Map<String, Object> section = section(configuration, "anonymization");
+        return new AnonymizationProcess(list(section.get("pseudonymization")), list(section.get("suppression")));
+    }
+
+    public JsonNode apply(JsonNode input) {
+        ObjectNode output = input.deepCopy();
+        for (String field : suppression) {
+            output.remove(field);
+        }
+        for (String field : pseudonymization) {
+            JsonNode value = output.get(field);
+            if (value != null && !value.isNull()) {
+                output.put(field, "PSN-" + Integer.toHexString(value.asText().hashCode()));
+            }
+        }
+        return output;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> section(Configuration configuration, String key) {
+        Object value = configuration.get(key);
+        if (value == null) return Collections.emptyMap();
+        if (value instanceof Map) return (Map<String, Object>) value;
+        return MAPPER.convertValue(value, Map.class);
+    }
+
+    private static List<String> list(Object value) {
+        List<String> result = new ArrayList<>();
+        if (value instanceof Iterable) {
+            for (Object item : (Iterable<?>) value) result.add(item.toString());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,54 @@
+package com.dapm.security_service.ingest_anonymization.processingStages;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import communication.message.impl.event.Attribute;
+import communication.message.impl.event.Event;
+import pipeline.processingelement.Configuration;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Benchmark stand-in for the security service's attribute mapping stage: the fields named in
+ * the "attributeMapping" config block become case ID, activity and timestamp, every other field
+ * becomes an attribute.
+ */
+public class AttributeMappingProcess {
+    private final String caseIdField;
+    private final String activityField;
+    private final String timestampField;
+
+    private AttributeMappingProcess(String caseIdField, String activityField, String timestampField) {
+        this.caseIdField = caseIdField;
+        this.activityField = activityField;
+        this.timestampField = timestampField;
+    }
+
+    public static AttributeMappingProcess getAttributeMappingConfig(Configuration configuration) {
+        Map<String, Object> section = AnonymizationProcess.section(configuration, "attributeMapping");
+        return new AttributeMappingProcess(
+                String.valueOf(section.getOrDefault("caseId", "patientId")),
+                String.valueOf(section.getOrDefault("activity", "activity")),
+                String.valueOf(section.getOrDefault("timeStamp", "timestamp")));
+    }
+
+    public Event extractEvent(JsonNode json) {
+        Set<Attribute<?>> attributes = new HashSet<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = json.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String name = field.getKey();
+            if (name.equals(caseIdField) || name.equals(activityField) || name.equals(timestampField)) continue;
+            JsonNode value = field.getValue();
+            attributes.add(new Attribute<>(name, value.isInt() ? (Object) value.intValue() : value.asText()));
+        }
+        return new Event(text(json, caseIdField), text(json, activityField), text(json, timestampField), attributes);
+    }
+
+    private static String text(JsonNode json, String field) {
+        JsonNode value = json.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+}
@@ -0,0 +1,12 @@
+package com.dapm.security_service.ingest_anonymization.processingStages;
+
+import pipeline.processingelement.Configuration;
+
+/** Benchmark stand-in; EventSource is compiled with the other templates but not benchmarked. */
+public class EventSourceConfig {
+
+    public static String getEventSourceUrl(Configuration configuration) {
+        Object url = configuration.get("eventSource");
+        return url == null ? "" : url.toString();
+    }
+}
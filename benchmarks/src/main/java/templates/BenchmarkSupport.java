@@ -0,0 +1,91 @@
+package templates;
+
+import communication.message.impl.event.Attribute;
+import communication.message.impl.event.Event;
+import communication.message.impl.petrinet.PetriNet;
+import communication.message.impl.petrinet.Place;
+import communication.message.impl.petrinet.Transition;
+import communication.message.impl.petrinet.arc.Arc;
+import communication.message.impl.petrinet.arc.PlaceToTransitionArc;
+import communication.message.impl.petrinet.arc.TransitionToPlaceArc;
+import pipeline.processingelement.Configuration;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** Inputs shared by the benchmarks. */
+final class BenchmarkSupport {
+
+    static final String[] DEPARTMENTS = {"Emergency", "Cardiology", "Neurology", "Oncology", "Pediatrics"};
+    static final String[] DOMAINS = {"en.wikipedia.org", "de.wikipedia.org", "fr.wikipedia.org",
+            "commons.wikimedia.org", "www.wikidata.org", "en.wiktionary.org"};
+    static final String[] ACTIVITIES = {"ADMISSION", "TRIAGE", "DIAGNOSIS", "LAB_TEST", "TREATMENT", "DISCHARGE"};
+
+    private BenchmarkSupport() {
+    }
+
+    /** The only place that builds a Configuration, in case the pipeline library changes how. */
+    static Configuration configuration(Map<String, Object> settings) {
+        return new Configuration(settings);
+    }
+
+    /**
+     * An event carrying {@code attribute = value} plus doctor and severity like HospitalEventSource,
+     * padded with extra attributes up to {@code attributeCount}.
+     */
+    static Event event(int i, String attribute, String value, int attributeCount) {
+        Set<Attribute<?>> attributes = new HashSet<>();
+        attributes.add(new Attribute<>(attribute, value));
+        if (attributeCount > 1) attributes.add(new Attribute<>("doctor", "Dr." + (char) ('A' + i % 26)));
+        if (attributeCount > 2) attributes.add(new Attribute<>("severity", i % 5 + 1));
+        for (int a = 3; a < attributeCount; a++) {
+            attributes.add(new Attribute<>("extra" + a, "value-" + (i + a) % 97));
+        }
+        return new Event("PAT-" + (1000 + i % 500), ACTIVITIES[i % ACTIVITIES.length],
+                String.valueOf(1_700_000_000_000L + i), attributes);
+    }
+
+    /**
+     * A net shaped like the miner's output: a source place, {@code transitions} activities in
+     * lanes of four, each feeding the next activity of its own lane and of the neighbouring lane
+     * through one place per dependency, and a sink place fed by the last layer.
+     */
+    static PetriNet net(int transitions) {
+        Set<Place> places = new HashSet<>();
+        Set<Transition> transitionSet = new HashSet<>();
+        Set<Arc> arcs = new HashSet<>();
+        Place source = new Place("source", 1);
+        Place sink = new Place("sink", 0);
+        places.add(source);
+        places.add(sink);
+
+        Transition[] byIndex = new Transition[transitions];
+        for (int i = 0; i < transitions; i++) {
+            byIndex[i] = new Transition("A" + i);
+            transitionSet.add(byIndex[i]);
+        }
+        int lanes = Math.min(4, transitions);
+        for (int i = 0; i < transitions; i++) {
+            String from = byIndex[i].getID();
+            if (i < lanes) {
+                arcs.add(new PlaceToTransitionArc("source->" + from, source, byIndex[i]));
+            }
+            int layerEnd = (i / lanes + 1) * lanes;
+            if (layerEnd >= transitions) {
+                arcs.add(new TransitionToPlaceArc(from + "->sink", byIndex[i], sink));
+                continue;
+            }
+            for (int next : new int[]{i + lanes, layerEnd + (i + 1) % lanes}) {
+                if (next >= transitions) continue;
+                String to = byIndex[next].getID();
+                String placeId = from + "->" + to;
+                Place place = new Place(placeId, 0);
+                if (!places.add(place)) continue;
+                arcs.add(new TransitionToPlaceArc(from + "->" + placeId, byIndex[i], place));
+                arcs.add(new PlaceToTransitionArc(placeId + "->" + to, place, byIndex[next]));
+            }
+        }
+        return new PetriNet(places, transitionSet, arcs);
+    }
+}
@@ -0,0 +1,32 @@
+package templates;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of target/benchmarks.jar: the usual JMH command line, with the GC profiler
+ * always on so every result carries its allocation rate (gc.alloc.rate.norm, bytes per op).
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        boolean gcRequested = options.getProfilers().stream()
+                .anyMatch(profiler -> profiler.getKlass().equals("gc") || profiler.getKlass().endsWith("GCProfiler"));
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        if (!gcRequested) builder.addProfiler(GCProfiler.class);
+        new Runner(builder.build()).run();
+    }
+}
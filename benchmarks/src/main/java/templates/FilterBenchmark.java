@@ -0,0 +1,66 @@
+package templates;
+
+import communication.message.impl.event.Event;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** DepartmentFilter and LanguageFilter on events with a growing number of attributes; about half of them match. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+    private static final int EVENTS = 1024;
+
+    @Param({"3", "10", "30"})
+    public int attributeCount;
+
+    private DepartmentFilter departmentFilter;
+    private LanguageFilter languageFilter;
+    private Event[] hospitalEvents;
+    private Event[] wikiEvents;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Map<String, Object> departments = new HashMap<>();
+        departments.put("departments", Arrays.asList("Emergency", "Cardiology"));
+        departmentFilter = new DepartmentFilter(BenchmarkSupport.configuration(departments));
+
+        Map<String, Object> languages = new HashMap<>();
+        languages.put("languages", Arrays.asList("en", "de"));
+        languageFilter = new LanguageFilter(BenchmarkSupport.configuration(languages));
+
+        hospitalEvents = new Event[EVENTS];
+        wikiEvents = new Event[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            String department = BenchmarkSupport.DEPARTMENTS[i % BenchmarkSupport.DEPARTMENTS.length];
+            String domain = BenchmarkSupport.DOMAINS[i % BenchmarkSupport.DOMAINS.length];
+            hospitalEvents[i] = BenchmarkSupport.event(i, "department", department, attributeCount);
+            wikiEvents[i] = BenchmarkSupport.event(i, "domain", domain, attributeCount);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        departmentFilter.terminate();
+        languageFilter.terminate();
+    }
+
+    @Benchmark
+    public Event departmentFilter() {
+        return departmentFilter.process(hospitalEvents[next++ & (EVENTS - 1)], 0);
+    }
+
+    @Benchmark
+    public Event languageFilter() {
+        return languageFilter.process(wikiEvents[next++ & (EVENTS - 1)], 0);
+    }
+}
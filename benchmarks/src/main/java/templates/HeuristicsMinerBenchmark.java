@@ -0,0 +1,78 @@
+package templates;
+
+import communication.message.Message;
+import communication.message.impl.event.Event;
+import communication.message.impl.petrinet.PetriNet;
+import communication.message.serialization.MessageSerializer;
+import communication.message.serialization.deserialization.MessageFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The serialization work around each miner request: the event going out, and the net coming
+ * back, parsed and fingerprinted as HeuristicsMiner does. cachedModel is the path taken when
+ * the miner repeats its previous answer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeuristicsMinerBenchmark {
+
+    @Param({"8", "32", "128"})
+    public int transitions;
+
+    private HeuristicsMiner miner;
+    private Event event;
+    private PetriNet net;
+    private String serializedNet;
+
+    @Setup
+    public void setUp() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("engine", "inprocess"); // no miner process is started
+        miner = new HeuristicsMiner(BenchmarkSupport.configuration(settings));
+        event = BenchmarkSupport.event(7, "department", "Emergency", 3);
+        net = BenchmarkSupport.net(transitions);
+        serializedNet = serialize(net);
+        miner.deserializeModel(serializedNet);
+    }
+
+    @TearDown
+    public void tearDown() {
+        miner.terminate();
+    }
+
+    @Benchmark
+    public String serializeEvent() {
+        return serialize(event);
+    }
+
+    @Benchmark
+    public long deserializeModel() {
+        PetriNet parsed = (PetriNet) MessageFactory.deserialize(serializedNet);
+        return HeuristicsMiner.structuralFingerprint(parsed);
+    }
+
+    @Benchmark
+    public long roundTrip() {
+        PetriNet parsed = (PetriNet) MessageFactory.deserialize(serialize(net));
+        return HeuristicsMiner.structuralFingerprint(parsed);
+    }
+
+    @Benchmark
+    public PetriNet cachedModel() {
+        return miner.deserializeModel(serializedNet);
+    }
+
+    private static String serialize(Message message) {
+        MessageSerializer serializer = new MessageSerializer();
+        message.acceptVisitor(serializer);
+        return serializer.getSerialization();
+    }
+}
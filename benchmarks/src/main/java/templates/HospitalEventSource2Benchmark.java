@@ -0,0 +1,67 @@
+package templates;
+
+import communication.message.impl.event.Event;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HospitalEventSource2.process: generation plus anonymization, through the JSON round trip or
+ * the direct path. The anonymizer is the local stub from this module, so the numbers show the
+ * source's own overhead without the security service.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HospitalEventSource2Benchmark {
+
+    @Param({"json", "direct"})
+    public String anonymizationMode;
+
+    @Param({"100", "10000"})
+    public int maxActiveCases;
+
+    private HospitalEventSource2 source;
+
+    @Setup
+    public void setUp() {
+        Map<String, Object> anonymization = new HashMap<>();
+        anonymization.put("pseudonymization", Arrays.asList("patientId", "doctor"));
+        anonymization.put("suppression", Collections.singletonList("severity"));
+        anonymization.put("uniqueField", "patientId");
+        anonymization.put("dataSourceId", "benchmark");
+
+        Map<String, Object> mapping = new HashMap<>();
+        mapping.put("caseId", "patientId");
+        mapping.put("activity", "activity");
+        mapping.put("timeStamp", "timestamp");
+
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("maxActiveCases", maxActiveCases);
+        settings.put("seed", 42L);
+        settings.put("anonymizationMode", anonymizationMode);
+        settings.put("anonymization", anonymization);
+        settings.put("attributeMapping", mapping);
+        source = new HospitalEventSource2(BenchmarkSupport.configuration(settings));
+        for (long i = 0; i < 3L * maxActiveCases; i++) {
+            source.process();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        source.terminate();
+    }
+
+    @Benchmark
+    public Event process() {
+        return source.process();
+    }
+}
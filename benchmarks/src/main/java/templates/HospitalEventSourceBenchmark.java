@@ -0,0 +1,36 @@
+package templates;
+
+import communication.message.impl.event.Event;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/** One generated event (or null when a case finishes) for different numbers of open cases. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HospitalEventSourceBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    public int maxActiveCases;
+
+    private HospitalEventSource.Shard shard;
+
+    @Setup
+    public void setUp() {
+        shard = new HospitalEventSource.Shard(new SplittableRandom(42), maxActiveCases, "PAT-");
+        // Open cases until the pool is about full, so the benchmark measures the steady state
+        for (long i = 0; i < 3L * maxActiveCases; i++) {
+            shard.generateNextEvent();
+        }
+    }
+
+    @Benchmark
+    public Event generateNextEvent() {
+        return shard.generateNextEvent();
+    }
+}
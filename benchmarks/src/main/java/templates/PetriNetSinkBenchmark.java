@@ -0,0 +1,54 @@
+package templates;
+
+import communication.message.impl.petrinet.PetriNet;
+import guru.nidi.graphviz.model.MutableGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the DOT model of a net with graphviz-java (constructDotGraph) against writing the
+ * same DOT text directly (PetriNetWriter), for nets of increasing size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PetriNetSinkBenchmark {
+
+    @Param({"8", "32", "128"})
+    public int transitions;
+
+    private PetriNetSink sink;
+    private PetriNetSink.PetriNetWriter writer;
+    private PetriNet net;
+
+    @Setup
+    public void setUp() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("asyncRendering", false);
+        settings.put("writer", "graphviz");
+        sink = new PetriNetSink(BenchmarkSupport.configuration(settings));
+        writer = new PetriNetSink.PetriNetWriter();
+        net = BenchmarkSupport.net(transitions);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sink.terminate();
+    }
+
+    @Benchmark
+    public MutableGraph constructDotGraph() {
+        return sink.constructDotGraph(net);
+    }
+
+    @Benchmark
+    public String writeDot() {
+        return writer.writeDot(net);
+    }
+}
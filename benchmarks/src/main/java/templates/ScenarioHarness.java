@@ -0,0 +1,582 @@
+package templates;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import communication.message.Message;
+import communication.message.impl.event.Event;
+import communication.message.impl.petrinet.PetriNet;
+import utils.Pair;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * In-process load harness for the hospital scenario:
+ *   HospitalEventSource → DepartmentFilter → HeuristicsMiner → PetriNetSink
+ * <p>
+ * Every template runs on its own thread and the stages are connected by bounded queues, like
+ * pipeline hops. The source is driven through its shard generator so the harness controls the
+ * offered rate. HeuristicsMiner runs its subprocess engine against a stub miner jar built at
+ * startup (see {@link StubMinerMain}), or its in-process engine; nothing touches the network.
+ * <p>
+ * Reports per-stage throughput and service-time percentiles, queue depths, and the time from
+ * an event leaving the source to the sink receiving the model it produced. The run fails (exit
+ * code 1) when a metric regressed against the baseline by more than the tolerance, and does not
+ * start (exit code 2) without a baseline unless it stores one or is told to skip the comparison.
+ * <pre>
+ *   java -cp target/benchmarks.jar templates.ScenarioHarness --profile steady --update-baseline
+ *   java -cp target/benchmarks.jar templates.ScenarioHarness --profile burst --rate 20000 --no-baseline
+ * </pre>
+ */
+public final class ScenarioHarness {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Envelope END = new Envelope(null, 0);
+
+    private final Map<String, String> options;
+    private final String profile;
+    private final double rate;
+    private final long warmupNanos;
+    private final long durationNanos;
+
+    private volatile boolean running = true;
+    private volatile long sourceTarget = 0;
+    private volatile long sourceEmitted = 0;
+
+    private ScenarioHarness(Map<String, String> options) {
+        this.options = options;
+        this.profile = option("profile", "steady");
+        if (!Arrays.asList("steady", "ramp", "burst").contains(profile)) {
+            throw new IllegalArgumentException("Unknown profile: " + profile);
+        }
+        this.rate = Double.parseDouble(option("rate", "10000"));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup", "5")));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration", "30")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        Path work = Files.createTempDirectory("scenario-harness-");
+        // Must be set before HeuristicsMiner is loaded; HM_JAR_DIR still takes precedence
+        System.setProperty("heuristicsMiner.jarDir", work.resolve("miner").toString());
+
+        ClassLoader previous = Thread.currentThread().getContextClassLoader();
+        int exitCode;
+        try {
+            // HeuristicsMiner loads algorithms/heuristics-miner.jar through the context class loader;
+            // threads started from here (stages, miner starter) inherit it
+            Thread.currentThread().setContextClassLoader(stubMinerLoader(work, previous));
+            exitCode = new ScenarioHarness(options).run();
+        } finally {
+            Thread.currentThread().setContextClassLoader(previous);
+            deleteRecursively(work);
+        }
+        System.exit(exitCode);
+    }
+
+    private int run() throws Exception {
+        String engine = option("engine", "subprocess");
+        Path baseline = baselinePath(engine);
+        if (!options.containsKey("update-baseline") && !options.containsKey("no-baseline")
+                && !Files.isRegularFile(baseline)) {
+            System.err.println("[ScenarioHarness] ❌ No baseline at " + baseline
+                    + "; run with --update-baseline to store one, or --no-baseline to skip the comparison.");
+            return 2;
+        }
+        int queueCapacity = Integer.parseInt(option("queue-capacity", "1024"));
+        int maxActiveCases = Integer.parseInt(option("max-active-cases", "1000"));
+
+        Map<String, Object> filterSettings = new HashMap<>();
+        filterSettings.put("departments", Arrays.asList(option("departments", "Emergency,Cardiology,Neurology").split(",")));
+        DepartmentFilter filter = new DepartmentFilter(BenchmarkSupport.configuration(filterSettings));
+
+        Map<String, Object> minerSettings = new HashMap<>();
+        minerSettings.put("engine", engine);
+        minerSettings.put("batchSize", Integer.parseInt(option("batch-size", "1")));
+        minerSettings.put("eagerStart", true);
+        // A stable model is only published on change; a heartbeat keeps the sink (and event -> model) busy
+        minerSettings.put("heartbeatMs", Integer.parseInt(option("heartbeat-ms", "0")));
+        HeuristicsMiner miner = new HeuristicsMiner(BenchmarkSupport.configuration(minerSettings));
+
+        Map<String, Object> sinkSettings = new HashMap<>();
+        sinkSettings.put("asyncRendering", false); // the model is rendered before observe() returns
+        sinkSettings.put("writer", "direct");
+        PetriNetSink sink = new PetriNetSink(BenchmarkSupport.configuration(sinkSettings));
+
+        HospitalEventSource.Shard shard = new HospitalEventSource.Shard(
+                new SplittableRandom(Long.parseLong(option("seed", "42"))), maxActiveCases, "PAT-");
+
+        BlockingQueue<Envelope> toFilter = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Envelope> toMiner = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Envelope> toSink = new ArrayBlockingQueue<>(queueCapacity);
+        Map<String, BlockingQueue<Envelope>> queues = new LinkedHashMap<>();
+        queues.put("source->filter", toFilter);
+        queues.put("filter->miner", toMiner);
+        queues.put("miner->sink", toSink);
+
+        LatencyHistogram endToEnd = new LatencyHistogram();
+        Stage source = new Stage("source", null, toFilter, null);
+        Stage filtering = new Stage("DepartmentFilter", toFilter, toMiner, message -> filter.process(message, 0));
+        Stage mining = new Stage("HeuristicsMiner", toMiner, toSink, message -> {
+            Pair<PetriNet, Boolean> mined = miner.process(message, 0);
+            return mined.second() ? mined.first() : null;
+        });
+        Stage sinking = new Stage("PetriNetSink", toSink, null, message -> {
+            sink.observe(new Pair<>(message, 0));
+            return message;
+        });
+        sinking.endToEnd = endToEnd;
+        List<Stage> stages = Arrays.asList(source, filtering, mining, sinking);
+
+        System.out.printf("[ScenarioHarness] %s profile, %s ev/s, %d s warmup + %d s measured, miner engine %s%n",
+                profile, rate > 0 ? String.format("%.0f", rate) : "unthrottled",
+                TimeUnit.NANOSECONDS.toSeconds(warmupNanos), TimeUnit.NANOSECONDS.toSeconds(durationNanos), engine);
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> drive(shard, source, toFilter), "harness-source"));
+        for (Stage stage : stages.subList(1, stages.size())) {
+            threads.add(new Thread(stage, "harness-" + stage.name));
+        }
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+
+        // Warm up, then reset and sample queue depths for the measured period
+        sleepUntil(start + warmupNanos);
+        stages.forEach(Stage::reset);
+        endToEnd.reset();
+        QueueDepths depths = new QueueDepths(queues);
+        long measureStart = System.nanoTime();
+        long measureEnd = measureStart + durationNanos;
+        long maxBehind = 0;
+        while (System.nanoTime() < measureEnd) {
+            depths.sample();
+            maxBehind = Math.max(maxBehind, sourceTarget - sourceEmitted);
+            LockSupport.parkNanos(10_000_000L);
+        }
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+        ObjectNode results = results(engine, stages, depths, endToEnd, seconds, maxBehind);
+
+        running = false;
+        for (Thread thread : threads) thread.join(TimeUnit.SECONDS.toMillis(30));
+        sink.terminate();
+        miner.terminate();
+        filter.terminate();
+
+        print(results);
+        String out = options.get("out");
+        if (out != null) {
+            MAPPER.writerWithDefaultPrettyPrinter().writeValue(new File(out), results);
+        }
+        return compareWithBaseline(results, engine);
+    }
+
+    /** Emits events at the profile's rate; blocks when the filter's queue is full. */
+    private void drive(HospitalEventSource.Shard shard, Stage source, BlockingQueue<Envelope> output) {
+        long start = System.nanoTime();
+        long emitted = 0;
+        try {
+            while (running) {
+                long target = target(System.nanoTime() - start);
+                sourceTarget = target;
+                if (emitted >= target) {
+                    LockSupport.parkNanos(100_000L);
+                    continue;
+                }
+                while (emitted < target && running) {
+                    long begin = System.nanoTime();
+                    Event event = shard.generateNextEvent();
+                    if (event == null) continue; // a finished case produces no event
+                    long now = System.nanoTime();
+                    source.record(now - begin);
+                    output.put(new Envelope(event, now));
+                    sourceEmitted = ++emitted;
+                }
+            }
+            output.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Events the profile has asked for after {@code elapsed} nanoseconds (warmup included). */
+    private long target(long elapsed) {
+        if (rate <= 0) return Long.MAX_VALUE;
+        double t = elapsed / 1e9;
+        switch (profile) {
+            case "ramp": {
+                // Linear from rampFrom * rate to rate over the whole run
+                double from = Double.parseDouble(option("ramp-from", "0.1"));
+                double total = (warmupNanos + durationNanos) / 1e9;
+                double clamped = Math.min(t, total);
+                double events = rate * (from * clamped + (1 - from) * clamped * clamped / (2 * total));
+                return (long) (events + rate * Math.max(0, t - total));
+            }
+            case "burst": {
+                // The base rate, raised to burstFactor * rate for burstMs out of every burstEveryMs
+                double factor = Double.parseDouble(option("burst-factor", "5"));
+                double burst = Double.parseDouble(option("burst-ms", "1000")) / 1000;
+                double every = Double.parseDouble(option("burst-every-ms", "5000")) / 1000;
+                long periods = (long) (t / every);
+                double inBursts = periods * burst + Math.min(t - periods * every, burst);
+                return (long) (rate * t + (factor - 1) * rate * inBursts);
+            }
+            default:
+                return (long) (rate * t);
+        }
+    }
+
+    private ObjectNode results(String engine, List<Stage> stages, QueueDepths depths,
+                               LatencyHistogram endToEnd, double seconds, long maxBehind) {
+        ObjectNode results = MAPPER.createObjectNode();
+        results.put("profile", profile);
+        results.put("engine", engine);
+        results.put("rate", rate);
+        results.put("seconds", seconds);
+        ObjectNode stageResults = results.putObject("stages");
+        for (Stage stage : stages) {
+            ObjectNode node = stageResults.putObject(stage.name);
+            node.put("eventsPerSecond", stage.processed.sum() / seconds);
+            node.put("dropped", stage.dropped.sum());
+            node.put("p50Micros", stage.serviceTime.percentile(0.50) / 1e3);
+            node.put("p90Micros", stage.serviceTime.percentile(0.90) / 1e3);
+            node.put("p99Micros", stage.serviceTime.percentile(0.99) / 1e3);
+            node.put("p999Micros", stage.serviceTime.percentile(0.999) / 1e3);
+            node.put("maxMicros", stage.serviceTime.max() / 1e3);
+        }
+        ObjectNode queueResults = results.putObject("queues");
+        depths.write(queueResults);
+        ObjectNode e2e = results.putObject("endToEnd");
+        e2e.put("models", endToEnd.count());
+        e2e.put("p50Millis", endToEnd.percentile(0.50) / 1e6);
+        e2e.put("p99Millis", endToEnd.percentile(0.99) / 1e6);
+        e2e.put("maxMillis", endToEnd.max() / 1e6);
+        results.put("sourceMaxBehind", maxBehind);
+        return results;
+    }
+
+    private static void print(ObjectNode results) {
+        System.out.printf("%n%-18s %12s %10s %10s %10s %10s %10s %10s%n",
+                "stage", "events/s", "dropped", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+        Iterator<Map.Entry<String, JsonNode>> stages = results.get("stages").fields();
+        while (stages.hasNext()) {
+            Map.Entry<String, JsonNode> stage = stages.next();
+            JsonNode s = stage.getValue();
+            System.out.printf("%-18s %12.0f %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", stage.getKey(),
+                    s.get("eventsPerSecond").asDouble(), s.get("dropped").asLong(), s.get("p50Micros").asDouble(),
+                    s.get("p90Micros").asDouble(), s.get("p99Micros").asDouble(), s.get("p999Micros").asDouble(),
+                    s.get("maxMicros").asDouble());
+        }
+        System.out.printf("%n%-18s %12s %10s%n", "queue", "mean depth", "max depth");
+        Iterator<Map.Entry<String, JsonNode>> queues = results.get("queues").fields();
+        while (queues.hasNext()) {
+            Map.Entry<String, JsonNode> queue = queues.next();
+            System.out.printf("%-18s %12.1f %10d%n", queue.getKey(),
+                    queue.getValue().get("meanDepth").asDouble(), queue.getValue().get("maxDepth").asLong());
+        }
+        JsonNode e2e = results.get("endToEnd");
+        System.out.printf("%nevent -> model: %d models, p50 %.2f ms, p99 %.2f ms, max %.2f ms; source at most %d events behind%n",
+                e2e.get("models").asLong(), e2e.get("p50Millis").asDouble(), e2e.get("p99Millis").asDouble(),
+                e2e.get("maxMillis").asDouble(), results.get("sourceMaxBehind").asLong());
+    }
+
+    /**
+     * Compares throughput (lower is worse) and p99 latencies (higher is worse) with the baseline.
+     * Latencies also need to move by more than a small absolute amount, so sub-microsecond noise
+     * on fast stages does not fail the run.
+     */
+    private int compareWithBaseline(ObjectNode results, String engine) throws IOException {
+        Path baseline = baselinePath(engine);
+        if (options.containsKey("update-baseline")) {
+            Files.createDirectories(baseline.toAbsolutePath().getParent());
+            MAPPER.writerWithDefaultPrettyPrinter().writeValue(baseline.toFile(), results);
+            System.out.println("[ScenarioHarness] ✅ Baseline written to " + baseline);
+            return 0;
+        }
+        if (options.containsKey("no-baseline")) {
+            System.out.println("[ScenarioHarness] ⚠ Not compared with a baseline (--no-baseline).");
+            return 0;
+        }
+
+        double tolerance = Double.parseDouble(option("tolerance", "0.2"));
+        JsonNode expected = MAPPER.readTree(baseline.toFile());
+        List<String> regressions = new ArrayList<>();
+        Iterator<Map.Entry<String, JsonNode>> stages = expected.path("stages").fields();
+        while (stages.hasNext()) {
+            Map.Entry<String, JsonNode> stage = stages.next();
+            JsonNode current = results.path("stages").path(stage.getKey());
+            if (current.isMissingNode()) continue;
+            double before = stage.getValue().path("eventsPerSecond").asDouble();
+            double now = current.path("eventsPerSecond").asDouble();
+            if (now < before * (1 - tolerance)) {
+                regressions.add(String.format("%s throughput %.0f -> %.0f ev/s", stage.getKey(), before, now));
+            }
+            checkLatency(regressions, stage.getKey() + " p99", stage.getValue().path("p99Micros").asDouble(),
+                    current.path("p99Micros").asDouble(), tolerance, 10, "us");
+        }
+        checkLatency(regressions, "event -> model p99", expected.path("endToEnd").path("p99Millis").asDouble(),
+                results.path("endToEnd").path("p99Millis").asDouble(), tolerance, 1, "ms");
+
+        if (regressions.isEmpty()) {
+            System.out.println("[ScenarioHarness] ✅ Within " + Math.round(tolerance * 100) + "% of " + baseline);
+            return 0;
+        }
+        System.err.println("[ScenarioHarness] ❌ Regressed against " + baseline + ":");
+        regressions.forEach(regression -> System.err.println("  " + regression));
+        return 1;
+    }
+
+    private Path baselinePath(String engine) {
+        return Paths.get(option("baseline", "baselines/" + profile + "-" + engine + ".json"));
+    }
+
+    private static void checkLatency(List<String> regressions, String metric, double before, double now,
+                                     double tolerance, double slack, String unit) {
+        if (now > before * (1 + tolerance) && now - before > slack) {
+            regressions.add(String.format("%s %.1f -> %.1f %s", metric, before, now, unit));
+        }
+    }
+
+    private String option(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    /** "--key value" pairs; a flag without a value maps to "true". */
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            String key = args[i].substring(2);
+            boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+            options.put(key, hasValue ? args[++i] : "true");
+        }
+        return options;
+    }
+
+    /**
+     * A jar whose manifest starts StubMinerMain on this JVM's class path, exposed as the
+     * algorithms/heuristics-miner.jar resource through a class loader over a scratch directory.
+     */
+    private static ClassLoader stubMinerLoader(Path work, ClassLoader parent) throws IOException {
+        Path resources = work.resolve("resources");
+        Path jar = resources.resolve("algorithms").resolve("heuristics-miner.jar");
+        Files.createDirectories(jar.getParent());
+
+        StringBuilder classPath = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (entry.isEmpty()) continue;
+            if (classPath.length() > 0) classPath.append(' ');
+            classPath.append(Paths.get(entry).toAbsolutePath().toUri());
+        }
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, StubMinerMain.class.getName());
+        manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath.toString());
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            out.finish(); // manifest only; the classes come from the class path above
+        }
+        return new URLClassLoader(new URL[]{resources.toUri().toURL()}, parent);
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static void deleteRecursively(Path root) {
+        try (java.util.stream.Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("[ScenarioHarness] ⚠ Could not delete " + root + ": " + e.getMessage());
+        }
+    }
+
+    /** A message on its way through the stages, with the time its source event was emitted. */
+    static final class Envelope {
+        final Message message;
+        final long emittedNanos;
+
+        Envelope(Message message, long emittedNanos) {
+            this.message = message;
+            this.emittedNanos = emittedNanos;
+        }
+    }
+
+    /** One template on its own thread: takes from its input, forwards non-null results to its output. */
+    final class Stage implements Runnable {
+        final String name;
+        private final BlockingQueue<Envelope> input;
+        private final BlockingQueue<Envelope> output;
+        private final Function<Message, Message> step;
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final LongAdder processed = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        /** Set on the last stage: time from the source event to this stage finishing its model. */
+        LatencyHistogram endToEnd;
+
+        Stage(String name, BlockingQueue<Envelope> input, BlockingQueue<Envelope> output, Function<Message, Message> step) {
+            this.name = name;
+            this.input = input;
+            this.output = output;
+            this.step = step;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Envelope envelope = input.poll(100, TimeUnit.MILLISECONDS);
+                    if (envelope == null) {
+                        if (running) continue;
+                        break;
+                    }
+                    if (envelope == END) break;
+
+                    long begin = System.nanoTime();
+                    Message result;
+                    try {
+                        result = step.apply(envelope.message);
+                    } catch (RuntimeException e) {
+                        System.err.println("[ScenarioHarness] ❌ " + name + " failed: " + e.getMessage());
+                        result = null;
+                    }
+                    long end = System.nanoTime();
+                    record(end - begin);
+                    if (result == null) {
+                        dropped.increment();
+                        continue;
+                    }
+                    if (endToEnd != null) endToEnd.record(end - envelope.emittedNanos);
+                    if (output != null) output.put(new Envelope(result, envelope.emittedNanos));
+                }
+                if (output != null) output.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void record(long nanos) {
+            serviceTime.record(nanos);
+            processed.increment();
+        }
+
+        void reset() {
+            serviceTime.reset();
+            processed.reset();
+            dropped.reset();
+        }
+    }
+
+    /** Mean and maximum size of each queue, sampled every 10 ms. */
+    static final class QueueDepths {
+        private final Map<String, BlockingQueue<Envelope>> queues;
+        private final long[] sums;
+        private final long[] maxima;
+        private long samples = 0;
+
+        QueueDepths(Map<String, BlockingQueue<Envelope>> queues) {
+            this.queues = queues;
+            this.sums = new long[queues.size()];
+            this.maxima = new long[queues.size()];
+        }
+
+        void sample() {
+            int i = 0;
+            for (BlockingQueue<Envelope> queue : queues.values()) {
+                int size = queue.size();
+                sums[i] += size;
+                maxima[i] = Math.max(maxima[i], size);
+                i++;
+            }
+            samples++;
+        }
+
+        void write(ObjectNode node) {
+            int i = 0;
+            for (String name : queues.keySet()) {
+                ObjectNode queue = node.putObject(name);
+                queue.put("meanDepth", samples == 0 ? 0 : (double) sums[i] / samples);
+                queue.put("maxDepth", maxima[i]);
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Log-linear histogram of nanosecond values: 16 buckets per power of two, so a percentile
+     * is reported within about 6% of the recorded value. Safe to record from several threads.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(index(value));
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        long count() {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+            return total;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        /** Upper bound of the bucket holding the p-th recorded value, capped at the maximum. */
+        long percentile(double p) {
+            long total = count();
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+            max.set(0);
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) return index;
+            int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+            long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS);
+            return lower + (1L << (exponent - SUB_BITS)) - 1;
+        }
+    }
+}
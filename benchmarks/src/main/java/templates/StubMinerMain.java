@@ -0,0 +1,93 @@
+package templates;
+
+import communication.message.Message;
+import communication.message.impl.event.Event;
+import communication.message.serialization.MessageSerializer;
+import communication.message.serialization.deserialization.MessageFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Stand-in for heuristics-miner.jar, started by HeuristicsMiner when ScenarioHarness runs the
+ * subprocess engine. It speaks the miner's protocols (lines, or frames with --framed), mines
+ * with HeuristicsMiner's in-process engine, and answers every request with the current model
+ * serialized by the pipeline library, like the real miner does.
+ */
+public final class StubMinerMain {
+
+    private static final HeuristicsMiner.IncrementalHeuristicsMiner MINER =
+            new HeuristicsMiner.IncrementalHeuristicsMiner(0.9, 1);
+    private static String model = "";
+
+    private StubMinerMain() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        // In line mode stderr is merged into the protocol stream, so library warnings must not reach it
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        if (Arrays.asList(args).contains("--framed")) {
+            serveFrames();
+        } else {
+            serveLines();
+        }
+    }
+
+    private static void serveLines() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            observe(line);
+            // Model lines, a blank line, then the status line
+            if (!model.isEmpty()) {
+                out.write(model);
+                out.newLine();
+            }
+            out.newLine();
+            out.write(model.isEmpty() ? "false" : "true");
+            out.newLine();
+            out.flush();
+        }
+    }
+
+    private static void serveFrames() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in, 64 * 1024));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out, 64 * 1024));
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            for (String line : new String(payload, StandardCharsets.UTF_8).split("\n")) {
+                if (!line.isEmpty()) observe(line);
+            }
+            byte[] answer = model.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(answer.length);
+            out.writeByte(answer.length > 0 ? 1 : 0);
+            out.write(answer);
+            out.flush();
+        }
+    }
+
+    private static void observe(String serializedEvent) {
+        Message message;
+        try {
+            message = MessageFactory.deserialize(serializedEvent);
+        } catch (RuntimeException e) {
+            return;
+        }
+        if (!(message instanceof Event)) return;
+        Event event = (Event) message;
+        if (MINER.observe(event.getCaseID(), event.getActivity())) {
+            MessageSerializer serializer = new MessageSerializer();
+            MINER.buildModel().acceptVisitor(serializer);
+            model = serializer.getSerialization().trim();
+        }
+    }
+}
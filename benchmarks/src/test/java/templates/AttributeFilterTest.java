@@ -0,0 +1,141 @@
+package templates;
+
+import communication.message.impl.event.Attribute;
+import communication.message.impl.event.Event;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tokenizer, parser and compiled conditions of {@link AttributeFilter}.
+ */
+class AttributeFilterTest {
+
+    @Test
+    void keywordsIgnoreCase() {
+        Event event = event("department", "Cardiology", "severity", 4);
+        assertTrue(matches("severity >= 3 AND NOT department = Oncology", event));
+        assertTrue(matches("severity < 3 Or department IN {cardiology}", event));
+    }
+
+    @Test
+    void quotedLiteralsAreText() {
+        Event event = event("note", "and", "code", "007", "department", "NaN");
+        assertTrue(matches("note = 'and'", event));
+        assertTrue(matches("note in {\"or\", \"AND\"}", event));
+        assertTrue(matches("code = '007'", event));
+        assertFalse(matches("code = '7'", event));
+        // Bare 7 is a number and "007" is a plain decimal, so they compare equal numerically
+        assertTrue(matches("code = 7", event));
+        // NaN, Infinity and exponents are bare words, not numbers
+        assertTrue(matches("department = nan", event));
+        assertFalse(matches("department in {1e3, Infinity}", event));
+    }
+
+    @Test
+    void numericTextOnlyComparesWhenPlainDecimal() {
+        Event event = event("dose", "1e3", "weight", "-.5");
+        assertFalse(matches("dose > 5", event));
+        assertTrue(matches("dose = 1e3", event));
+        assertTrue(matches("weight < 0", event));
+        assertTrue(matches("weight in {-0.5, 2}", event));
+    }
+
+    @Test
+    void notInNegatesTheSet() {
+        Event event = event("department", "Cardiology");
+        assertTrue(matches("department not in {Oncology, Neurology}", event));
+        assertFalse(matches("department not in {Oncology, CARDIOLOGY}", event));
+        // A missing attribute is in no set
+        assertTrue(matches("ward not in {A}", event));
+        assertFalse(matches("ward in {A}", event));
+    }
+
+    @Test
+    void andBindsTighterThanOrAndNotTighterThanAnd() {
+        assertTrue(matches("a = 1 or b = 1 and c = 1", event("a", 1, "b", 0, "c", 0)));
+        assertFalse(matches("a = 1 or b = 1 and c = 1", event("a", 0, "b", 1, "c", 0)));
+        assertFalse(matches("(a = 1 or b = 1) and c = 1", event("a", 1, "b", 0, "c", 0)));
+        assertTrue(matches("not a = 1 and b = 1", event("a", 0, "b", 1)));
+        assertFalse(matches("not a = 1 and b = 1", event("a", 1, "b", 1)));
+        assertTrue(matches("not (a = 1 and b = 1)", event("a", 1, "b", 0)));
+    }
+
+    @Test
+    void eventFieldsAreReadFromTheEvent() {
+        Event event = new Event("PAT-7", "TRIAGE", "1700000000000", new HashSet<>());
+        assertTrue(matches("activity = triage and caseId = 'PAT-7'", event));
+        assertTrue(matches("timestamp > 1600000000000", event));
+    }
+
+    @Test
+    void negativeZeroEqualsZero() {
+        assertTrue(matches("x = 0", event("x", -0.0)));
+        assertTrue(matches("x in {0}", event("x", -0.0)));
+        assertTrue(matches("x in {-0.0}", event("x", 0)));
+        assertTrue(matches("x in {-0, 5}", event("x", "0")));
+        assertTrue(matches("x in {0}", event("x", "-0")));
+    }
+
+    @Test
+    void errorsNameThePosition() {
+        assertError("Expected value at position 15", "department in {");
+        assertError("Expected value at position 10", "severity >");
+        assertError("Expected comparison operator but found '3' at position 9", "severity 3");
+        assertError("Unterminated string at position 13", "department = 'x");
+        assertError("Unexpected ')' at position 6", "a = 1 )");
+        assertError("Expected 'in' after 'not' at position 6", "a not = 1");
+        assertError("Expected ')' at position 15", "(a = 1 or b = 2");
+        assertError("Expected field name but found '=' at position 0", "= 1");
+    }
+
+    @Test
+    void reorderingKeepsTheResults() {
+        String expression = "severity >= 3 and department in {Oncology, Neurology} and activity = TRIAGE or doctor = 'Dr.A'";
+        AttributeFilter.Condition reordered = new AttributeFilter.Parser(expression, 16).parse();
+        String[] departments = {"Cardiology", "Oncology", "Neurology"};
+        Random random = new Random(1);
+        for (int i = 0; i < 20_000; i++) {
+            // Skewed so that the reordering actually moves the children around
+            int severity = random.nextInt(10) < 8 ? 1 : 5;
+            String department = departments[random.nextInt(3)];
+            String activity = random.nextBoolean() ? "TRIAGE" : "SURGERY";
+            String doctor = "Dr." + (char) ('A' + random.nextInt(26));
+            Set<Attribute<?>> attributes = new HashSet<>();
+            attributes.add(new Attribute<>("severity", severity));
+            attributes.add(new Attribute<>("department", department));
+            attributes.add(new Attribute<>("doctor", doctor));
+            Event event = new Event("PAT-" + i, activity, "0", attributes);
+
+            boolean expected = severity >= 3 && !department.equals("Cardiology") && activity.equals("TRIAGE")
+                    || doctor.equals("Dr.A");
+            assertEquals(expected, reordered.test(event), "event " + i);
+        }
+    }
+
+    private static boolean matches(String expression, Event event) {
+        return new AttributeFilter.Parser(expression, 16).parse().test(event);
+    }
+
+    private static void assertError(String message, String expression) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new AttributeFilter.Parser(expression, 16).parse());
+        assertTrue(e.getMessage().startsWith(message), e.getMessage());
+    }
+
+    /** An event with the given name/value attribute pairs. */
+    private static Event event(Object... pairs) {
+        Set<Attribute<?>> attributes = new HashSet<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            attributes.add(new Attribute<>((String) pairs[i], pairs[i + 1]));
+        }
+        return new Event("PAT-1", "TRIAGE", "0", attributes);
+    }
+}
@@ -0,0 +1,155 @@
+package templates;
+
+import communication.message.impl.event.Event;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import pipeline.processingelement.Configuration;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Case bucketing, the AIMD steps, case counting and the interval signal of {@link CaseSampler}.
+ */
+class CaseSamplerTest {
+
+    private CaseSampler sampler;
+    private CaseSampler.OperatorMetrics signal;
+
+    @AfterEach
+    void close() {
+        if (sampler != null) sampler.terminate();
+        if (signal != null) signal.close();
+    }
+
+    @Test
+    void positionIsStableAndInUnitInterval() {
+        for (int i = 0; i < 10_000; i++) {
+            double position = CaseSampler.position("PAT-" + i, 0);
+            assertTrue(position >= 0 && position < 1, "PAT-" + i + " at " + position);
+            assertEquals(position, CaseSampler.position("PAT-" + i, 0));
+        }
+    }
+
+    @Test
+    void positionSpreadsSequentialIdsEvenly() {
+        int cases = 100_000;
+        int[] deciles = new int[10];
+        for (int i = 0; i < cases; i++) {
+            deciles[(int) (CaseSampler.position("PAT-" + (1000 + i), 0) * 10)]++;
+        }
+        for (int decile = 0; decile < 10; decile++) {
+            assertEquals(cases / 10.0, deciles[decile], cases * 0.005, "decile " + decile);
+        }
+    }
+
+    @Test
+    void seedChangesTheKeptCases() {
+        int differing = 0;
+        for (int i = 0; i < 1_000; i++) {
+            boolean kept = CaseSampler.position("PAT-" + i, 0) < 0.5;
+            if (kept != CaseSampler.position("PAT-" + i, 42) < 0.5) differing++;
+        }
+        // Independent halves disagree on about half of the cases
+        assertEquals(500, differing, 60);
+    }
+
+    @Test
+    void aimdCutsMultiplicativelyAboveTarget() {
+        assertEquals(0.5, CaseSampler.nextRatio(1.0, 1500, 1000, 0.01, 1.0, 0.5, 0.05), 1e-12);
+        assertEquals(0.25, CaseSampler.nextRatio(0.5, Double.POSITIVE_INFINITY, 1000, 0.01, 1.0, 0.5, 0.05), 1e-12);
+        assertEquals(0.01, CaseSampler.nextRatio(0.015, 1500, 1000, 0.01, 1.0, 0.5, 0.05), 1e-12);
+    }
+
+    @Test
+    void aimdGrowsAdditivelyAtOrBelowTarget() {
+        assertEquals(0.30, CaseSampler.nextRatio(0.25, 1000, 1000, 0.01, 1.0, 0.5, 0.05), 1e-12);
+        assertEquals(0.30, CaseSampler.nextRatio(0.25, 10, 1000, 0.01, 1.0, 0.5, 0.05), 1e-12);
+        assertEquals(1.0, CaseSampler.nextRatio(0.98, 10, 1000, 0.01, 1.0, 0.5, 0.05), 1e-12);
+    }
+
+    @Test
+    void forgottenCasesAreCountedOnce() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("signalMBean", "");
+        settings.put("samplingRatio", 0.5);
+        settings.put("maxTrackedCases", 2);
+        sampler = new CaseSampler(new Configuration(settings));
+
+        // Ten cases open before any ends, so eight are forgotten and decided again at DISCHARGE
+        int kept = 0;
+        for (int i = 0; i < 10; i++) {
+            sampler.process(new Event("PAT-" + i, "TRIAGE", "0", new HashSet<>()), 0);
+            if (CaseSampler.position("PAT-" + i, 0) < 0.5) kept++;
+        }
+        for (int i = 0; i < 10; i++) {
+            sampler.process(new Event("PAT-" + i, "DISCHARGE", "1", new HashSet<>()), 0);
+        }
+
+        CaseSampler.SamplingMBean sampling = sampling();
+        assertEquals(10, sampling.getKeptCases() + sampling.getDroppedCases());
+        assertEquals(kept, sampling.getKeptCases());
+        assertEquals(kept / 10.0, sampling.getKeptCaseFraction(), 1e-12);
+        assertEquals(0, sampling.getTrackedCases());
+    }
+
+    @Test
+    void latencySignalCoversOnlyTheLastInterval() {
+        signal = new CaseSampler.OperatorMetrics("CaseSamplerTestSignal", new Object());
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("signalMBean", "templates:type=CaseSamplerTestSignal,*");
+        settings.put("adjustIntervalMs", 3_600_000);
+        sampler = new CaseSampler(new Configuration(settings));
+
+        record(signal, 100, 1_000_000);
+        assertEquals(1000, sampler.readSignal(), 1000 * 0.04);
+
+        // Cumulatively the p99 would still be about 1 ms
+        record(signal, 100, 5_000);
+        assertEquals(5, sampler.readSignal(), 5 * 0.04);
+        assertEquals(0, signal.getDropped());
+        assertEquals(200, signal.getLatencyCount(), "the sampler must not reset the signal MBean");
+    }
+
+    @Test
+    void idleSignalHasNoReadingButStalledSignalIsOverTarget() {
+        signal = new CaseSampler.OperatorMetrics("CaseSamplerTestSignal", new Object());
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("signalMBean", "templates:type=CaseSamplerTestSignal,*");
+        settings.put("adjustIntervalMs", 3_600_000);
+        sampler = new CaseSampler(new Configuration(settings));
+
+        record(signal, 10, 1_000);
+        assertFalse(Double.isNaN(sampler.readSignal()));
+        assertTrue(Double.isNaN(sampler.readSignal()), "nothing received and nothing completed");
+
+        signal.received(); // an event enters the miner and does not come back
+        assertEquals(Double.POSITIVE_INFINITY, sampler.readSignal());
+    }
+
+    private static void record(CaseSampler.OperatorMetrics metrics, int events, long nanos) {
+        for (int i = 0; i < events; i++) {
+            metrics.received();
+            metrics.recordLatency(nanos);
+        }
+    }
+
+    /** The sampler's exported counters, as a JMX client sees them. */
+    private static CaseSampler.SamplingMBean sampling() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("templates:type=CaseSampler,component=Sampling,*"), null);
+        assertEquals(1, names.size());
+        return JMX.newMBeanProxy(server, names.iterator().next(), CaseSampler.SamplingMBean.class);
+    }
+}
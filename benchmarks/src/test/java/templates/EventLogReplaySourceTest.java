@@ -0,0 +1,169 @@
+package templates;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * CSV parsing and the binary format of {@link EventLogReplaySource}, read back through the same
+ * readers the source replays from.
+ */
+class EventLogReplaySourceTest {
+
+    private static final EventLogReplaySource.CsvOptions OPTIONS =
+            new EventLogReplaySource.CsvOptions("caseId", "activity", "timestamp", ",");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void csvFieldsAreUnquotedAndCrlfIsStripped() throws IOException {
+        Path csv = write("log.csv", "caseId,activity,timestamp,note,count\r\n"
+                + "PAT-1,TRIAGE,1000,\"a, b\",42\r\n"
+                + "PAT-1,\"SAY \"\"HI\"\"\",2000,\"first\nsecond\",-5\r\n"
+                + "\r\n"
+                + "PAT-2,DISCHARGE,2020-01-01T00:00:00Z,,7\r\n");
+
+        assertEquals(List.of(
+                "PAT-1|TRIAGE|1000|note=a, b (String)|count=42 (Integer)",
+                "PAT-1|SAY \"HI\"|2000|note=first\nsecond (String)|count=-5 (Integer)",
+                "PAT-2|DISCHARGE|1577836800000|count=7 (Integer)"), readCsv(csv, 1 << 20));
+    }
+
+    @Test
+    void zeroPaddedValuesStayText() throws IOException {
+        Path csv = write("log.csv", "caseId,activity,timestamp,postcode,zero,negativeZero,big\n"
+                + "PAT-1,TRIAGE,1000,0072,0,-0,12345678901\n");
+
+        assertEquals(List.of("PAT-1|TRIAGE|1000|postcode=0072 (String)|zero=0 (Integer)"
+                + "|negativeZero=-0 (String)|big=12345678901 (Long)"), readCsv(csv, 1 << 20));
+    }
+
+    @Test
+    void malformedLinesAreSkipped() throws IOException {
+        Path csv = write("log.csv", "caseId,activity,timestamp\n"
+                + "PAT-1,TRIAGE,1000\n"
+                + "PAT-1,TRIAGE\n"
+                + "PAT-1,TRIAGE,not a time\n"
+                + "PAT-1,DISCHARGE,2000\n");
+
+        assertEquals(List.of("PAT-1|TRIAGE|1000", "PAT-1|DISCHARGE|2000"), readCsv(csv, 1 << 20));
+    }
+
+    @Test
+    void linesCrossingTheMappingWindowAreReadWhole() throws IOException {
+        StringBuilder log = new StringBuilder("caseId,activity,timestamp,doctor\n");
+        for (int i = 0; i < 500; i++) {
+            log.append("PAT-").append(i % 37).append(",\"STEP ").append(i).append("\",").append(1000 + i)
+                    .append(",Dr.").append((char) ('A' + i % 26)).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        Path csv = write("log.csv", log.toString());
+
+        List<String> whole = readCsv(csv, 1 << 20);
+        assertEquals(500, whole.size());
+        assertEquals(whole, readCsv(csv, 64));
+        assertEquals(whole, readCsv(csv, 41));
+    }
+
+    @Test
+    void lineLongerThanTheMappingWindowFails() throws IOException {
+        Path csv = write("log.csv", "caseId,activity,timestamp\nPAT-1,A-VERY-LONG-ACTIVITY-NAME,1000\n");
+
+        assertThrows(IOException.class, () -> readCsv(csv, 32));
+    }
+
+    @Test
+    void binaryLogRoundTrips() throws IOException {
+        Path bin = dir.resolve("log.bin");
+        List<String> written = new ArrayList<>();
+        try (EventLogReplaySource.BinaryLogWriter out = new EventLogReplaySource.BinaryLogWriter(bin)) {
+            EventLogReplaySource.LogRecord record = new EventLogReplaySource.LogRecord();
+            for (int i = 0; i < 300; i++) {
+                record.caseId = "PAT-" + (i % 11);
+                record.activity = i % 2 == 0 ? "TRIAGE" : "Röntgen";
+                record.timestamp = 1_700_000_000_000L + i;
+                record.attributeCount = 0;
+                record.addAttribute("severity", i % 5);
+                record.addAttribute("bytes", 5_000_000_000L + i);
+                if (i % 3 == 0) record.addAttribute("postcode", "00" + i);
+                out.write(record);
+                written.add(describe(record));
+            }
+            assertEquals(300, out.events());
+        }
+
+        assertEquals(written, readBinary(bin, 1 << 20));
+        assertEquals(written, readBinary(bin, 100));
+    }
+
+    @Test
+    void csvConvertedToBinaryReadsTheSame() throws IOException {
+        Path csv = write("log.csv", "caseId,activity,timestamp,postcode,severity,note\n"
+                + "PAT-1,TRIAGE,1000,0072,3,\"x, y\"\n"
+                + "PAT-2,TRIAGE,1500,,1,plain\n"
+                + "PAT-1,DISCHARGE,2000,0072,3,\n");
+        Path bin = dir.resolve("log.bin");
+        try (EventLogReplaySource.LogReader in = new EventLogReplaySource.CsvLogReader(csv, OPTIONS);
+             EventLogReplaySource.BinaryLogWriter out = new EventLogReplaySource.BinaryLogWriter(bin)) {
+            EventLogReplaySource.LogRecord record = new EventLogReplaySource.LogRecord();
+            while (in.next(record)) out.write(record);
+        }
+
+        assertEquals(readCsv(csv, 1 << 20), readBinary(bin, 1 << 20));
+    }
+
+    @Test
+    void rewindStartsOverAtTheFirstEvent() throws IOException {
+        Path csv = write("log.csv", "caseId,activity,timestamp\nPAT-1,TRIAGE,1000\nPAT-1,DISCHARGE,2000\n");
+        try (EventLogReplaySource.LogReader reader = new EventLogReplaySource.CsvLogReader(csv, OPTIONS, 32)) {
+            List<String> first = readAll(reader);
+            reader.rewind();
+            assertEquals(first, readAll(reader));
+        }
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<String> readCsv(Path csv, long window) throws IOException {
+        try (EventLogReplaySource.LogReader reader = new EventLogReplaySource.CsvLogReader(csv, OPTIONS, window)) {
+            return readAll(reader);
+        }
+    }
+
+    private static List<String> readBinary(Path bin, long window) throws IOException {
+        try (EventLogReplaySource.LogReader reader = new EventLogReplaySource.BinaryLogReader(bin, window)) {
+            return readAll(reader);
+        }
+    }
+
+    private static List<String> readAll(EventLogReplaySource.LogReader reader) throws IOException {
+        List<String> events = new ArrayList<>();
+        EventLogReplaySource.LogRecord record = new EventLogReplaySource.LogRecord();
+        while (reader.next(record)) events.add(describe(record));
+        return events;
+    }
+
+    private static String describe(EventLogReplaySource.LogRecord record) {
+        StringBuilder text = new StringBuilder()
+                .append(record.caseId).append('|').append(record.activity).append('|').append(record.timestamp);
+        for (int i = 0; i < record.attributeCount; i++) {
+            Object value = record.values[i];
+            text.append('|').append(record.keys[i]).append('=').append(value)
+                    .append(" (").append(value.getClass().getSimpleName()).append(')');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package templates;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Eviction, counting, key isolation and apply() of the shared {@link HospitalEventSource2.PseudonymCache},
+ * against the in-memory mapping store.
+ */
+class PseudonymCacheTest {
+
+    private final HospitalEventSource2.InMemoryMappingStore store = new HospitalEventSource2.InMemoryMappingStore();
+
+    private HospitalEventSource2.PseudonymCache cache(int maxEntries) {
+        return new HospitalEventSource2.PseudonymCache(Arrays.asList("doctor", "name"), Collections.singletonList("name"),
+                "hospital", "caseId", store, maxEntries);
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedAndCounted() {
+        HospitalEventSource2.PseudonymCache cache = cache(2);
+        cache.pseudonym("doctor", "Dr.A", "PAT-1");
+        cache.pseudonym("doctor", "Dr.B", "PAT-1");
+        cache.pseudonym("doctor", "Dr.A", "PAT-1"); // Dr.A is now the most recently used
+        cache.pseudonym("doctor", "Dr.C", "PAT-1");
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, store.lookups.sum());
+
+        cache.pseudonym("doctor", "Dr.A", "PAT-1");
+        assertEquals(3, store.lookups.sum(), "Dr.A must have survived the eviction");
+        cache.pseudonym("doctor", "Dr.B", "PAT-1");
+        assertEquals(4, store.lookups.sum(), "Dr.B was the eldest entry");
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    void hitsAndMissesAreCounted() {
+        HospitalEventSource2.PseudonymCache cache = cache(10);
+        cache.pseudonym("doctor", "Dr.A", "PAT-1");
+        cache.pseudonym("doctor", "Dr.A", "PAT-1");
+        cache.pseudonym("doctor", "Dr.A", "PAT-1");
+        cache.pseudonym("doctor", "Dr.B", "PAT-1");
+
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 1e-12);
+
+        cache.reset();
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertEquals(0.0, cache.getHitRate());
+    }
+
+    @Test
+    void keysAreIsolatedByDataSourceAndUniqueValue() {
+        HospitalEventSource2.PseudonymCache first = cache(10);
+        HospitalEventSource2.PseudonymCache second = new HospitalEventSource2.PseudonymCache(
+                Collections.singletonList("doctor"), Collections.emptyList(), "clinic", "caseId", store, 10);
+
+        String pseudonym = first.pseudonym("doctor", "Dr.A", "PAT-1");
+        assertNotEquals(pseudonym, first.pseudonym("doctor", "Dr.A", "PAT-2"));
+        assertNotEquals(pseudonym, first.pseudonym("doctor", "Dr.A", null));
+        assertNotEquals(first.pseudonym("doctor", "Dr.A", null), first.pseudonym("doctor", "Dr.A", ""));
+        assertNotEquals(pseudonym, second.pseudonym("doctor", "Dr.A", "PAT-1"));
+        assertEquals(pseudonym, first.pseudonym("doctor", "Dr.A", "PAT-1"));
+        assertEquals(5, store.size());
+    }
+
+    @Test
+    void evictedEntryGetsTheSamePseudonymBack() {
+        HospitalEventSource2.PseudonymCache cache = cache(1);
+        String pseudonym = cache.pseudonym("doctor", "Dr.A", "PAT-1");
+        cache.pseudonym("doctor", "Dr.B", "PAT-1");
+        assertEquals(1, cache.getEvictions());
+
+        assertEquals(pseudonym, cache.pseudonym("doctor", "Dr.A", "PAT-1"));
+        assertEquals(3, cache.getMisses(), "the evicted entry is looked up in the store again");
+    }
+
+    @Test
+    void applyRemovesSuppressedFieldsAndPseudonymizesTheRest() {
+        HospitalEventSource2.PseudonymCache cache = cache(10);
+        ObjectNode json = new ObjectMapper().createObjectNode();
+        json.put("caseId", "PAT-1");
+        json.put("doctor", "Dr.A");
+        json.put("name", "Jane Doe");
+        json.put("department", "Cardiology");
+
+        JsonNode anonymized = cache.apply(json);
+
+        assertFalse(anonymized.has("name"));
+        assertEquals(cache.pseudonym("doctor", "Dr.A", "PAT-1"), anonymized.get("doctor").asText());
+        assertNotEquals("Dr.A", anonymized.get("doctor").asText());
+        assertEquals("Cardiology", anonymized.get("department").asText());
+        assertEquals("PAT-1", anonymized.get("caseId").asText());
+        assertEquals("Jane Doe", json.get("name").asText(), "the input must not be modified");
+
+        // The suppressed field is never sent to the store
+        assertEquals(1, store.size());
+        assertTrue(cache.isPseudonymized("doctor"));
+        assertFalse(cache.isPseudonymized("name"));
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the helper classes that several templates share identical.
+ * <p>
+ * Templates are uploaded to the platform as single files, so a helper such as OperatorMetrics
+ * cannot live in a class of its own. Its one source is shared/NAME.java.in. Every template
+ * that uses it carries a copy between the markers
+ * <pre>
+ *     // &lt;shared:NAME&gt; ...
+ *     // &lt;/shared:NAME&gt;
+ * </pre>
+ * and this program writes the copies from the source:
+ * <pre>
+ *   java script/SyncShared.java            # rewrite the copies in the repository root
+ *   java script/SyncShared.java --check    # exit 1 if any copy differs (run by the benchmarks build)
+ * </pre>
+ */
+public final class SyncShared {
+
+    private static final Pattern REGION = Pattern.compile(
+            "(?m)^([ \\t]*// <shared:([A-Za-z0-9]+)>[^\\n]*\\n)(.*?)^([ \\t]*// </shared:\\2>)", Pattern.DOTALL);
+
+    public static void main(String[] args) throws IOException {
+        boolean check = false;
+        Path root = Paths.get(".");
+        for (String arg : args) {
+            if ("--check".equals(arg)) {
+                check = true;
+            } else {
+                root = Paths.get(arg);
+            }
+        }
+
+        List<String> problems = new ArrayList<>();
+        int regions = 0;
+        try (DirectoryStream<Path> templates = Files.newDirectoryStream(root, "*.java")) {
+            for (Path template : templates) {
+                String text = new String(Files.readAllBytes(template), StandardCharsets.UTF_8);
+                Matcher matcher = REGION.matcher(text);
+                StringBuilder synced = new StringBuilder();
+                int last = 0;
+                while (matcher.find()) {
+                    regions++;
+                    Path source = root.resolve("shared").resolve(matcher.group(2) + ".java.in");
+                    if (!Files.isRegularFile(source)) {
+                        problems.add(template.getFileName() + ": no " + root.relativize(source));
+                        continue;
+                    }
+                    String shared = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+                    synced.append(text, last, matcher.start())
+                            .append(matcher.group(1)).append(shared).append(matcher.group(4));
+                    last = matcher.end();
+                }
+                synced.append(text.substring(last));
+                if (synced.toString().equals(text)) continue;
+                if (check) {
+                    problems.add(template.getFileName() + " differs from shared/");
+                } else {
+                    Files.write(template, synced.toString().getBytes(StandardCharsets.UTF_8));
+                    System.out.println("[SyncShared] Updated " + template.getFileName());
+                }
+            }
+        }
+
+        if (!problems.isEmpty()) {
+            problems.forEach(problem -> System.err.println("[SyncShared] ❌ " + problem));
+            if (check) System.err.println("[SyncShared] Run: java script/SyncShared.java");
+            System.exit(1);
+        }
+        System.out.println("[SyncShared] ✅ " + regions + " shared regions in sync.");
+    }
+}
@@ -99,6 +99,22 @@ const scenario = async () => {
     //     });
     // });
 
+    // await step("Anna uploads a new ProcessingElement", async () => {
+    //     const formData = new FormData();
+    //     formData.append("template", fs.createReadStream("../EventLogReplaySource.java"));
+    //     formData.append("configSchema", fs.createReadStream("../orga_eventlogreplaysource_config_schema.json"));
+    //     formData.append("tier", "FREE"); // optional
+    //     formData.append("output", "Event"); // optional, comma-separated
+    //     formData.append("processingElementType", "SOURCE"); // optional, comma-separated
+
+    //     return axios.post(`${api_url}api/templates/uploadNewProcessingElement`, formData, {
+    //         headers: {
+    //             ...authHeaders.headers,
+    //             ...formData.getHeaders(),
+    //         },
+    //     });
+    // });
+
 
     // await step("Anna uploads a new ProcessingElement", async () => {
     //     const formData = new FormData();
@@ -116,6 +132,22 @@ const scenario = async () => {
     //     });
     // });
 
+    // await step("Anna uploads a new ProcessingElement", async () => {
+    //     const formData = new FormData();
+    //     formData.append("template", fs.createReadStream("../AttributeFilter.java"));
+    //     formData.append("configSchema", fs.createReadStream("../orga_attributefilter_config_schema.json"));
+    //     formData.append("tier", "FREE"); // optional
+    //     formData.append("output", "Event"); // optional
+    //     formData.append("inputs", "Event"); // optional, comma-separated
+    //     formData.append("processingElementType", "OPERATOR"); // optional, comma-separated
+    //     return axios.post(`${api_url}api/templates/uploadNewProcessingElement`, formData, {
+    //         headers: {
+    //             ...authHeaders.headers,
+    //             ...formData.getHeaders(),
+    //         },
+    //     });
+    // });
+
     await step("Anna uploads a new ProcessingElement", async () => {
         const formData = new FormData();
         formData.append("template", fs.createReadStream("../DepartmentFilter.java"));
@@ -188,6 +220,23 @@ const scenario = async () => {
             },
         });
     });
+
+    // CaseSampler reads the miner's MBeans, so it has to run in org B, in front of HeuristicsMiner
+    // await step("Anna uploads a new ProcessingElement", async () => {
+    //     const formData2 = new FormData();
+    //     formData2.append("template", fs.createReadStream("../CaseSampler.java"));
+    //     formData2.append("configSchema", fs.createReadStream("../orgb_casesampler_config_schema.json"));
+    //     formData2.append("tier", "FREE"); // optional
+    //     formData2.append("output", "Event"); // optional
+    //     formData2.append("inputs", "Event"); // optional, comma-separated
+    //     formData2.append("processingElementType", "OPERATOR"); // optional, comma-separated
+    //     return axios.post(`${api_url_b}api/templates/uploadNewProcessingElement`, formData2, {
+    //         headers: {
+    //             ...authHeaders2.headers,
+    //             ...formData2.getHeaders(),
+    //         },
+    //     });
+    // });
 };
 
 scenario();